@@ -1,23 +1,30 @@
 package cli;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.rdf4j.rio.Rio;
+
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import plc2skill.mapping.MappingDelta;
+import plc2skill.mapping.OutputFormat;
 import plc2skill.mapping.Plc2SkillMapper;
+import plc2skill.opcua.BrowseSettings;
+import plc2skill.opcua.OpcUaBrowser;
 
 @Command(name = "PLC2Skill CLI", mixinStandardHelpOptions = true)
 public class Plc2SkillCli implements Runnable {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
-	String outputFilename = "MappingOutput.ttl";
+	String outputFilename = "MappingOutput";
 
 	@Option(names = { "-f", "--filename" }, description = "File name of the PLCopen XML file that should be mapped")
 	String fileName = "";
@@ -39,22 +46,70 @@ public class Plc2SkillCli implements Runnable {
 	
 	@Option(names = { "-n", "--nodeIdRoot" }, description = "Root component of this OPC UA Server's node IDs")
 	String nodeIdRoot = "";
+	
+	@Option(names = { "-sm", "--securityMode" }, description = "Message security mode of the endpoint (None, Sign, SignAndEncrypt). If set together with -n, no connection to the OPC UA Server is made")
+	MessageSecurityMode securityMode;
+	
+	@Option(names = { "-sp", "--securityPolicy" }, description = "Security policy of the endpoint (e.g. None, Basic256Sha256). Only used together with -sm")
+	SecurityPolicy securityPolicy = SecurityPolicy.None;
+	
+	@Option(names = { "-a", "--scopeToApplication" }, description = "Only crawl the PLC application on the OPC UA Server instead of the whole address space")
+	boolean scopeToApplication = false;
+	
+	@Option(names = { "-hr", "--hierarchicalReferencesOnly" }, description = "Only follow hierarchical references when crawling the OPC UA Server instead of all references")
+	boolean hierarchicalReferencesOnly = false;
+	
+	@Option(names = { "-d", "--maxDepth" }, description = "Maximum depth of the OPC UA address space that is crawled to resolve node IDs")
+	int maxDepth = Integer.MAX_VALUE;
+	
+	@Option(names = { "-s", "--snapshot" }, description = "Address space snapshot file that node IDs are resolved from. If set, no connection to the OPC UA Server is made and -e is optional")
+	String snapshot = "";
+	
+	@Option(names = { "-of", "--outputFormat" }, description = "Format of the mapping result (${COMPLETION-CANDIDATES}). Default: TURTLE")
+	OutputFormat outputFormat = OutputFormat.TURTLE;
+	
+	@Option(names = { "-g", "--graphPerSkill" }, description = "Put each skill into a named graph of its own. Requires an output format with named graphs (NQUADS, TRIG or BINARY)")
+	boolean graphPerSkill = false;
+	
+	@Option(names = { "-st", "--state" }, description = "State file of incremental mappings. If set, only skills that changed since the last run with this file are mapped and the added and removed statements are written to separate files")
+	String state = "";
+	
+	@Option(names = { "-ws", "--writeSnapshot" }, description = "Crawl the OPC UA Server given with -e and write its address space to this snapshot file. If -f is set, the file is mapped with the new snapshot afterwards")
+	String writeSnapshot = "";
 
 	@Override
 	public void run() {
-		// fileName and endpointUrl are required, rest is optional
-		if (fileName.isBlank() || endpointUrl.isBlank()) {
-			logger.error("Missing one or both mandatory parameters -f and -e...");
+		BrowseSettings browseSettings = new BrowseSettings().setMaxDepth(maxDepth).setHierarchicalReferencesOnly(hierarchicalReferencesOnly);
+		
+		// Capturing a snapshot only needs the endpointUrl
+		if (!writeSnapshot.isBlank()) {
+			if (endpointUrl.isBlank()) {
+				logger.error("Missing mandatory parameter -e to capture a snapshot...");
+				return;
+			}
+			if (!captureSnapshot(browseSettings) || fileName.isBlank()) {
+				return;
+			}
+			snapshot = writeSnapshot;
+		}
+		
+		// fileName and endpointUrl (or a snapshot) are required, rest is optional
+		if (fileName.isBlank() || (endpointUrl.isBlank() && snapshot.isBlank())) {
+			logger.error("Missing one or both mandatory parameters -f and -e (or -s)...");
 			return;
 		}
 		
 		logger.info("Started PLC-Code Mapping to Skills");
 		Path plcOpenPath = Path.of(fileName);
-		logger.info("fileName: " + plcOpenPath + "\nendpointUrl: " + endpointUrl + "\nnodeIdRoot: " + nodeIdRoot);
-		Plc2SkillMapper mapper = new Plc2SkillMapper.Builder(plcOpenPath, endpointUrl).setUser(user, password).setNodeIdRoot(nodeIdRoot).setResourceIri(resourceIri).setBaseIri(baseIri).build();
-		String result = mapper.executeMapping();
-		writeFile(result, outputFilename);
-		logger.info("Completed PLC-Code Mapping to Skills");
+		logger.info("fileName: " + plcOpenPath + "\nendpointUrl: " + endpointUrl + "\nnodeIdRoot: " + nodeIdRoot + "\nsnapshot: " + snapshot);
+		Plc2SkillMapper mapper = new Plc2SkillMapper.Builder(plcOpenPath, endpointUrl).setUser(user, password).setNodeIdRoot(nodeIdRoot).setResourceIri(resourceIri).setBaseIri(baseIri)
+				.setBrowseSettings(browseSettings).setScopeToApplication(scopeToApplication).setEndpointSecurity(securityMode, securityPolicy)
+				.setAddressSpaceSnapshot(snapshot.isBlank() ? null : Path.of(snapshot)).setOutputFormat(outputFormat).setGraphPerSkill(graphPerSkill).build();
+		boolean written = state.isBlank() ? writeFile(mapper, outputFilename + "." + outputFormat.getFileExtension())
+				: writeDeltaFiles(mapper, Path.of(state));
+		if (written) {
+			logger.info("Completed PLC-Code Mapping to Skills");
+		}
 	}
 
 	public static void main(String[] args) {
@@ -63,19 +118,65 @@ public class Plc2SkillCli implements Runnable {
 	}
 
 	/**
-	 * Writes the mapped model to a file
+	 * Crawls the OPC UA server and writes its address space to the snapshot file
+	 * 
+	 * @param browseSettings Settings used when crawling the server's address space
+	 * @return true if the snapshot was written
+	 */
+	private boolean captureSnapshot(BrowseSettings browseSettings) {
+		try (OpcUaBrowser browser = new OpcUaBrowser(endpointUrl, user, password, browseSettings)) {
+			browser.writeSnapshot(Path.of(writeSnapshot));
+			logger.info("Wrote address space snapshot of " + endpointUrl + " to " + writeSnapshot);
+			return true;
+		} catch (Exception e) {
+			logger.error("Error while capturing the address space of " + endpointUrl + ". Please check your endpointUrl and make sure the server is running.");
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Executes the mapping and writes the mapped model directly to a file
+	 * 
+	 * @param mapper   Mapper that creates the complete skill model
+	 * @param filePath Path to the file that will be created
+	 * @return true if the file was written
+	 */
+	private boolean writeFile(Plc2SkillMapper mapper, String filePath) {
+		try (OutputStream output = Files.newOutputStream(Path.of(filePath))) {
+			mapper.executeMapping(output);
+			return true;
+		} catch (Exception e) {
+			logger.error("Error while mapping or writing the file");
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Executes an incremental mapping and writes the added and removed statements to two files
 	 * 
-	 * @param mappedModel String containing the complete skill model
-	 * @param filePath    Path to the file that will be created
+	 * @param mapper    Mapper that creates the delta
+	 * @param stateFile State file of the previous run, updated by the mapping
+	 * @return true if both files were written
 	 */
-	private void writeFile(String mappedModel, String filePath) {
+	private boolean writeDeltaFiles(Plc2SkillMapper mapper, Path stateFile) {
 		try {
-			BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
-			writer.write(mappedModel);
-			writer.close();
-		} catch (IOException e) {
-			logger.error("Error while writing the file");
+			MappingDelta delta = mapper.executeIncrementalMapping(stateFile);
+			String extension = "." + outputFormat.getFileExtension();
+			try (OutputStream output = Files.newOutputStream(Path.of(outputFilename + ".added" + extension))) {
+				Rio.write(delta.getAddedStatements(), output, outputFormat.getRdfFormat());
+			}
+			try (OutputStream output = Files.newOutputStream(Path.of(outputFilename + ".removed" + extension))) {
+				Rio.write(delta.getRemovedStatements(), output, outputFormat.getRdfFormat());
+			}
+			logger.info("Mapped " + delta.getRemappedSkills().size() + " changed skills: " + delta.getAddedStatements().size()
+					+ " statements added, " + delta.getRemovedStatements().size() + " statements removed");
+			return true;
+		} catch (Exception e) {
+			logger.error("Error while mapping incrementally or writing the delta files");
 			e.printStackTrace();
+			return false;
 		}
 	}
 
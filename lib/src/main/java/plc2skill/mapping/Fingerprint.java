@@ -0,0 +1,57 @@
+package plc2skill.mapping;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 fingerprint over a sequence of strings. Every value is added with its length and null is distinguished from an empty string, so
+ * different sequences never collide by concatenation
+ */
+class Fingerprint {
+
+	private final MessageDigest digest;
+
+	Fingerprint() {
+		try {
+			this.digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Adds a value to the fingerprint
+	 * @param value Value to add, may be null
+	 * @return
+	 */
+	Fingerprint add(String value) {
+		if (value == null) {
+			this.digest.update((byte) 0);
+			return this;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		this.digest.update((byte) 1);
+		this.digest.update((byte) (bytes.length >>> 24));
+		this.digest.update((byte) (bytes.length >>> 16));
+		this.digest.update((byte) (bytes.length >>> 8));
+		this.digest.update((byte) bytes.length);
+		this.digest.update(bytes);
+		return this;
+	}
+
+	/**
+	 * Completes the fingerprint. Afterwards, no more values can be added
+	 * @return Fingerprint as a lower case hex string
+	 */
+	String toHex() {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : this.digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+}
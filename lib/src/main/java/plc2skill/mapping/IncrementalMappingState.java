@@ -0,0 +1,342 @@
+package plc2skill.mapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.RDFWriter;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import plc2skill.mapping.PlcOpenModel.SkillInstance;
+import plc2skill.mapping.PlcOpenModel.SkillPou;
+import plc2skill.mapping.PlcOpenModel.SkillVariable;
+
+/**
+ * State of an incremental mapping that is kept in a local file between two runs. It contains a fingerprint of every skill POU and skill instance
+ * together with the statements each skill was mapped to and the statements shared by all skills.<br>
+ * A skill's fingerprint covers everything of the PLCopen file its mapping depends on (the same information the mapping rules get, see
+ * {@link SkillSourceBuilder}), so a skill with an unchanged fingerprint is mapped to the same statements as before. The file is written in RDF4J's
+ * binary RDF format with one named graph per skill
+ */
+class IncrementalMappingState {
+
+	private static final Logger logger = LoggerFactory.getLogger(IncrementalMappingState.class);
+	private static final ValueFactory valueFactory = SimpleValueFactory.getInstance();
+
+	// Increase whenever the mapping rules or the state machine template change, so that all skills are mapped again
+	private static final String version = "1";
+
+	private static final String namespace = "urn:plc2skill:state:";
+	private static final IRI fingerprintsGraph = valueFactory.createIRI(namespace + "fingerprints");
+	private static final IRI sharedGraph = valueFactory.createIRI(namespace + "shared");
+	private static final IRI settingsNode = valueFactory.createIRI(namespace + "settings");
+	private static final IRI fingerprintPredicate = valueFactory.createIRI(namespace + "fingerprint");
+	private static final String skillPrefix = namespace + "skill/";
+	private static final String pouPrefix = namespace + "pou/";
+
+	private String settingsFingerprint;
+	private final Map<String, String> pouFingerprints = new LinkedHashMap<>();
+	private final Map<String, String> skillFingerprints = new LinkedHashMap<>();
+	private final Map<String, Set<Statement>> skillStatements = new LinkedHashMap<>();
+	private Set<Statement> sharedStatements = new HashSet<>();
+
+	private IncrementalMappingState(String settingsFingerprint) {
+		this.settingsFingerprint = settingsFingerprint;
+	}
+
+	/**
+	 * Computes the fingerprints of all skill POUs and skills of a PLCopen model. The mapping results are set later on
+	 * @param model Model extracted from the PLCopen file
+	 * @param settings All mapper settings that influence the mapping result (e.g. base IRI, nodeIdRoot)
+	 * @return
+	 */
+	static IncrementalMappingState of(PlcOpenModel model, List<String> settings) {
+		Fingerprint settingsFingerprint = new Fingerprint().add(version);
+		settings.forEach(settingsFingerprint::add);
+		IncrementalMappingState state = new IncrementalMappingState(settingsFingerprint.toHex());
+
+		for (PlcOpenModel.Resource resource : model.getResources()) {
+			for (SkillPou skillPou : resource.getSkillPous()) {
+				state.pouFingerprints.computeIfAbsent(skillPou.getName(), name -> fingerprintSkillPous(model.getSkillPous(name)));
+			}
+		}
+		for (SkillInstance skillInstance : model.getSkillInstances()) {
+			state.skillFingerprints.put(skillInstance.getName(), state.fingerprintSkill(model, skillInstance));
+		}
+		return state;
+	}
+
+	/**
+	 * The fingerprint of a skill POU is built from the fingerprints of its variables. If several resources contain a skill POU with the same name,
+	 * all of them are fingerprinted together, just as they are mapped together
+	 */
+	private static String fingerprintSkillPous(List<SkillPou> skillPous) {
+		Fingerprint fingerprint = new Fingerprint();
+		for (SkillPou skillPou : skillPous) {
+			fingerprint.add(String.valueOf(skillPou.getParameters().size()));
+			skillPou.getParameters().forEach(parameter -> fingerprint.add(fingerprintSkillVariable(parameter)));
+			fingerprint.add(String.valueOf(skillPou.getOutputs().size()));
+			skillPou.getOutputs().forEach(output -> fingerprint.add(fingerprintSkillVariable(output)));
+		}
+		return fingerprint.toHex();
+	}
+
+	private static String fingerprintSkillVariable(SkillVariable variable) {
+		return new Fingerprint()
+				.add(variable.getName())
+				.add(variable.getDefaultValue())
+				.add(variable.getVariableName())
+				.add(variable.getParamType())
+				.add(variable.getRequired())
+				.toHex();
+	}
+
+	/**
+	 * Besides its own skill POU, a skill depends on the configurations, the tasks of its resource and the names of all skill variables of its
+	 * resource. Lists are added with their size, so that values can't move from one list to another unnoticed
+	 */
+	private String fingerprintSkill(PlcOpenModel model, SkillInstance skillInstance) {
+		Fingerprint fingerprint = new Fingerprint()
+				.add(skillInstance.getName())
+				.add(skillInstance.getSkillPouName())
+				.add(this.pouFingerprints.get(skillInstance.getSkillPouName()));
+
+		fingerprint.add(String.valueOf(model.getConfigurationNames().size()));
+		model.getConfigurationNames().forEach(fingerprint::add);
+
+		PlcOpenModel.Resource resource = skillInstance.getResource();
+		fingerprint.add(String.valueOf(resource.getPouInstanceNames().size()));
+		resource.getPouInstanceNames().forEach(fingerprint::add);
+		for (SkillPou skillPou : resource.getSkillPous()) {
+			fingerprint.add(String.valueOf(skillPou.getParameters().size()));
+			skillPou.getParameters().forEach(parameter -> fingerprint.add(parameter.getName()));
+			fingerprint.add(String.valueOf(skillPou.getOutputs().size()));
+			skillPou.getOutputs().forEach(output -> fingerprint.add(output.getName()));
+		}
+		return fingerprint.toHex();
+	}
+
+	/**
+	 * Finds the skills that have to be mapped again: New skills, skills whose fingerprint changed and skills without a stored result. If the settings
+	 * changed, all skills have to be mapped again
+	 * @param previous State of the previous run
+	 * @return Names of the skills to map, in document order
+	 */
+	Set<String> findChangedSkills(IncrementalMappingState previous) {
+		boolean settingsChanged = !this.settingsFingerprint.equals(previous.settingsFingerprint);
+		if (settingsChanged && previous.settingsFingerprint != null) {
+			logger.info("The mapping settings changed, all skills are mapped again");
+		}
+
+		Set<String> changedSkills = new LinkedHashSet<>();
+		for (Map.Entry<String, String> skillFingerprint : this.skillFingerprints.entrySet()) {
+			String skillName = skillFingerprint.getKey();
+			if (settingsChanged || !skillFingerprint.getValue().equals(previous.skillFingerprints.get(skillName))
+					|| !previous.skillStatements.containsKey(skillName)) {
+				changedSkills.add(skillName);
+			}
+		}
+		return changedSkills;
+	}
+
+	/**
+	 * @param previous State of the previous run
+	 * @return Names of the skill POUs that are new or changed
+	 */
+	Set<String> findChangedPous(IncrementalMappingState previous) {
+		Set<String> changedPous = new LinkedHashSet<>();
+		this.pouFingerprints.forEach((pouName, fingerprint) -> {
+			if (!fingerprint.equals(previous.pouFingerprints.get(pouName))) {
+				changedPous.add(pouName);
+			}
+		});
+		return changedPous;
+	}
+
+	/**
+	 * @param previous State of the previous run
+	 * @return Names of the skills of the previous run that no longer exist
+	 */
+	Set<String> findRemovedSkills(IncrementalMappingState previous) {
+		Set<String> removedSkills = new LinkedHashSet<>(previous.skillStatements.keySet());
+		removedSkills.removeAll(this.skillFingerprints.keySet());
+		return removedSkills;
+	}
+
+	/**
+	 * @return Names of all skills, in document order
+	 */
+	Set<String> getSkillNames() {
+		return Collections.unmodifiableSet(this.skillFingerprints.keySet());
+	}
+
+	/**
+	 * @param skillName Name of the skill
+	 * @return Statements the skill was mapped to or an empty set if the skill has no result
+	 */
+	Set<Statement> getSkillStatements(String skillName) {
+		return this.skillStatements.getOrDefault(skillName, Collections.emptySet());
+	}
+
+	/**
+	 * @return Statements that belong to no skill (e.g. resource, OPC UA server and endpoint)
+	 */
+	Set<Statement> getSharedStatements() {
+		return this.sharedStatements;
+	}
+
+	/**
+	 * Sets the mapping result of one skill. Statements are stored without context
+	 * @param skillName Name of the skill
+	 * @param statements Statements the skill was mapped to
+	 */
+	void setSkillStatements(String skillName, Set<Statement> statements) {
+		this.skillStatements.put(skillName, statements);
+	}
+
+	/**
+	 * Sets the statements that belong to no skill. Statements are stored without context
+	 * @param statements Shared statements of the mapping result
+	 */
+	void setSharedStatements(Set<Statement> statements) {
+		this.sharedStatements = statements;
+	}
+
+	/**
+	 * Loads the state of the previous run. A missing or unreadable state file results in an empty state, so that all skills are mapped
+	 * @param stateFile Path of the state file
+	 * @return
+	 */
+	static IncrementalMappingState load(Path stateFile) {
+		IncrementalMappingState state = new IncrementalMappingState(null);
+		if (!Files.exists(stateFile)) {
+			logger.info("No state file found at {}, all skills are mapped", stateFile);
+			return state;
+		}
+
+		try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(stateFile))) {
+			RDFParser parser = Rio.createParser(RDFFormat.BINARY);
+			// Blank nodes of unchanged skills are compared with the next result, so they have to keep their IDs
+			parser.getParserConfig().set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+			parser.setRDFHandler(state.new StateFileHandler());
+			parser.parse(inputStream, namespace);
+		} catch (IOException | RDFParseException | RDFHandlerException e) {
+			logger.warn("The state file {} could not be read ({}), all skills are mapped", stateFile, e.getMessage());
+			return new IncrementalMappingState(null);
+		}
+		return state;
+	}
+
+	/**
+	 * Writes the state to a file. The file is written next to the state file first and moved afterwards, so an interrupted run never leaves a
+	 * broken state behind
+	 * @param stateFile Path of the state file
+	 * @throws IOException If the file cannot be written
+	 */
+	void save(Path stateFile) throws IOException {
+		Path temporaryFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+		try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(temporaryFile))) {
+			RDFWriter writer = Rio.createWriter(RDFFormat.BINARY, outputStream);
+			writer.startRDF();
+			writer.handleStatement(valueFactory.createStatement(settingsNode, fingerprintPredicate,
+					valueFactory.createLiteral(this.settingsFingerprint), fingerprintsGraph));
+			for (Map.Entry<String, String> pouFingerprint : this.pouFingerprints.entrySet()) {
+				writer.handleStatement(valueFactory.createStatement(valueFactory.createIRI(pouPrefix + encode(pouFingerprint.getKey())),
+						fingerprintPredicate, valueFactory.createLiteral(pouFingerprint.getValue()), fingerprintsGraph));
+			}
+			for (Map.Entry<String, String> skillFingerprint : this.skillFingerprints.entrySet()) {
+				IRI skillNode = valueFactory.createIRI(skillPrefix + encode(skillFingerprint.getKey()));
+				writer.handleStatement(valueFactory.createStatement(skillNode, fingerprintPredicate,
+						valueFactory.createLiteral(skillFingerprint.getValue()), fingerprintsGraph));
+				for (Statement statement : this.getSkillStatements(skillFingerprint.getKey())) {
+					writer.handleStatement(valueFactory.createStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(),
+							skillNode));
+				}
+			}
+			for (Statement statement : this.sharedStatements) {
+				writer.handleStatement(valueFactory.createStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(),
+						sharedGraph));
+			}
+			writer.endRDF();
+		}
+		Files.move(temporaryFile, stateFile, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String encode(String name) {
+		try {
+			return URLEncoder.encode(name, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform has to support UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String decode(String encodedName) {
+		try {
+			return URLDecoder.decode(encodedName, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Sorts the statements of the state file into fingerprints, skill results and shared results while the file is parsed
+	 */
+	private class StateFileHandler extends AbstractRDFHandler {
+
+		@Override
+		public void handleStatement(Statement statement) {
+			Resource context = statement.getContext();
+			if (fingerprintsGraph.equals(context)) {
+				String node = statement.getSubject().stringValue();
+				String fingerprint = statement.getObject().stringValue();
+				if (node.equals(settingsNode.stringValue())) {
+					settingsFingerprint = fingerprint;
+				} else if (node.startsWith(skillPrefix)) {
+					skillFingerprints.put(decode(node.substring(skillPrefix.length())), fingerprint);
+				} else if (node.startsWith(pouPrefix)) {
+					pouFingerprints.put(decode(node.substring(pouPrefix.length())), fingerprint);
+				}
+				return;
+			}
+
+			Statement withoutContext = valueFactory.createStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+			if (sharedGraph.equals(context)) {
+				sharedStatements.add(withoutContext);
+			} else if (context != null && context.stringValue().startsWith(skillPrefix)) {
+				String skillName = decode(context.stringValue().substring(skillPrefix.length()));
+				skillStatements.computeIfAbsent(skillName, name -> new HashSet<>()).add(withoutContext);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package plc2skill.mapping;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+
+/**
+ * Result of an incremental mapping: The statements that were added to and removed from the skill ontology since the previous run. Applying the
+ * delta to the previous result gives the complete current result
+ */
+public class MappingDelta {
+
+	private final Model addedStatements = new LinkedHashModel();
+	private final Model removedStatements = new LinkedHashModel();
+	private final Set<String> remappedSkills;
+	private final Set<String> removedSkills;
+
+	MappingDelta(Set<String> remappedSkills, Set<String> removedSkills) {
+		this.remappedSkills = Collections.unmodifiableSet(remappedSkills);
+		this.removedSkills = Collections.unmodifiableSet(removedSkills);
+	}
+
+	/**
+	 * Adds the difference between the previous and current statements of one part of the result
+	 * @param previousStatements Statements of the previous run
+	 * @param currentStatements Statements of this run
+	 */
+	void addDifference(Set<Statement> previousStatements, Set<Statement> currentStatements) {
+		for (Statement statement : currentStatements) {
+			if (!previousStatements.contains(statement)) {
+				this.addedStatements.add(statement);
+			}
+		}
+		for (Statement statement : previousStatements) {
+			if (!currentStatements.contains(statement)) {
+				this.removedStatements.add(statement);
+			}
+		}
+	}
+
+	/**
+	 * @return Statements that are new in this run
+	 */
+	public Model getAddedStatements() {
+		return this.addedStatements;
+	}
+
+	/**
+	 * @return Statements of the previous run that no longer exist
+	 */
+	public Model getRemovedStatements() {
+		return this.removedStatements;
+	}
+
+	/**
+	 * @return Names of the skills that were mapped again because they are new or changed, all others were taken from the previous run
+	 */
+	public Set<String> getRemappedSkills() {
+		return this.remappedSkills;
+	}
+
+	/**
+	 * @return Names of the skills of the previous run that no longer exist
+	 */
+	public Set<String> getRemovedSkills() {
+		return this.removedSkills;
+	}
+
+	/**
+	 * @return true if nothing changed since the previous run
+	 */
+	public boolean isEmpty() {
+		return this.addedStatements.isEmpty() && this.removedStatements.isEmpty();
+	}
+
+}
@@ -0,0 +1,19 @@
+package plc2skill.mapping;
+
+/**
+ * Engines that can be used to map a PLCopen file to the skill model
+ */
+public enum MappingEngine {
+
+	/**
+	 * Generic RML mapping with the rmlmapper. Supports any RML rules
+	 */
+	RML,
+
+	/**
+	 * Fast path that creates the quads of the mapping rules directly from the extracted skills, without RML records and XPath evaluation. Only
+	 * supports rules that iterate over the skill source (see {@link SkillSourceBuilder}), as the built-in rules do
+	 */
+	NATIVE
+
+}
@@ -0,0 +1,424 @@
+package plc2skill.mapping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.rml.store.Quad;
+import be.ugent.rml.store.QuadStore;
+import be.ugent.rml.store.RDF4JStore;
+import be.ugent.rml.term.Literal;
+import be.ugent.rml.term.NamedNode;
+import be.ugent.rml.term.Term;
+import plc2skill.mapping.PlcOpenModel.SkillInstance;
+import plc2skill.mapping.PlcOpenModel.SkillPou;
+import plc2skill.mapping.PlcOpenModel.SkillVariable;
+
+/**
+ * Mapping engine that creates the quads of the mapping rules directly from an extracted {@link PlcOpenModel}. The rules are compiled once per
+ * {@link RmlMappingPlan} into templates whose references are looked up in the model, so there are no RML records, XPath evaluations or function
+ * calls per mapping. Only the subset of RML that the built-in rules use is supported: Iterators over the skill source (see {@link SkillSourceBuilder}),
+ * subject maps with rr:template and rr:class and predicate object maps with rr:predicate and object maps with rr:template and optional rr:datatype.
+ * Like the rmlmapper, rr:class of object maps is ignored
+ */
+public class NativeSkillMapper {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	private static final String RR = "http://www.w3.org/ns/r2rml#";
+	private static final String RML = "http://semweb.mmlab.be/ns/rml#";
+
+	private static final String skillIterator = "./skills/skill";
+	private static final String configurationIterator = "./skills/configuration";
+
+	private static final Pattern absoluteIri = Pattern.compile("^[A-Za-z][A-Za-z0-9+.-]*:.*");
+	private static final Term typePredicate = new NamedNode(RDF + "type");
+
+	// Compiled rules are kept as long as their plan is used
+	private static final Map<RmlMappingPlan, List<CompiledTriplesMap>> compiledPlans = Collections
+			.synchronizedMap(new WeakHashMap<RmlMappingPlan, List<CompiledTriplesMap>>());
+
+	private final RmlMappingPlan mappingPlan;
+
+	/**
+	 * Creates a mapper for the built-in PLC2Skill mapping rules
+	 */
+	public NativeSkillMapper() {
+		this(null);
+	}
+
+	/**
+	 * Creates a mapper for a given mapping plan
+	 * @param mappingPlan Loaded mapping rules, null to use the built-in rules
+	 */
+	public NativeSkillMapper(RmlMappingPlan mappingPlan) {
+		this.mappingPlan = mappingPlan;
+	}
+
+	/**
+	 * Maps the extracted skills to the skill model
+	 * @param plcOpenModel Skills extracted from a PLCopen file
+	 * @param baseIri Base IRI of all created individuals
+	 * @return The same quads an RML mapping with the same rules would create
+	 * @throws Exception If the rules use RML features that are not supported by this engine
+	 */
+	public QuadStore executeMapping(PlcOpenModel plcOpenModel, String baseIri) throws Exception {
+		List<CompiledTriplesMap> triplesMaps = compile((this.mappingPlan != null) ? this.mappingPlan : RmlMappingPlan.getDefault());
+
+		QuadStore outputStore = new RDF4JStore();
+		for (CompiledTriplesMap triplesMap : triplesMaps) {
+			if (triplesMap.iterator.equals(skillIterator)) {
+				for (SkillInstance skillInstance : plcOpenModel.getSkillInstances()) {
+					triplesMap.generate(new SkillRecord(plcOpenModel, skillInstance), baseIri, outputStore);
+				}
+			} else {
+				for (String configurationName : plcOpenModel.getConfigurationNames()) {
+					triplesMap.generate(new ConfigurationRecord(plcOpenModel, configurationName), baseIri, outputStore);
+				}
+			}
+		}
+		logger.info("Mapped {} skills with the native mapping engine", plcOpenModel.getSkillInstances().size());
+		return outputStore;
+	}
+
+	/**
+	 * Returns the compiled rules of a plan. Rules are only compiled on first use of a plan
+	 */
+	private static List<CompiledTriplesMap> compile(RmlMappingPlan plan) throws Exception {
+		List<CompiledTriplesMap> triplesMaps = compiledPlans.get(plan);
+		if (triplesMaps == null) {
+			triplesMaps = compileRules(plan.getRules());
+			compiledPlans.put(plan, triplesMaps);
+		}
+		return triplesMaps;
+	}
+
+	private static List<CompiledTriplesMap> compileRules(QuadStore rules) throws Exception {
+		List<CompiledTriplesMap> triplesMaps = new ArrayList<CompiledTriplesMap>();
+		for (Quad triplesMapQuad : rules.getQuads(null, typePredicate, new NamedNode(RR + "TriplesMap"))) {
+			Term triplesMap = triplesMapQuad.getSubject();
+
+			Term logicalSource = getObject(rules, triplesMap, RML + "logicalSource");
+			String iterator = getObject(rules, logicalSource, RML + "iterator").getValue();
+			if (!iterator.equals(skillIterator) && !iterator.equals(configurationIterator)) {
+				throw new Exception("Iterator " + iterator + " of triples map " + triplesMap + " is not supported by the native mapping engine");
+			}
+
+			Term subjectMap = getObject(rules, triplesMap, RR + "subjectMap");
+			if (subjectMap == null) {
+				throw new Exception("Triples map " + triplesMap + " has no subject map");
+			}
+			TermMap subject = compileTermMap(rules, subjectMap, iterator, false);
+			List<Term> classes = getObjects(rules, subjectMap, RR + "class");
+
+			List<PredicateObjectMap> predicateObjectMaps = new ArrayList<PredicateObjectMap>();
+			for (Term predicateObjectMap : getObjects(rules, triplesMap, RR + "predicateObjectMap")) {
+				List<Term> predicates = getObjects(rules, predicateObjectMap, RR + "predicate");
+				List<TermMap> objects = new ArrayList<TermMap>();
+				for (Term objectMap : getObjects(rules, predicateObjectMap, RR + "objectMap")) {
+					objects.add(compileTermMap(rules, objectMap, iterator, true));
+				}
+				predicateObjectMaps.add(new PredicateObjectMap(predicates, objects));
+			}
+
+			triplesMaps.add(new CompiledTriplesMap(iterator, subject, classes, predicateObjectMaps));
+		}
+		return triplesMaps;
+	}
+
+	private static TermMap compileTermMap(QuadStore rules, Term termMap, String iterator, boolean isObjectMap) throws Exception {
+		Term template = getObject(rules, termMap, RR + "template");
+		if (template == null) {
+			throw new Exception("Term map " + termMap + " has no rr:template, which is the only term map supported by the native mapping engine");
+		}
+		Template compiledTemplate = Template.parse(template.getValue());
+		for (String reference : compiledTemplate.references) {
+			if (!isSupportedReference(reference, iterator)) {
+				throw new Exception("Reference " + reference + " is not supported by the native mapping engine");
+			}
+		}
+		Term datatype = isObjectMap ? getObject(rules, termMap, RR + "datatype") : null;
+		return new TermMap(compiledTemplate, datatype);
+	}
+
+	private static boolean isSupportedReference(String reference, String iterator) {
+		if (reference.equals("@name") || reference.equals("../configuration/@name")) {
+			return true;
+		}
+		if (!iterator.equals(skillIterator)) {
+			return false;
+		}
+		switch (reference) {
+		case "@type":
+		case "pouInstance/@name":
+		case "resourceParameter/@name":
+		case "resourceOutput/@name":
+			return true;
+		default:
+			return reference.matches("(parameter|output)/@(name|default|variableName|paramType|required)");
+		}
+	}
+
+	private static Term getObject(QuadStore rules, Term subject, String predicate) {
+		List<Term> objects = getObjects(rules, subject, predicate);
+		return objects.isEmpty() ? null : objects.get(0);
+	}
+
+	private static List<Term> getObjects(QuadStore rules, Term subject, String predicate) {
+		List<Term> objects = new ArrayList<Term>();
+		for (Quad quad : rules.getQuads(subject, new NamedNode(predicate), null)) {
+			objects.add(quad.getObject());
+		}
+		return objects;
+	}
+
+	/**
+	 * Percent-encodes all characters of a template value that are not unreserved IRI characters, as the rmlmapper does for IRI templates
+	 */
+	static String encodeIriValue(String value) {
+		StringBuilder encoded = new StringBuilder(value.length());
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char) (b & 0xFF);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~') {
+				encoded.append(c);
+			} else {
+				encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+						.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+			}
+		}
+		return encoded.toString();
+	}
+
+	/**
+	 * Values of a record, looked up by the references used in the rules
+	 */
+	private interface Record {
+		List<String> get(String reference);
+	}
+
+	/**
+	 * Record of a &lt;skill&gt; element of the skill source
+	 */
+	private static class SkillRecord implements Record {
+		private final PlcOpenModel model;
+		private final SkillInstance skillInstance;
+
+		private SkillRecord(PlcOpenModel model, SkillInstance skillInstance) {
+			this.model = model;
+			this.skillInstance = skillInstance;
+		}
+
+		@Override
+		public List<String> get(String reference) {
+			switch (reference) {
+			case "@name":
+				return Collections.singletonList(this.skillInstance.getName());
+			case "@type":
+				return Collections.singletonList(this.skillInstance.getSkillPouName());
+			case "../configuration/@name":
+				return this.model.getConfigurationNames();
+			case "pouInstance/@name":
+				return this.skillInstance.getResource().getPouInstanceNames();
+			case "resourceParameter/@name":
+				return this.getResourceVariableNames(false);
+			case "resourceOutput/@name":
+				return this.getResourceVariableNames(true);
+			default:
+				// parameter/@... and output/@...
+				boolean outputs = reference.startsWith("output/");
+				String attribute = reference.substring(reference.indexOf('@') + 1);
+				List<String> values = new ArrayList<String>();
+				for (SkillPou skillPou : this.model.getSkillPous(this.skillInstance.getSkillPouName())) {
+					for (SkillVariable skillVariable : outputs ? skillPou.getOutputs() : skillPou.getParameters()) {
+						String value = getAttribute(skillVariable, attribute);
+						if (value != null) {
+							values.add(value);
+						}
+					}
+				}
+				return values;
+			}
+		}
+
+		private List<String> getResourceVariableNames(boolean outputs) {
+			List<String> names = new ArrayList<String>();
+			for (SkillPou skillPou : this.skillInstance.getResource().getSkillPous()) {
+				for (SkillVariable skillVariable : outputs ? skillPou.getOutputs() : skillPou.getParameters()) {
+					names.add(skillVariable.getName());
+				}
+			}
+			return names;
+		}
+
+		private static String getAttribute(SkillVariable skillVariable, String attribute) {
+			switch (attribute) {
+			case "name":
+				return skillVariable.getName();
+			case "default":
+				return skillVariable.getDefaultValue();
+			case "variableName":
+				return skillVariable.getVariableName();
+			case "paramType":
+				return skillVariable.getParamType();
+			default:
+				return skillVariable.getRequired();
+			}
+		}
+	}
+
+	/**
+	 * Record of a &lt;configuration&gt; element of the skill source
+	 */
+	private static class ConfigurationRecord implements Record {
+		private final PlcOpenModel model;
+		private final String configurationName;
+
+		private ConfigurationRecord(PlcOpenModel model, String configurationName) {
+			this.model = model;
+			this.configurationName = configurationName;
+		}
+
+		@Override
+		public List<String> get(String reference) {
+			if (reference.equals("@name")) {
+				return Collections.singletonList(this.configurationName);
+			}
+			return this.model.getConfigurationNames();
+		}
+	}
+
+	/**
+	 * An rr:template split into its constant parts and references. There is always one constant part more than there are references
+	 */
+	private static class Template {
+		private final List<String> constants;
+		private final List<String> references;
+
+		private Template(List<String> constants, List<String> references) {
+			this.constants = constants;
+			this.references = references;
+		}
+
+		static Template parse(String template) {
+			List<String> constants = new ArrayList<String>();
+			List<String> references = new ArrayList<String>();
+			StringBuilder part = new StringBuilder();
+			boolean inReference = false;
+			for (int i = 0; i < template.length(); i++) {
+				char c = template.charAt(i);
+				if (c == '\\' && i + 1 < template.length()) {
+					part.append(template.charAt(++i));
+				} else if (c == '{' && !inReference) {
+					constants.add(part.toString());
+					part.setLength(0);
+					inReference = true;
+				} else if (c == '}' && inReference) {
+					references.add(part.toString());
+					part.setLength(0);
+					inReference = false;
+				} else {
+					part.append(c);
+				}
+			}
+			constants.add(part.toString());
+			return new Template(constants, references);
+		}
+
+		/**
+		 * Creates one string for every combination of the values of all references. If a reference has no values, no string is created
+		 */
+		List<String> expand(Record record, boolean encodeValues) {
+			List<String> results = Collections.singletonList(this.constants.get(0));
+			for (int i = 0; i < this.references.size(); i++) {
+				List<String> values = record.get(this.references.get(i));
+				String constant = this.constants.get(i + 1);
+				List<String> expanded = new ArrayList<String>(results.size() * values.size());
+				for (String result : results) {
+					for (String value : values) {
+						expanded.add(result + (encodeValues ? encodeIriValue(value) : value) + constant);
+					}
+				}
+				results = expanded;
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * A subject or object map. Creates IRIs or, if a datatype is given, literals
+	 */
+	private static class TermMap {
+		private final Template template;
+		private final Term datatype;
+
+		private TermMap(Template template, Term datatype) {
+			this.template = template;
+			this.datatype = datatype;
+		}
+
+		List<Term> generate(Record record, String baseIri) {
+			List<Term> terms = new ArrayList<Term>();
+			for (String value : this.template.expand(record, this.datatype == null)) {
+				if (this.datatype != null) {
+					terms.add(new Literal(value, this.datatype));
+				} else if (absoluteIri.matcher(value).matches()) {
+					terms.add(new NamedNode(value));
+				} else {
+					terms.add(new NamedNode(baseIri + value));
+				}
+			}
+			return terms;
+		}
+	}
+
+	private static class PredicateObjectMap {
+		private final List<Term> predicates;
+		private final List<TermMap> objects;
+
+		private PredicateObjectMap(List<Term> predicates, List<TermMap> objects) {
+			this.predicates = predicates;
+			this.objects = objects;
+		}
+	}
+
+	private static class CompiledTriplesMap {
+		private final String iterator;
+		private final TermMap subject;
+		private final List<Term> classes;
+		private final List<PredicateObjectMap> predicateObjectMaps;
+
+		private CompiledTriplesMap(String iterator, TermMap subject, List<Term> classes, List<PredicateObjectMap> predicateObjectMaps) {
+			this.iterator = iterator;
+			this.subject = subject;
+			this.classes = classes;
+			this.predicateObjectMaps = predicateObjectMaps;
+		}
+
+		void generate(Record record, String baseIri, QuadStore outputStore) {
+			for (Term subjectTerm : this.subject.generate(record, baseIri)) {
+				for (Term classTerm : this.classes) {
+					outputStore.addQuad(subjectTerm, typePredicate, classTerm);
+				}
+				for (PredicateObjectMap predicateObjectMap : this.predicateObjectMaps) {
+					for (TermMap objectMap : predicateObjectMap.objects) {
+						List<Term> objectTerms = objectMap.generate(record, baseIri);
+						for (Term predicate : predicateObjectMap.predicates) {
+							for (Term objectTerm : objectTerms) {
+								outputStore.addQuad(subjectTerm, predicate, objectTerm);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+}
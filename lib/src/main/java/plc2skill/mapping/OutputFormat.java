@@ -0,0 +1,124 @@
+package plc2skill.mapping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.rdf4j.rio.RDFFormat;
+
+/**
+ * Formats the mapping result can be written in. Turtle is the most readable one, the line-based and binary formats are written statement by
+ * statement and are much faster to load into triple stores
+ */
+public enum OutputFormat {
+
+	TURTLE(RDFFormat.TURTLE),
+	NTRIPLES(RDFFormat.NTRIPLES),
+	NQUADS(RDFFormat.NQUADS),
+	TRIG(RDFFormat.TRIG),
+
+	/**
+	 * RDF4J's binary RDF format. Can only be written to an OutputStream
+	 */
+	BINARY(RDFFormat.BINARY);
+
+	private final RDFFormat rdfFormat;
+
+	private OutputFormat(RDFFormat rdfFormat) {
+		this.rdfFormat = rdfFormat;
+	}
+
+	public RDFFormat getRdfFormat() {
+		return this.rdfFormat;
+	}
+
+	/**
+	 * @return MIME type to be used e.g. as content type of an HTTP response
+	 */
+	public String getMimeType() {
+		return this.rdfFormat.getDefaultMIMEType();
+	}
+
+	/**
+	 * @return File extension without a leading dot
+	 */
+	public String getFileExtension() {
+		return this.rdfFormat.getDefaultFileExtension();
+	}
+
+	/**
+	 * @return true if the format is not text-based
+	 */
+	public boolean isBinary() {
+		return !this.rdfFormat.hasCharset();
+	}
+
+	/**
+	 * @return true if the format can contain named graphs
+	 */
+	public boolean supportsGraphs() {
+		return this.rdfFormat.supportsContexts();
+	}
+
+	/**
+	 * Finds the format that fits an HTTP Accept header best. Media ranges are tried in the order of their quality values, wildcards select turtle
+	 *
+	 * @param acceptHeader Value of the Accept header, may be null
+	 * @return Best matching format, turtle if no header is given or null if none of the accepted media types is supported
+	 */
+	public static OutputFormat fromAcceptHeader(String acceptHeader) {
+		if (acceptHeader == null || acceptHeader.trim().isEmpty()) {
+			return TURTLE;
+		}
+
+		List<MediaRange> mediaRanges = new ArrayList<>();
+		for (String mediaRange : acceptHeader.split(",")) {
+			mediaRanges.add(MediaRange.parse(mediaRange));
+		}
+		// Stable sort keeps the order of the header for equal quality values
+		mediaRanges.sort((first, second) -> Double.compare(second.quality, first.quality));
+
+		for (MediaRange mediaRange : mediaRanges) {
+			if (mediaRange.quality <= 0) {
+				continue;
+			}
+			if (mediaRange.mimeType.equals("*/*") || mediaRange.mimeType.equals("text/*")) {
+				return TURTLE;
+			}
+			for (OutputFormat outputFormat : values()) {
+				if (outputFormat.rdfFormat.hasMIMEType(mediaRange.mimeType)) {
+					return outputFormat;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static class MediaRange {
+
+		private final String mimeType;
+		private final double quality;
+
+		private MediaRange(String mimeType, double quality) {
+			this.mimeType = mimeType;
+			this.quality = quality;
+		}
+
+		static MediaRange parse(String mediaRange) {
+			String[] pieces = mediaRange.split(";");
+			double quality = 1;
+			for (int i = 1; i < pieces.length; i++) {
+				String parameter = pieces[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			return new MediaRange(pieces[0].trim().toLowerCase(), quality);
+		}
+
+	}
+
+}
@@ -1,41 +1,57 @@
 package plc2skill.mapping;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.UserTokenType;
 import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.UserTokenPolicy;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.rio.RDFHandler;
+import org.eclipse.rdf4j.rio.Rio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
 import be.ugent.rml.store.Quad;
 import be.ugent.rml.store.QuadStore;
+import be.ugent.rml.term.BlankNode;
 import be.ugent.rml.term.Literal;
 import be.ugent.rml.term.NamedNode;
 import be.ugent.rml.term.Term;
-import plc2skill.opcua.NodeIdResolvingException;
+import plc2skill.opcua.AddressSpaceCache;
+import plc2skill.opcua.AddressSpaceSnapshot;
+import plc2skill.opcua.BrowseSettings;
+import plc2skill.opcua.EndpointSelector;
+import plc2skill.opcua.NodeIdResolution;
+import plc2skill.opcua.NodeIdResolver;
 import plc2skill.opcua.OpcUaBrowser;
+import plc2skill.opcua.OpcUaClientCreator;
+import plc2skill.opcua.OpcUaSessionPool;
 
 public class Plc2SkillMapper {
 
@@ -43,9 +59,11 @@ public class Plc2SkillMapper {
 
 	private final String placeholderIdentifier = "__NodeIdRootComponent__";
 	private final String placeholderEndpointURL = "__ServerEndpointUrl__";
+	private static final String opcUaNamespace = "http://www.w3id.org/hsu-aut/OpcUa#";
+	private static final ValueFactory valueFactory = SimpleValueFactory.getInstance();
 
 	private QuadStore rmlMappingResult;
-	static String stateMachineTemplateFile = "PLCStateMachine.ttl";
+	private PlcOpenModel plcOpenModel;	// Skills, resources and tasks of the PLCopen file. Extracted once per mapping and used by all stages
 
 
 	private Path plcOpenFilePath;
@@ -55,6 +73,17 @@ public class Plc2SkillMapper {
 	private String resourceIri = "";
 	private String nodeIdRoot = "";
 	private String baseIri = "http://www.hsu-hh.de/aut/ontologies/PLC2Skill";
+	private BrowseSettings browseSettings = new BrowseSettings();
+	private boolean scopeToApplication = false;
+	private MappingEngine mappingEngine = MappingEngine.RML;
+	private OutputFormat outputFormat = OutputFormat.TURTLE;
+	private boolean graphPerSkill = false;
+	private EndpointDescription endpointDescription;
+	private OpcUaSessionPool sessionPool;
+	private AddressSpaceCache addressSpaceCache;
+	private Path addressSpaceSnapshot;
+	private MessageSecurityMode securityMode;
+	private SecurityPolicy securityPolicy = SecurityPolicy.None;
 
 	private Plc2SkillMapper(Path plcOpenFilePath, String endpointUrl) {
 		this.plcOpenFilePath = plcOpenFilePath;
@@ -100,6 +129,135 @@ public class Plc2SkillMapper {
 			return this;
 		}
 
+		/**
+		 * Set custom settings for browsing the OPC UA server (e.g. batch size and number of parallel requests)
+		 * 
+		 * @param browseSettings Settings used when crawling the server's address space
+		 * @return
+		 */
+		public Builder setBrowseSettings(BrowseSettings browseSettings) {
+			if (browseSettings == null)
+				return this;
+
+			mapper.browseSettings = browseSettings;
+			return this;
+		}
+
+		/**
+		 * Set the endpoint description that is added to the mapping result. Together with a nodeIdRoot, no connection to the OPC UA server is made
+		 * 
+		 * @param endpointDescription Description of the endpoint that clients should use
+		 * @return
+		 */
+		public Builder setEndpointDescription(EndpointDescription endpointDescription) {
+			mapper.endpointDescription = endpointDescription;
+			return this;
+		}
+
+		/**
+		 * Set the security settings of the endpoint that is added to the mapping result. The endpoint description is created from the endpointUrl,
+		 * these settings and the user (UserName token if a user is set, Anonymous otherwise). Together with a nodeIdRoot, no connection to the OPC UA
+		 * server is made
+		 * 
+		 * @param securityMode Message security mode of the endpoint
+		 * @param securityPolicy Security policy of the endpoint
+		 * @return
+		 */
+		public Builder setEndpointSecurity(MessageSecurityMode securityMode, SecurityPolicy securityPolicy) {
+			mapper.securityMode = securityMode;
+			if (securityPolicy != null)
+				mapper.securityPolicy = securityPolicy;
+			return this;
+		}
+
+		/**
+		 * Set a pool that sessions to the OPC UA server are borrowed from. Without a pool, every mapping connects on its own and disconnects when it is done
+		 * 
+		 * @param sessionPool Pool of reusable sessions, e.g. shared by all mappings of a service
+		 * @return
+		 */
+		public Builder setSessionPool(OpcUaSessionPool sessionPool) {
+			mapper.sessionPool = sessionPool;
+			return this;
+		}
+
+		/**
+		 * Set a cache of crawled address spaces. Mappings against an unchanged server then skip crawling. Cached address spaces are only kept while
+		 * a session to the server is open, so this should be combined with a session pool
+		 * 
+		 * @param addressSpaceCache Cache shared by all mappings of a service
+		 * @return
+		 */
+		public Builder setAddressSpaceCache(AddressSpaceCache addressSpaceCache) {
+			mapper.addressSpaceCache = addressSpaceCache;
+			return this;
+		}
+
+		/**
+		 * Resolve nodeIds from a snapshot of the server's address space instead of connecting to the server. Useful for mapping on machines that
+		 * cannot reach the PLC. The endpointUrl may be empty, in this case the one of the snapshot is used
+		 * 
+		 * @param addressSpaceSnapshot Snapshot file written by {@link OpcUaBrowser#writeSnapshot(Path)}
+		 * @return
+		 */
+		public Builder setAddressSpaceSnapshot(Path addressSpaceSnapshot) {
+			mapper.addressSpaceSnapshot = addressSpaceSnapshot;
+			return this;
+		}
+
+		/**
+		 * Restrict crawling the OPC UA server to the subtree of the PLC application. The application is searched for by the resource name of the
+		 * PLCopen file (e.g. "Application"), unless a start browse name is already set in the browse settings
+		 * 
+		 * @param scopeToApplication true to only crawl the PLC application
+		 * @return
+		 */
+		public Builder setScopeToApplication(boolean scopeToApplication) {
+			mapper.scopeToApplication = scopeToApplication;
+			return this;
+		}
+
+		/**
+		 * Set the engine that maps the PLCopen file. The native engine is much faster than the default RML engine and creates the same result
+		 * 
+		 * @param mappingEngine Engine to use, RML by default
+		 * @return
+		 */
+		public Builder setMappingEngine(MappingEngine mappingEngine) {
+			if (mappingEngine == null)
+				return this;
+
+			mapper.mappingEngine = mappingEngine;
+			return this;
+		}
+
+		/**
+		 * Set the format of the mapping result. Line-based and binary formats are written statement by statement and load faster into triple stores
+		 * 
+		 * @param outputFormat Format to write, turtle by default
+		 * @return
+		 */
+		public Builder setOutputFormat(OutputFormat outputFormat) {
+			if (outputFormat == null)
+				return this;
+
+			mapper.outputFormat = outputFormat;
+			return this;
+		}
+
+		/**
+		 * Put each skill and everything it owns (capability, interface, parameters, outputs, state machine, nodes) into a named graph of its own. The
+		 * graph names contain a hash of the graph's content, so consumers can skip unchanged skills. Requires an output format with named graphs
+		 * (N-Quads, TriG or binary)
+		 * 
+		 * @param graphPerSkill true to create a named graph for each skill
+		 * @return
+		 */
+		public Builder setGraphPerSkill(boolean graphPerSkill) {
+			mapper.graphPerSkill = graphPerSkill;
+			return this;
+		}
+
 		public Plc2SkillMapper build() {
 			return this.mapper;
 		}
@@ -107,39 +265,321 @@ public class Plc2SkillMapper {
 	}
 
 	/**
-	 * Maps an MTP file with a given file path to the ontological skill model
+	 * Maps an MTP file with a given file path to the ontological skill model. The complete result is kept in memory, use one of the streaming
+	 * variants for big projects
 	 * 
-	 * @param mtpFilePath File path of the MTP AML file
-	 * @return Skill ontology in turtle syntax
+	 * @return Skill ontology in the output format (turtle by default). Binary formats can't be returned as a String
 	 */
 	public String executeMapping() {
-		logger.info("Started mapping...");
-
+		StringWriter writer = new StringWriter();
 		try {
-			// 1. Execute RML mapping
-			RmlMapper rmlMapper = new RmlMapper();
-			this.rmlMappingResult = rmlMapper.executeRmlMapping(this.plcOpenFilePath, this.baseIri);
+			this.executeMapping(writer);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return e.toString();
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Maps the PLCopen file and writes the skill ontology in the output format (text formats in UTF-8) to a stream. The stream is flushed, but not
+	 * closed
+	 * 
+	 * @param outputStream Stream the result is written to, e.g. a file or an HTTP response
+	 * @throws Exception If the mapping fails
+	 */
+	public void executeMapping(OutputStream outputStream) throws Exception {
+		if (this.outputFormat.isBinary()) {
+			BufferedOutputStream bufferedStream = new BufferedOutputStream(outputStream);
+			this.executeMapping(Rio.createWriter(this.outputFormat.getRdfFormat(), bufferedStream));
+			bufferedStream.flush();
+			return;
+		}
 
-			// 2. Fix resource IRIs
-			this.fixResourceIri();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		this.executeMapping(writer);
+		writer.flush();
+	}
+
+	/**
+	 * Maps the PLCopen file and writes the skill ontology in the output format. The result is written directly to the writer without building it as
+	 * a String. Turtle is grouped and sorted by subject, so the complete mapping result is kept in memory before it is written. All other formats are
+	 * streamed like {@link #executeMapping(RDFHandler)}. The writer is neither flushed nor closed
+	 * 
+	 * @param writer Writer the result is written to
+	 * @throws Exception If the mapping fails or the output format is binary
+	 */
+	public void executeMapping(Writer writer) throws Exception {
+		if (this.outputFormat.isBinary()) {
+			throw new Exception("The output format " + this.outputFormat + " is binary and can only be written to an OutputStream");
+		}
+		if (this.graphPerSkill && !this.outputFormat.supportsGraphs()) {
+			throw new Exception("A graph per skill can't be written as " + this.outputFormat + ", use an output format with named graphs instead");
+		}
+
+		// Turtle is grouped and sorted by the store, all other formats are written statement by statement
+		if (this.outputFormat != OutputFormat.TURTLE) {
+			this.executeMapping(Rio.createWriter(this.outputFormat.getRdfFormat(), writer));
+			return;
+		}
 
-			// 2. Add PLC Identifier and EndpointURL of OPC UA Server
-			String completedRmlMappingResult = this.fixOpcUaInfo();
+		this.prepareMapping();
 
-			// 3. Create state machines for each procedure
-			String stateMachines = createStateMachines();
+		// The completed mapping result is serialized exactly once
+		this.rmlMappingResult.write(writer, "turtle");
+		logger.info("Completed mapping");
+	}
 
-			// 4. Combine completed rml mapping result with state machines
-			String mappingResult = completedRmlMappingResult + "\n" + stateMachines;
+	/**
+	 * Maps the PLCopen file and passes all statements of the skill ontology to an RDF handler, e.g. a Rio writer of any format. startRDF() and
+	 * endRDF() are called exactly once.
+	 * <p>
+	 * Statements are passed on stage by stage: First the mapping result including the resource and the endpoint description, which has to be
+	 * complete before its nodeIds can be resolved. Then the state machines, which are created and passed on one skill at a time and never added to
+	 * the mapping result. Only the mapping result is kept in memory, the state machines are not. With a graph per skill, the
+	 * complete result is needed to assign shared statements to skills, so it is kept in memory before it is passed on
+	 * 
+	 * @param handler Handler that receives the statements
+	 * @throws Exception If the mapping fails
+	 */
+	public void executeMapping(RDFHandler handler) throws Exception {
+		if (this.graphPerSkill) {
+			this.prepareMapping();
+			handler.startRDF();
+			this.handleQuads(handler, this.rmlMappingResult.getQuads(null, null, null));
+			handler.endRDF();
 			logger.info("Completed mapping");
+			return;
+		}
 
-			return mappingResult;
-		} catch (Exception e) {
-			e.printStackTrace();
-			return e.toString();
+		this.mapSkills();
+		handler.startRDF();
+		this.handleQuads(handler, this.rmlMappingResult.getQuads(null, null, null));
+		StateMachineFactory stateMachineFactory = StateMachineFactory.getDefault();
+		for (String skillName : this.plcOpenModel.getSkillNames()) {
+			this.handleQuads(handler, stateMachineFactory.createStateMachine(this.baseIri, skillName));
+		}
+		handler.endRDF();
+		logger.info("Completed mapping");
+	}
+
+	private void handleQuads(RDFHandler handler, List<Quad> quads) {
+		for (Quad quad : quads) {
+			handler.handleStatement(toStatement(quad));
 		}
 	}
 
+	/**
+	 * Maps only the skills that changed since the previous incremental mapping and returns the statements that were added and removed. Fingerprints
+	 * of all skills and the mapping result of the previous run are kept in a local state file. Unchanged skills are taken from this file including
+	 * their resolved nodeIds and state machines, so only nodeIds of changed skills are resolved on the server. A missing state file maps all skills.
+	 * The output format and graph per skill setting are not used, the delta is returned without named graphs
+	 * 
+	 * @param stateFile File the state is read from and written to afterwards
+	 * @return Statements added and removed since the previous run
+	 * @throws Exception If the mapping fails or the state file can't be written
+	 */
+	public MappingDelta executeIncrementalMapping(Path stateFile) throws Exception {
+		logger.info("Started incremental mapping...");
+		IncrementalMappingState previousState = IncrementalMappingState.load(stateFile);
+
+		// 1. Extract skills from the PLCopen file and find the skills that changed since the previous run
+		this.plcOpenModel = new PlcOpenSkillExtractor().extract(this.plcOpenFilePath);
+		IncrementalMappingState state = IncrementalMappingState.of(this.plcOpenModel, this.getMappingSettings());
+		Set<String> changedSkills = state.findChangedSkills(previousState);
+		Set<String> removedSkills = state.findRemovedSkills(previousState);
+		logger.info("{} of {} skills are mapped again (changed skill POUs: {}), {} skills were removed", changedSkills.size(),
+				state.getSkillNames().size(), state.findChangedPous(previousState), removedSkills.size());
+
+		// 2. Execute the mapping rules on the changed skills and add the result of all unchanged skills
+		this.rmlMappingResult = this.executeMappingRules(this.plcOpenModel.withSkillInstances(changedSkills));
+		for (String skillName : state.getSkillNames()) {
+			if (changedSkills.contains(skillName)) {
+				continue;
+			}
+			for (Statement statement : previousState.getSkillStatements(skillName)) {
+				this.rmlMappingResult.addQuad(toTerm(statement.getSubject()), toTerm(statement.getPredicate()), toTerm(statement.getObject()));
+			}
+		}
+
+		// 3. Complete the mapping result as in a full mapping. Only the nodeIds of changed skills are still incomplete
+		this.fixResourceIri();
+		EndpointDescription endpointDescription = this.fixOpcUaInfo();
+		this.replacePlaceholders();
+		if (endpointDescription != null) {
+			this.addEndpointInformation(endpointDescription);
+		}
+		StateMachineFactory.getDefault().addStateMachines(this.rmlMappingResult, this.baseIri, new ArrayList<>(changedSkills));
+
+		// 4. Split the result by skill and compare every part with the previous run. Statements of shared nodes that refer to a skill belong to it
+		Map<String, List<Quad>> quadsPerSkill = new SkillGraphPartitioner(this.baseIri, this.plcOpenModel.getSkillNames())
+				.group(this.rmlMappingResult.getQuads(null, null, null), true);
+		for (Map.Entry<String, List<Quad>> skillQuads : quadsPerSkill.entrySet()) {
+			Set<Statement> statements = new HashSet<>();
+			for (Quad quad : skillQuads.getValue()) {
+				statements.add(toStatement(quad));
+			}
+			if (skillQuads.getKey() == null) {
+				state.setSharedStatements(statements);
+			} else {
+				state.setSkillStatements(skillQuads.getKey(), statements);
+			}
+		}
+
+		MappingDelta delta = new MappingDelta(changedSkills, removedSkills);
+		for (String skillName : state.getSkillNames()) {
+			delta.addDifference(previousState.getSkillStatements(skillName), state.getSkillStatements(skillName));
+		}
+		for (String skillName : removedSkills) {
+			delta.addDifference(previousState.getSkillStatements(skillName), Collections.emptySet());
+		}
+		delta.addDifference(previousState.getSharedStatements(), state.getSharedStatements());
+
+		state.save(stateFile);
+		logger.info("Completed incremental mapping: {} statements added, {} statements removed", delta.getAddedStatements().size(),
+				delta.getRemovedStatements().size());
+		return delta;
+	}
+
+	public OutputFormat getOutputFormat() {
+		return this.outputFormat;
+	}
+
+	/**
+	 * Executes all mapping steps up to the output: Maps the PLCopen file, adds the resource, completes the OPC UA information, adds the state
+	 * machines and creates the skill graphs
+	 */
+	private void prepareMapping() throws Exception {
+		this.mapSkills();
+
+		// 4. Create state machines for each skill
+		StateMachineFactory.getDefault().addStateMachines(this.rmlMappingResult, this.baseIri, this.plcOpenModel.getSkillNames());
+
+		// 5. Optionally move every skill into a named graph, once the skill is complete
+		if (this.graphPerSkill) {
+			new SkillGraphPartitioner(this.baseIri, this.plcOpenModel.getSkillNames()).partition(this.rmlMappingResult);
+		}
+	}
+
+	/**
+	 * Executes the mapping steps that need the complete mapping result: Maps the PLCopen file, adds the resource and completes the OPC UA information
+	 */
+	private void mapSkills() throws Exception {
+		logger.info("Started mapping...");
+
+		// 1. Extract skills from the PLCopen file and execute the mapping rules on them
+		this.plcOpenModel = new PlcOpenSkillExtractor().extract(this.plcOpenFilePath);
+		this.rmlMappingResult = this.executeMappingRules(this.plcOpenModel);
+
+		// 2. Fix resource IRIs
+		this.fixResourceIri();
+
+		// 3. Resolve nodeIds, replace the remaining placeholders and add the endpoint of the OPC UA Server
+		EndpointDescription endpointDescription = this.fixOpcUaInfo();
+		this.replacePlaceholders();
+		if (endpointDescription != null) {
+			this.addEndpointInformation(endpointDescription);
+		}
+	}
+
+	/**
+	 * Returns all settings that change the mapping result of a skill. If one of them changes, an incremental mapping maps all skills again
+	 */
+	private List<String> getMappingSettings() {
+		return Arrays.asList(this.baseIri, this.resourceIri, this.nodeIdRoot, this.endpointUrl, this.mappingEngine.name(),
+				this.addressSpaceSnapshot != null ? this.addressSpaceSnapshot.toAbsolutePath().toString() : null);
+	}
+
+	/**
+	 * Executes the mapping rules of the selected mapping engine
+	 * @param model Skills to map, either the complete PLCopen model or a part of it
+	 * @return
+	 */
+	private QuadStore executeMappingRules(PlcOpenModel model) throws Exception {
+		if (this.mappingEngine == MappingEngine.NATIVE) {
+			return new NativeSkillMapper().executeMapping(model, this.baseIri);
+		}
+		return new RmlMapper().executeRmlMapping(model, this.plcOpenFilePath, this.baseIri);
+	}
+
+	/**
+	 * Returns the placeholders of the mapping result and their values. The nodeId placeholder is only replaced by a nodeIdRoot given by the user,
+	 * otherwise nodeIds are resolved on the server and unresolved ones keep their placeholder
+	 */
+	private Map<String, String> getPlaceholderValues() {
+		Map<String, String> placeholderValues = new LinkedHashMap<>();
+		if (!this.nodeIdRoot.isBlank()) {
+			placeholderValues.put(placeholderIdentifier, this.nodeIdRoot);
+		}
+		if (this.endpointUrl != null) {
+			placeholderValues.put(placeholderEndpointURL, this.endpointUrl);
+		}
+		return placeholderValues;
+	}
+
+	/**
+	 * Replaces the placeholders in all IRIs and literals of the mapping result. Only quads that contain a placeholder are rewritten
+	 */
+	private void replacePlaceholders() {
+		Map<String, String> placeholderValues = this.getPlaceholderValues();
+		if (placeholderValues.isEmpty()) {
+			return;
+		}
+
+		List<Quad> quadsWithPlaceholders = new ArrayList<>();
+		for (Quad quad : this.rmlMappingResult.getQuads(null, null, null)) {
+			if (containsPlaceholder(quad.getSubject(), placeholderValues) || containsPlaceholder(quad.getPredicate(), placeholderValues)
+					|| containsPlaceholder(quad.getObject(), placeholderValues)) {
+				quadsWithPlaceholders.add(quad);
+			}
+		}
+
+		for (Quad quad : quadsWithPlaceholders) {
+			this.rmlMappingResult.removeQuads(quad.getSubject(), quad.getPredicate(), quad.getObject());
+			this.rmlMappingResult.addQuad(replacePlaceholders(quad.getSubject(), placeholderValues), replacePlaceholders(quad.getPredicate(), placeholderValues),
+					replacePlaceholders(quad.getObject(), placeholderValues), quad.getGraph());
+		}
+		logger.debug("Replaced placeholders in {} quads", quadsWithPlaceholders.size());
+	}
+
+	private static boolean containsPlaceholder(Term term, Map<String, String> placeholderValues) {
+		for (String placeholder : placeholderValues.keySet()) {
+			if (term.getValue().contains(placeholder)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a copy of a term with all placeholders in its value replaced. Datatype and language of literals are kept
+	 */
+	private static Term replacePlaceholders(Term term, Map<String, String> placeholderValues) {
+		if (!containsPlaceholder(term, placeholderValues)) {
+			return term;
+		}
+
+		String value = term.getValue();
+		for (Map.Entry<String, String> placeholderValue : placeholderValues.entrySet()) {
+			value = value.replace(placeholderValue.getKey(), placeholderValue.getValue());
+		}
+
+		if (term instanceof Literal) {
+			Literal literal = (Literal) term;
+			if (literal.getLanguage() != null && !literal.getLanguage().isEmpty()) {
+				return new Literal(value, literal.getLanguage());
+			}
+			if (literal.getDatatype() != null) {
+				return new Literal(value, literal.getDatatype());
+			}
+			return new Literal(value);
+		}
+		if (term instanceof BlankNode) {
+			return new BlankNode(value);
+		}
+		return new NamedNode(value);
+	}
+
 	/**
 	 * Adds a resource node and the "provides" relations to capabilities and skills. Resource IRI can either be provided explicitly or be determined from
 	 * the PLC device name
@@ -156,9 +596,7 @@ public class Plc2SkillMapper {
 		String resourceIri = this.resourceIri;
 		if (this.resourceIri == "") {
 			// If no resourceIri is given, create one from device name
-			String applicationNameRegex = "./project/instances/configurations/configuration/@name";
-			Node applicationNode = this.findInPlcOpenFile(applicationNameRegex).item(0); // Assumption: There is only one device
-			String resourceName = applicationNode.getNodeValue();
+			String resourceName = this.plcOpenModel.getConfigurationNames().get(0); // Assumption: There is only one device
 			resourceIri = String.format("%s#%s", this.baseIri, resourceName);
 		}
 
@@ -175,193 +613,301 @@ public class Plc2SkillMapper {
 		}
 	}
 
-	private String fixOpcUaInfo() {
-		String result = "";
+	/**
+	 * Resolves the nodeIds and finds the endpoint description that is added to the mapping result
+	 * 
+	 * @return Endpoint description or null if none could be found
+	 */
+	private EndpointDescription fixOpcUaInfo() {
+		// If a nodeIdRoot is given by the user, there is no need to browse the server
+		if (!nodeIdRoot.isBlank()) {
+			return this.fixOpcUaInfoWithNodeIdRoot();
+		}
+		
+		// A snapshot of the address space replaces the connection to the server
+		if (this.addressSpaceSnapshot != null) {
+			return this.fixOpcUaInfoWithSnapshot();
+		}
+		
 		try {
-			OpcUaBrowser browser = new OpcUaBrowser(this.endpointUrl, this.user, this.password);
-			
-			// Connect to PLC and fix node IDs
-			result = fixNodeIds(browser);
+			// The settings given by the user are not changed, so that they can be reused for other files
+			BrowseSettings browseSettings = this.browseSettings;
+			if (this.scopeToApplication && this.browseSettings.getStartBrowseName() == null) {
+				// Assumption: There is only one resource (i.e. application) per PLCopen file
+				List<String> resourceNames = this.plcOpenModel.getResourceNames();
+				if (!resourceNames.isEmpty()) {
+					browseSettings = new BrowseSettings(this.browseSettings).setStartBrowseName(resourceNames.get(0));
+				}
+			}
 			
-			EndpointDescription endpointDescription = browser.getEndpointUsed();
-			result += addEndpointInformation(endpointDescription);
+			// Connect to PLC (or borrow a session) and fix node IDs. The session is closed or returned in any case
+			try (OpcUaBrowser browser = this.createBrowser(browseSettings)) {
+				fixNodeIds(browser);
+				return browser.getEndpointUsed();
+			}
 		} catch (Exception e) {
 			logger.error("Error while making a connection to the OPC UA server. Please check your endpointUrl and make sure the server is running.");
 			logger.error("No nodeIdRoot was provided and a connection to the OPC UA could not be made. The mapping result will contain incomplete nodeIds with unreplaced template strings.");
 			e.printStackTrace();
 		}
 
-		return result;
+		return null;
 	}
 	
 	
-	private String addEndpointInformation(EndpointDescription endpointDescription) {	
-		// Note: Currently, only one endpoint is supported - its the one that is used for connecting
-		String endpointStringTemplate = "<${serverName}> OpcUa:hasEndpointDescription <${serverName}_Endpoint>.\r\n"
-				+ "	<${serverName}_Endpoint> a OpcUa:EndpointDescription;\r\n"
-				+ "		OpcUa:hasEndpointUrl \"${EndpointUrl}\";\r\n"
-				+ "		OpcUa:hasMessageSecurityMode OpcUa:MessageSecurityMode_${MessageSecurityMode}; \r\n"
-				+ "		OpcUa:hasSecurityPolicy OpcUa:${SecurityPolicy}.\r\n";
+	private OpcUaBrowser createBrowser(BrowseSettings browseSettings) throws Exception {
+		OpcUaBrowser browser;
+		if (this.sessionPool != null) {
+			browser = new OpcUaBrowser(this.sessionPool, this.endpointUrl, this.user, this.password, browseSettings);
+		} else {
+			browser = new OpcUaBrowser(this.endpointUrl, this.user, this.password, browseSettings);
+		}
+		browser.setAddressSpaceCache(this.addressSpaceCache);
+		return browser;
+	}
+	
+	/**
+	 * Gets the endpoint information if the nodeId placeholders are replaced with the nodeIdRoot given by the user. No session is created and the
+	 * address space is not browsed. Endpoint information is either taken from the builder parameters or fetched with a single GetEndpoints call
+	 */
+	private EndpointDescription fixOpcUaInfoWithNodeIdRoot() {
+		EndpointDescription endpointDescription = this.getConfiguredEndpointDescription();
+		if (endpointDescription == null) {
+			try {
+				endpointDescription = new OpcUaClientCreator().discoverEndpoint(this.endpointUrl, this.user, this.password);
+			} catch (Exception e) {
+				logger.error("Endpoint information could not be fetched from {}. Please check your endpointUrl or set the endpoint security explicitly. "
+						+ "The mapping result will not contain an endpoint description.", this.endpointUrl);
+			}
+		}
 		
-		String tokenSnippetTemplate = "<${serverName}_Endpoint> OpcUa:hasUserIdentityToken <${serverName}_Endpoint_UserIdentityToken>.\r\n"
-				+ "		<${serverName}_Endpoint_UserIdentityToken> a ${TokenType}.\r\n";
+		return endpointDescription;
+	}
+	
+	/**
+	 * Resolves the nodeIds from a snapshot of the address space without connecting to the server. Endpoint information is taken from the builder
+	 * parameters or from the endpoint the snapshot was captured from
+	 */
+	private EndpointDescription fixOpcUaInfoWithSnapshot() {
+		AddressSpaceSnapshot snapshot;
+		try {
+			snapshot = AddressSpaceSnapshot.open(this.addressSpaceSnapshot);
+		} catch (IOException e) {
+			logger.error("The address space snapshot {} could not be read ({}). The mapping result will contain incomplete nodeIds with unreplaced template strings.",
+					this.addressSpaceSnapshot, e.getMessage());
+			return null;
+		}
 		
-		String opcUaUserTokenSnippetTemplate = "<${serverName}_Endpoint_UserIdentityToken> OpcUa:requiresUserName \"${UserName}\";\r\n"
-				+ "		OpcUa:requiresPassword \"${Password}\" .";
+		EndpointDescription endpointDescription = this.getConfiguredEndpointDescription();
+		if (endpointDescription == null) {
+			endpointDescription = snapshot.getEndpointDescription();
+		}
+		if ((this.endpointUrl == null || this.endpointUrl.isBlank()) && endpointDescription != null) {
+			this.endpointUrl = endpointDescription.getEndpointUrl();
+		}
 		
-		// Get the UA server
+		this.fixNodeIds(snapshot);
+		if (endpointDescription == null) {
+			logger.error("The address space snapshot contains no endpoint. The mapping result will not contain an endpoint description.");
+		}
+		return endpointDescription;
+	}
+	
+	/**
+	 * Gets the endpoint description that follows from the builder parameters, i.e. the one set explicitly or one created from the endpoint security
+	 * 
+	 * @return Endpoint description or null if the endpoint security is not set
+	 */
+	private EndpointDescription getConfiguredEndpointDescription() {
+		if (this.endpointDescription != null) {
+			return this.endpointDescription;
+		}
+		if (this.securityMode != null) {
+			return OpcUaClientCreator.createEndpointDescription(this.endpointUrl, this.securityMode, this.securityPolicy, this.getTokenType());
+		}
+		return null;
+	}
+	
+	/**
+	 * @return The user token type needed with the given credentials, same rule as used when connecting
+	 */
+	private UserTokenType getTokenType() {
+		return EndpointSelector.getTokenType(this.user, this.password);
+	}
+	
+	/**
+	 * Adds the description of the endpoint to the OPC UA server of the mapping result
+	 */
+	private void addEndpointInformation(EndpointDescription endpointDescription) {
+		// Note: Currently, only one endpoint is supported - its the one that is used for connecting
 		Term typePredicate = new NamedNode("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
-		Term serverTypeNode = new NamedNode("http://www.w3id.org/hsu-aut/OpcUa#UAServer");
-		Quad serverQuad = this.rmlMappingResult.getQuads(null, typePredicate, serverTypeNode).get(0);	// Assumption that there is only one server per PLCopen file
-		String serverName = serverQuad.getSubject().getValue();
-		
+		Term serverTypeNode = new NamedNode(opcUaNamespace + "UAServer");
+		List<Quad> serverQuads = this.rmlMappingResult.getQuads(null, typePredicate, serverTypeNode);
+		if (serverQuads.isEmpty()) {
+			logger.error("The mapping result contains no OPC UA server. The endpoint description is not added.");
+			return;
+		}
+		Term server = serverQuads.get(0).getSubject();	// Assumption that there is only one server per PLCopen file
+		String serverName = server.getValue();
+
 		// Get all other info
-		String endpointUrl = endpointDescription.getEndpointUrl();
 		String msgSecMode = endpointDescription.getSecurityMode().name();
 		String secPolicyUri = endpointDescription.getSecurityPolicyUri();
 		String[] secPolicyPieces = secPolicyUri.split("/");
 		String secPolicy = secPolicyPieces[secPolicyPieces.length - 1].replace("#", "_");
-		String tokenType = this.convertTokenType(endpointDescription.getUserIdentityTokens()[0].getTokenType());
-		
-		String endpointString = endpointStringTemplate
-				.replace("${serverName}", serverName)
-				.replace("${EndpointUrl}", endpointUrl)
-				.replace("${MessageSecurityMode}", msgSecMode)
-				.replace("${SecurityPolicy}", secPolicy);
-	
-		String tokenSnippet = tokenSnippetTemplate
-				.replace("${serverName}", serverName)
-				.replace("${TokenType}", tokenType);
-				
-		String opcUaUserTokenSnippet = opcUaUserTokenSnippetTemplate
-				.replace("${serverName}", serverName)
-				.replace("${UserName}", this.user)
-				.replace("${Password}", this.password);
-		
-		String completeEndpointString = endpointString +"\n" + tokenSnippet + "\n" + opcUaUserTokenSnippet;
-		return completeEndpointString;
+		String tokenType = this.convertTokenType(this.findUserTokenType(endpointDescription));
+
+		Term endpoint = new NamedNode(serverName + "_Endpoint");
+		this.rmlMappingResult.addQuad(server, new NamedNode(opcUaNamespace + "hasEndpointDescription"), endpoint);
+		this.rmlMappingResult.addQuad(endpoint, typePredicate, new NamedNode(opcUaNamespace + "EndpointDescription"));
+		this.rmlMappingResult.addQuad(endpoint, new NamedNode(opcUaNamespace + "hasEndpointUrl"), new Literal(endpointDescription.getEndpointUrl()));
+		this.rmlMappingResult.addQuad(endpoint, new NamedNode(opcUaNamespace + "hasMessageSecurityMode"),
+				new NamedNode(opcUaNamespace + "MessageSecurityMode_" + msgSecMode));
+		this.rmlMappingResult.addQuad(endpoint, new NamedNode(opcUaNamespace + "hasSecurityPolicy"), new NamedNode(opcUaNamespace + secPolicy));
+
+		Term token = new NamedNode(serverName + "_Endpoint_UserIdentityToken");
+		this.rmlMappingResult.addQuad(endpoint, new NamedNode(opcUaNamespace + "hasUserIdentityToken"), token);
+		this.rmlMappingResult.addQuad(token, typePredicate, new NamedNode(opcUaNamespace + tokenType));
+
+		// User name and password are only added if both are set
+		if (this.getTokenType() == UserTokenType.UserName) {
+			this.rmlMappingResult.addQuad(token, new NamedNode(opcUaNamespace + "requiresUserName"), new Literal(this.user));
+			this.rmlMappingResult.addQuad(token, new NamedNode(opcUaNamespace + "requiresPassword"), new Literal(this.password));
+		}
+	}
+
+	/**
+	 * Returns the type of the token policy matching the user settings (UserName if user and password are set, Anonymous otherwise). Falls back to
+	 * the first token policy of the endpoint
+	 */
+	private UserTokenType findUserTokenType(EndpointDescription endpointDescription) {
+		UserTokenType requiredType = this.getTokenType();
+		UserTokenPolicy[] userTokenPolicies = endpointDescription.getUserIdentityTokens();
+		for (UserTokenPolicy userTokenPolicy : userTokenPolicies) {
+			if (userTokenPolicy.getTokenType() == requiredType) {
+				return requiredType;
+			}
+		}
+		return userTokenPolicies[0].getTokenType();
 	}
 	
 	private String convertTokenType(UserTokenType tokenType) {
 		switch (tokenType) {
 		case Anonymous:
-			return "OpcUa:AnonymousIdentityToken";
+			return "AnonymousIdentityToken";
 		case Certificate:
-			return "OpcUa:X509IdentityToken";
+			return "X509IdentityToken";
 		case IssuedToken:
-			return "OpcUa:IssuedIdentityToken";
+			return "IssuedIdentityToken";
 		case UserName:
-			return "OpcUa:UserNameIdentityToken";
-		default: return "OpcUa:X509IdentityToken";
+			return "UserNameIdentityToken";
+		default: return "X509IdentityToken";
 		}
 		
 	}
 
 
 	/**
-	 * Replaces the ServerIP and PLCIdentifier
+	 * Resolves the incomplete nodeIds on the server (or in a snapshot of its address space). The ServerIP is replaced afterwards together with all other
+	 * placeholders
 	 */
-	private String fixNodeIds(OpcUaBrowser browser) {
-		String resultWithIpPlaceholder = "";
-
-		// If a nodeIdRoot is given by the user, use it
-		if (!nodeIdRoot.isBlank()) {
-			String stringMappingResult = RmlMapper.convertResultToString(this.rmlMappingResult);
-			resultWithIpPlaceholder = stringMappingResult.replace(placeholderIdentifier, this.nodeIdRoot); // Replaces nodeID-Placeholder
-
-		} else {
-			// Try to browse all variables to resolve the proper nodeID
-			Term predicate = new NamedNode("http://www.w3id.org/hsu-aut/OpcUa#nodeId");
-
-			List<Quad> sourceQuads = rmlMappingResult.getQuads(null, predicate, null);
-			for (Quad quad : sourceQuads) {
-				String nodeIdWithPlaceholder = quad.getObject().getValue();
-				String incompleteNodeIdWithoutPlaceholder = nodeIdWithPlaceholder.replaceFirst("^__NodeIdRootComponent__", "");
-				try {
-					NodeId nodeId = browser.findNodeId(incompleteNodeIdWithoutPlaceholder);
-					Term nodeIdTerm = new Literal(nodeId.toParseableString());
-					this.rmlMappingResult.addQuad(quad.getSubject(), quad.getPredicate(), nodeIdTerm);
-					this.rmlMappingResult.removeQuads(quad);
-				} catch (NodeIdResolvingException e) {
-					logger.error("A connection to the server was made but an incomplete nodeId could not be resolved.\n"
-							+ "The mapping result will contain incomplete nodeIds with unreplaced template strings.");
-				}
-
+	private void fixNodeIds(NodeIdResolver resolver) {
+		// Try to browse all variables to resolve the proper nodeID
+		Term predicate = new NamedNode("http://www.w3id.org/hsu-aut/OpcUa#nodeId");
+
+		// Only nodeIds that still start with the placeholder need to be resolved. NodeIds resolved in an earlier incremental mapping are kept
+		List<Quad> sourceQuads = new ArrayList<>();
+		for (Quad quad : rmlMappingResult.getQuads(null, predicate, null)) {
+			if (quad.getObject().getValue().startsWith(placeholderIdentifier)) {
+				sourceQuads.add(quad);
 			}
-
-			resultWithIpPlaceholder = RmlMapper.convertResultToString(rmlMappingResult);
 		}
-
-		String result = resultWithIpPlaceholder.replaceAll(placeholderEndpointURL, this.endpointUrl);
-		return result;
+		if (sourceQuads.isEmpty()) {
+			logger.info("All nodeIds are already resolved");
+			return;
+		}
+		
+		// Resolve all nodeIds at once
+		Set<String> incompleteNodeIds = new HashSet<String>();
+		for (Quad quad : sourceQuads) {
+			incompleteNodeIds.add(this.removeNodeIdPlaceholder(quad.getObject().getValue()));
+		}
+		NodeIdResolution resolution = resolver.findNodeIds(incompleteNodeIds);
+		Map<String, NodeId> resolvedNodeIds = resolution.getResolvedNodeIds();
+		
+		if (!resolution.isComplete()) {
+			logger.error("The address space of the server was searched but {} incomplete nodeIds could not be resolved.\n"
+					+ "The mapping result will contain incomplete nodeIds with unreplaced template strings.", resolution.getErrors().size());
+			resolution.getErrors().forEach((incompleteNodeId, error) -> logger.error("{}: {}", incompleteNodeId, error));
+		}
+		
+		// Apply all rewrites in one batch: Remove all incomplete nodeId quads and add them again, either resolved or unchanged
+		for (Quad quad : sourceQuads) {
+			this.rmlMappingResult.removeQuads(quad.getSubject(), quad.getPredicate(), quad.getObject());
+		}
+		for (Quad quad : sourceQuads) {
+			NodeId nodeId = resolvedNodeIds.get(this.removeNodeIdPlaceholder(quad.getObject().getValue()));
+			Term nodeIdTerm = nodeId != null ? new Literal(nodeId.toParseableString()) : quad.getObject();
+			this.rmlMappingResult.addQuad(quad.getSubject(), quad.getPredicate(), nodeIdTerm, quad.getGraph());
+		}
 	}
 
-	private NodeList findInPlcOpenFile(String regex) {
-		DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
-		domFactory.setNamespaceAware(false);
-		DocumentBuilder builder;
-		Document doc = null;
-
-		// Open the file
-		try {
-			builder = domFactory.newDocumentBuilder();
-			doc = builder.parse(this.plcOpenFilePath.toUri().toString());
-		} catch (ParserConfigurationException | SAXException | IOException e) {
-			e.printStackTrace();
+	private String removeNodeIdPlaceholder(String incompleteNodeId) {
+		if (incompleteNodeId.startsWith(placeholderIdentifier)) {
+			return incompleteNodeId.substring(placeholderIdentifier.length());
 		}
+		return incompleteNodeId;
+	}
 
-		XPath xpath = XPathFactory.newInstance().newXPath();
-		XPathExpression expr;
-		Object result = null;
-
-		// Evaluate an XPath expression to get all ServiceProcedure / ServiceStrategy
-		try {
-			expr = xpath.compile(regex);
-			result = expr.evaluate(doc, XPathConstants.NODESET);
-		} catch (XPathExpressionException e) {
-			logger.error("Error while executing XPath to get all ServiceProcedures");
-			e.printStackTrace();
+	/**
+	 * Converts a quad of the mapping result to an RDF4J statement
+	 */
+	private static Statement toStatement(Quad quad) {
+		Resource subject = (Resource) toValue(quad.getSubject());
+		IRI predicate = (IRI) toValue(quad.getPredicate());
+		Value object = toValue(quad.getObject());
+		Term graph = quad.getGraph();
+		if (graph == null || graph.getValue().isEmpty()) {
+			return valueFactory.createStatement(subject, predicate, object);
 		}
-
-		return (NodeList) result;
+		return valueFactory.createStatement(subject, predicate, object, (Resource) toValue(graph));
 	}
 
 	/**
-	 * Creates a state machine for every service procedure of the given MTP. Note that in our skill model, every Skill (=MTP procedure) has to have its
-	 * own state machine
-	 * 
-	 * @param mtpFilePath mtpFilePath File path of the MTP AML file
-	 * @return A string in turtle syntax containing all state machines for this MTP
+	 * Converts an RDF4J value back to a term of the mapping result
 	 */
-	private String createStateMachines() {
-		String skillNameRegex = "./project/instances/configurations/configuration/resource/addData/data/pou/interface/localVars/variable[./type/derived/@name=./ancestor::addData/data/pou[./interface/addData/data/Inheritance/Extends='PLC2Skill.Skill']/@name]";
-		NodeList skillNodes = this.findInPlcOpenFile(skillNameRegex);
-
-		// Open the state machine template file
-		InputStream stateMachineTemplateStream = this.getClass().getClassLoader().getResourceAsStream(stateMachineTemplateFile);
-		BufferedReader br = new BufferedReader(new InputStreamReader(stateMachineTemplateStream));
-		String stateMachineTemplate = br.lines().collect(Collectors.joining("\n"));
-
-		// For every procedureNode: Create a customized state machine by replacing the placeholder and add it to the total stateMachine string
-		String mappedStateMachines = "\n\n";
-		String skillVariable = "${skillName}";
-		for (int i = 0; i < skillNodes.getLength(); i++) {
-			String skillName = skillNodes.item(i).getAttributes().getNamedItem("name").getNodeValue();
-			String stateMachine = stateMachineTemplate.replace(skillVariable, skillName);
-			mappedStateMachines += stateMachine;
+	private static Term toTerm(Value value) {
+		if (value instanceof BNode) {
+			return new BlankNode(((BNode) value).getID());
 		}
-		
-		// In the end, replace the baseIri for the complete document
-		mappedStateMachines = mappedStateMachines.replace("${base}", this.baseIri);
-
-		try {
-			br.close();
-		} catch (IOException e) {
-			logger.error("Error while closing the file");
-			e.printStackTrace();
+		if (value instanceof org.eclipse.rdf4j.model.Literal) {
+			org.eclipse.rdf4j.model.Literal literal = (org.eclipse.rdf4j.model.Literal) value;
+			if (literal.getLanguage().isPresent()) {
+				return new Literal(literal.getLabel(), literal.getLanguage().get());
+			}
+			if (!XSD.STRING.equals(literal.getDatatype())) {
+				return new Literal(literal.getLabel(), new NamedNode(literal.getDatatype().stringValue()));
+			}
+			return new Literal(literal.getLabel());
 		}
+		return new NamedNode(value.stringValue());
+	}
 
-		return mappedStateMachines;
+	private static Value toValue(Term term) {
+		if (term instanceof BlankNode) {
+			return valueFactory.createBNode(term.getValue());
+		}
+		if (term instanceof Literal) {
+			Literal literal = (Literal) term;
+			if (literal.getLanguage() != null && !literal.getLanguage().isEmpty()) {
+				return valueFactory.createLiteral(literal.getValue(), literal.getLanguage());
+			}
+			if (literal.getDatatype() != null) {
+				return valueFactory.createLiteral(literal.getValue(), valueFactory.createIRI(literal.getDatatype().getValue()));
+			}
+			return valueFactory.createLiteral(literal.getValue());
+		}
+		return valueFactory.createIRI(term.getValue());
 	}
 
-}
\ No newline at end of file
+}
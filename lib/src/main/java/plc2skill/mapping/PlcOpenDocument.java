@@ -0,0 +1,114 @@
+package plc2skill.mapping;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.UnprefixedElementMatchingPolicy;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+
+/**
+ * An XML document that XPath expressions and RML iterators are evaluated on. This is either a parsed PLCopen XML file or the skill source that is
+ * built from it (see {@link SkillSourceBuilder}). Compiled XPath expressions are cached, so that an expression is only compiled once no matter how
+ * often it is evaluated
+ */
+public class PlcOpenDocument {
+
+	private static final Processor processor = new Processor(false);
+
+	private final Path path;
+	private final XdmNode document;
+	private final XPathCompiler compiler;
+	private final Map<String, XPathExecutable> compiledExpressions = new ConcurrentHashMap<String, XPathExecutable>();
+
+	private PlcOpenDocument(Path path, XdmNode document) {
+		this.path = path;
+		this.document = document;
+		this.compiler = processor.newXPathCompiler();
+		// PLCopen files use a default namespace, but all expressions (including the RML iterators) use unprefixed element names
+		this.compiler.setUnprefixedElementMatchingPolicy(UnprefixedElementMatchingPolicy.ANY_NAMESPACE);
+	}
+
+	/**
+	 * Parses a PLCopen XML file
+	 * @param path Path of the PLCopen XML file
+	 * @return
+	 * @throws SaxonApiException If the file cannot be read or is not well-formed
+	 */
+	public static PlcOpenDocument parse(Path path) throws SaxonApiException {
+		DocumentBuilder documentBuilder = processor.newDocumentBuilder();
+		XdmNode document = documentBuilder.build(path.toFile());
+		return new PlcOpenDocument(path, document);
+	}
+
+	/**
+	 * Creates a document from an already built tree
+	 * @param path Path of the file the document was created from
+	 * @param document Document node
+	 * @return
+	 */
+	static PlcOpenDocument of(Path path, XdmNode document) {
+		return new PlcOpenDocument(path, document);
+	}
+
+	static DocumentBuilder newDocumentBuilder() {
+		return processor.newDocumentBuilder();
+	}
+
+	/**
+	 * Evaluates an XPath expression with the document node as context item
+	 * @param xpath XPath expression, e.g. "./project/instances/configurations/configuration/@name"
+	 * @return All items that were selected
+	 * @throws SaxonApiException If the expression is invalid
+	 */
+	public XdmValue evaluate(String xpath) throws SaxonApiException {
+		XPathSelector selector = this.compile(xpath).load();
+		selector.setContextItem(this.document);
+		return selector.evaluate();
+	}
+
+	/**
+	 * Evaluates an XPath expression and returns the string values of all selected items (e.g. the values of selected attributes)
+	 * @param xpath XPath expression
+	 * @return
+	 * @throws SaxonApiException If the expression is invalid
+	 */
+	public List<String> evaluateStrings(String xpath) throws SaxonApiException {
+		List<String> values = new ArrayList<String>();
+		for (XdmItem item : this.evaluate(xpath)) {
+			values.add(item.getStringValue());
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the compiled form of an expression. Expressions are compiled on first use and cached afterwards
+	 */
+	XPathExecutable compile(String xpath) throws SaxonApiException {
+		XPathExecutable executable = this.compiledExpressions.get(xpath);
+		if (executable == null) {
+			executable = this.compiler.compile(xpath);
+			this.compiledExpressions.put(xpath, executable);
+		}
+		return executable;
+	}
+
+	XPathCompiler getCompiler() {
+		return this.compiler;
+	}
+
+	public Path getPath() {
+		return this.path;
+	}
+
+}
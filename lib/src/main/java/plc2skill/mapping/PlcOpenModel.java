@@ -0,0 +1,295 @@
+package plc2skill.mapping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact model of everything the skill mapping needs from a PLCopen XML file: configurations, resources, the task instances of a resource, the POUs
+ * that extend PLC2Skill.Skill together with their parameters and outputs, and the variables that are instances of these skill POUs. Everything else
+ * contained in the file (implementations, methods, libraries, ...) is not part of this model
+ */
+public class PlcOpenModel {
+
+	private final List<String> configurationNames = new ArrayList<String>();
+	private final List<Resource> resources = new ArrayList<Resource>();
+
+	void addConfigurationName(String configurationName) {
+		this.configurationNames.add(configurationName);
+	}
+
+	void addResource(Resource resource) {
+		this.resources.add(resource);
+	}
+
+	public List<Resource> getResources() {
+		return Collections.unmodifiableList(this.resources);
+	}
+
+	/**
+	 * @return Names of all configurations (i.e. devices), in document order
+	 */
+	public List<String> getConfigurationNames() {
+		return Collections.unmodifiableList(this.configurationNames);
+	}
+
+	/**
+	 * @return Names of all resources (i.e. applications), in document order
+	 */
+	public List<String> getResourceNames() {
+		List<String> resourceNames = new ArrayList<String>();
+		for (Resource resource : this.resources) {
+			resourceNames.add(resource.getName());
+		}
+		return resourceNames;
+	}
+
+	/**
+	 * @return All skill instances of all resources, in document order
+	 */
+	public List<SkillInstance> getSkillInstances() {
+		List<SkillInstance> skillInstances = new ArrayList<SkillInstance>();
+		for (Resource resource : this.resources) {
+			skillInstances.addAll(resource.getSkillInstances());
+		}
+		return skillInstances;
+	}
+
+	/**
+	 * @return Names of all skill instances, in document order
+	 */
+	public List<String> getSkillNames() {
+		List<String> skillNames = new ArrayList<String>();
+		for (SkillInstance skillInstance : this.getSkillInstances()) {
+			skillNames.add(skillInstance.getName());
+		}
+		return skillNames;
+	}
+
+	/**
+	 * Returns the skill POUs with a given name of all resources. Usually, there is at most one per resource
+	 * @param name Name of the POU
+	 * @return Skill POUs in document order
+	 */
+	public List<SkillPou> getSkillPous(String name) {
+		List<SkillPou> skillPous = new ArrayList<SkillPou>();
+		for (Resource resource : this.resources) {
+			SkillPou skillPou = resource.getSkillPou(name);
+			if (skillPou != null) {
+				skillPous.add(skillPou);
+			}
+		}
+		return skillPous;
+	}
+
+	/**
+	 * Creates a copy of the model that only contains some of the skill instances. Configurations, resources, tasks and skill POUs are kept, so the
+	 * selected skills are mapped exactly as in the complete model
+	 * @param skillNames Names of the skill instances to keep
+	 * @return
+	 */
+	PlcOpenModel withSkillInstances(Collection<String> skillNames) {
+		PlcOpenModel model = new PlcOpenModel();
+		this.configurationNames.forEach(model::addConfigurationName);
+		for (Resource resource : this.resources) {
+			Resource resourceCopy = new Resource(resource.configurationName, resource.name);
+			resource.pouInstanceNames.forEach(resourceCopy::addPouInstanceName);
+			resource.skillPous.values().forEach(resourceCopy::addSkillPou);
+			for (SkillInstance skillInstance : resource.skillInstances) {
+				if (skillNames.contains(skillInstance.name)) {
+					resourceCopy.addSkillInstance(new SkillInstance(skillInstance.name, skillInstance.skillPouName, skillInstance.declaringPouName, resourceCopy));
+				}
+			}
+			model.addResource(resourceCopy);
+		}
+		return model;
+	}
+
+	/**
+	 * A resource (i.e. a PLC application) of a configuration
+	 */
+	public static class Resource {
+
+		private final String configurationName;
+		private final String name;
+		private final List<String> pouInstanceNames = new ArrayList<String>();
+		private final Map<String, SkillPou> skillPous = new LinkedHashMap<String, SkillPou>();
+		private final List<SkillInstance> skillInstances = new ArrayList<SkillInstance>();
+
+		Resource(String configurationName, String name) {
+			this.configurationName = configurationName;
+			this.name = name;
+		}
+
+		void addPouInstanceName(String pouInstanceName) {
+			this.pouInstanceNames.add(pouInstanceName);
+		}
+
+		void addSkillPou(SkillPou skillPou) {
+			this.skillPous.put(skillPou.getName(), skillPou);
+		}
+
+		void addSkillInstance(SkillInstance skillInstance) {
+			this.skillInstances.add(skillInstance);
+		}
+
+		public String getConfigurationName() {
+			return this.configurationName;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return Names of the POU instances of all tasks of this resource
+		 */
+		public List<String> getPouInstanceNames() {
+			return Collections.unmodifiableList(this.pouInstanceNames);
+		}
+
+		/**
+		 * @return All POUs of this resource that extend PLC2Skill.Skill, in document order
+		 */
+		public Collection<SkillPou> getSkillPous() {
+			return Collections.unmodifiableCollection(this.skillPous.values());
+		}
+
+		/**
+		 * @param name Name of the POU
+		 * @return The skill POU with the given name or null if this resource has no skill POU with this name
+		 */
+		public SkillPou getSkillPou(String name) {
+			return this.skillPous.get(name);
+		}
+
+		/**
+		 * @return All variables of this resource's POUs that are instances of a skill POU, in document order
+		 */
+		public List<SkillInstance> getSkillInstances() {
+			return Collections.unmodifiableList(this.skillInstances);
+		}
+	}
+
+	/**
+	 * A POU that extends PLC2Skill.Skill
+	 */
+	public static class SkillPou {
+
+		private final String name;
+		private final List<SkillVariable> parameters;
+		private final List<SkillVariable> outputs;
+
+		SkillPou(String name, List<SkillVariable> parameters, List<SkillVariable> outputs) {
+			this.name = name;
+			this.parameters = Collections.unmodifiableList(parameters);
+			this.outputs = Collections.unmodifiableList(outputs);
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return Input variables of type PLC2Skill.SkillParameter
+		 */
+		public List<SkillVariable> getParameters() {
+			return this.parameters;
+		}
+
+		/**
+		 * @return Output variables of type PLC2Skill.SkillParameter
+		 */
+		public List<SkillVariable> getOutputs() {
+			return this.outputs;
+		}
+	}
+
+	/**
+	 * An input or output variable of a skill POU. Values are taken as they are from the variable's initial value and are null if not set
+	 */
+	public static class SkillVariable {
+
+		private final String name;
+		private final String defaultValue;
+		private final String variableName;
+		private final String paramType;
+		private final String required;
+
+		SkillVariable(String name, String defaultValue, String variableName, String paramType, String required) {
+			this.name = name;
+			this.defaultValue = defaultValue;
+			this.variableName = variableName;
+			this.paramType = paramType;
+			this.required = required;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public String getDefaultValue() {
+			return this.defaultValue;
+		}
+
+		public String getVariableName() {
+			return this.variableName;
+		}
+
+		public String getParamType() {
+			return this.paramType;
+		}
+
+		public String getRequired() {
+			return this.required;
+		}
+	}
+
+	/**
+	 * A local variable of a POU whose type is a skill POU. Every skill instance becomes one skill of the mapping result
+	 */
+	public static class SkillInstance {
+
+		private final String name;
+		private final String skillPouName;
+		private final String declaringPouName;
+		private final Resource resource;
+
+		SkillInstance(String name, String skillPouName, String declaringPouName, Resource resource) {
+			this.name = name;
+			this.skillPouName = skillPouName;
+			this.declaringPouName = declaringPouName;
+			this.resource = resource;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return Name of the skill POU this variable is an instance of
+		 */
+		public String getSkillPouName() {
+			return this.skillPouName;
+		}
+
+		/**
+		 * @return Name of the POU that declares this variable
+		 */
+		public String getDeclaringPouName() {
+			return this.declaringPouName;
+		}
+
+		public SkillPou getSkillPou() {
+			return this.resource.getSkillPou(this.skillPouName);
+		}
+
+		public Resource getResource() {
+			return this.resource;
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package plc2skill.mapping;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.ugent.rml.records.Record;
+import be.ugent.rml.records.RecordsFactory;
+import be.ugent.rml.records.XMLRecord;
+import be.ugent.rml.store.Quad;
+import be.ugent.rml.store.QuadStore;
+import be.ugent.rml.term.NamedNode;
+import be.ugent.rml.term.Term;
+import net.sf.saxon.s9api.XdmItem;
+
+/**
+ * Records factory that creates the records of all logical sources with a given rml:source (usually the source placeholder of the mapping rules) from
+ * an in-memory document (usually the skill source built from the PLCopen file) instead of reading and parsing a file. Records are created once per
+ * iterator and shared by all triples maps with the same iterator
+ */
+class PlcOpenRecordsFactory extends RecordsFactory {
+
+	private static final String RML = "http://semweb.mmlab.be/ns/rml#";
+
+	private final PlcOpenDocument document;
+	private final String sourceName;
+	private final Map<String, List<Record>> recordsByIterator = new HashMap<String, List<Record>>();
+
+	/**
+	 * @param document Document the records are created from
+	 * @param sourceName Value of rml:source of all logical sources that are bound to the document
+	 */
+	PlcOpenRecordsFactory(PlcOpenDocument document, String sourceName) {
+		super(document.getPath().getParent().toString());
+		this.document = document;
+		this.sourceName = sourceName;
+	}
+
+	@Override
+	public List<Record> createRecords(Term triplesMap, QuadStore rmlStore) throws Exception {
+		Term logicalSource = getObject(rmlStore, triplesMap, RML + "logicalSource");
+		Term iterator = (logicalSource != null) ? getObject(rmlStore, logicalSource, RML + "iterator") : null;
+		Term source = (logicalSource != null) ? getObject(rmlStore, logicalSource, RML + "source") : null;
+
+		// Only logical sources bound to the document are taken from it
+		if (iterator == null || source == null || !source.getValue().equals(this.sourceName)) {
+			return super.createRecords(triplesMap, rmlStore);
+		}
+
+		List<Record> records = this.recordsByIterator.get(iterator.getValue());
+		if (records == null) {
+			records = new ArrayList<Record>();
+			for (XdmItem item : this.document.evaluate(iterator.getValue())) {
+				records.add(new XMLRecord(item, this.document.getCompiler()));
+			}
+			this.recordsByIterator.put(iterator.getValue(), records);
+		}
+		return records;
+	}
+
+	private static Term getObject(QuadStore rmlStore, Term subject, String predicate) {
+		List<Quad> quads = rmlStore.getQuads(subject, new NamedNode(predicate), null);
+		return quads.isEmpty() ? null : quads.get(0).getObject();
+	}
+
+}
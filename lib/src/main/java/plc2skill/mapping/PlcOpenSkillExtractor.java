@@ -0,0 +1,258 @@
+package plc2skill.mapping;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import plc2skill.mapping.PlcOpenModel.Resource;
+import plc2skill.mapping.PlcOpenModel.SkillInstance;
+import plc2skill.mapping.PlcOpenModel.SkillPou;
+import plc2skill.mapping.PlcOpenModel.SkillVariable;
+
+/**
+ * Extracts the {@link PlcOpenModel} from a PLCopen XML file in a single streaming pass. In contrast to a DOM, only the skill relevant parts of the
+ * current POU and the typed local variables of the current resource are kept in memory, so memory usage doesn't grow with the size of the file.
+ * Skills are found the same way as in the mapping rules: A skill is a local variable of a resource's POU whose type is a POU of the same resource
+ * that extends PLC2Skill.Skill
+ */
+public class PlcOpenSkillExtractor {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	static final String skillBaseType = "PLC2Skill.Skill";
+	static final String skillParameterType = "PLC2Skill.SkillParameter";
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+
+	// Element paths (local names) of all elements the extractor looks at. Below a POU, paths are relative to the POU element
+	private static final String[] configurationPath = { "project", "instances", "configurations", "configuration" };
+	private static final String[] resourcePath = { "project", "instances", "configurations", "configuration", "resource" };
+	private static final String[] pouInstancePath = { "project", "instances", "configurations", "configuration", "resource", "task", "pouInstance" };
+	private static final String[] pouPath = { "project", "instances", "configurations", "configuration", "resource", "addData", "data", "pou" };
+	private static final String[] variablePath = { "interface", null, "variable" };
+	private static final String[] derivedTypePath = { "interface", null, "variable", "type", "derived" };
+	private static final String[] memberValuePath = { "interface", null, "variable", "initialValue", "structValue", "value" };
+	private static final String[] simpleValuePath = { "interface", null, "variable", "initialValue", "structValue", "value", "simpleValue" };
+	private static final String[] extendsPath = { "interface", "addData", "data", "Inheritance", "Extends" };
+
+	private final List<String> path = new ArrayList<String>();
+
+	private PlcOpenModel model;
+	private String configurationName;
+	private Resource resource;
+	private List<TypedVariable> typedLocalVars;
+
+	private String pouName;
+	private boolean pouExtendsSkill;
+	private List<SkillVariable> pouParameters;
+	private List<SkillVariable> pouOutputs;
+
+	private String varSection;
+	private String varName;
+	private String varType;
+	private String varMember;
+	private Map<String, String> varMemberValues;
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * Reads a PLCopen XML file and extracts all skills
+	 * @param plcOpenFilePath Path of the PLCopen XML file
+	 * @return
+	 * @throws IOException If the file cannot be read
+	 * @throws XMLStreamException If the file is not well-formed
+	 */
+	public PlcOpenModel extract(Path plcOpenFilePath) throws IOException, XMLStreamException {
+		try (InputStream input = new BufferedInputStream(Files.newInputStream(plcOpenFilePath))) {
+			return this.extract(input);
+		}
+	}
+
+	/**
+	 * Reads a PLCopen XML document from a stream and extracts all skills. The stream is not closed
+	 * @param input Stream containing a PLCopen XML document. Encoding is detected from the XML declaration
+	 * @return
+	 * @throws XMLStreamException If the document is not well-formed
+	 */
+	public synchronized PlcOpenModel extract(InputStream input) throws XMLStreamException {
+		this.model = new PlcOpenModel();
+		this.path.clear();
+
+		XMLStreamReader reader;
+		synchronized (inputFactory) {
+			reader = inputFactory.createXMLStreamReader(input);
+		}
+		try {
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					this.path.add(reader.getLocalName());
+					this.startElement(reader);
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					this.endElement();
+					this.path.remove(this.path.size() - 1);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		logger.info("Found {} skills in {} resources", this.model.getSkillInstances().size(), this.model.getResources().size());
+		PlcOpenModel extractedModel = this.model;
+		this.model = null;
+		return extractedModel;
+	}
+
+	private void startElement(XMLStreamReader reader) throws XMLStreamException {
+		if (this.pouName != null) {
+			this.startPouElement(reader);
+		} else if (this.isAt(0, pouPath)) {
+			this.pouName = reader.getAttributeValue(null, "name");
+			this.pouExtendsSkill = false;
+			this.pouParameters = new ArrayList<SkillVariable>();
+			this.pouOutputs = new ArrayList<SkillVariable>();
+		} else if (this.isAt(0, pouInstancePath)) {
+			this.resource.addPouInstanceName(reader.getAttributeValue(null, "name"));
+		} else if (this.isAt(0, resourcePath)) {
+			this.resource = new Resource(this.configurationName, reader.getAttributeValue(null, "name"));
+			this.typedLocalVars = new ArrayList<TypedVariable>();
+		} else if (this.isAt(0, configurationPath)) {
+			this.configurationName = reader.getAttributeValue(null, "name");
+			this.model.addConfigurationName(this.configurationName);
+		}
+	}
+
+	private void startPouElement(XMLStreamReader reader) throws XMLStreamException {
+		int pouDepth = pouPath.length;
+		if (this.isAt(pouDepth, variablePath)) {
+			this.varSection = this.path.get(pouDepth + 1);
+			this.varName = reader.getAttributeValue(null, "name");
+			this.varType = null;
+			this.varMemberValues = new HashMap<String, String>();
+		} else if (this.varName == null) {
+			if (this.isAt(pouDepth, extendsPath)) {
+				// getElementText() consumes the end element, so the path has to be updated here
+				this.pouExtendsSkill |= skillBaseType.equals(reader.getElementText());
+				this.path.remove(this.path.size() - 1);
+			}
+		} else if (this.isAt(pouDepth, derivedTypePath)) {
+			if (this.varType == null) {
+				this.varType = reader.getAttributeValue(null, "name");
+			}
+		} else if (this.isAt(pouDepth, memberValuePath)) {
+			this.varMember = reader.getAttributeValue(null, "member");
+		} else if (this.isAt(pouDepth, simpleValuePath) && this.varMember != null) {
+			this.varMemberValues.putIfAbsent(this.varMember, reader.getAttributeValue(null, "value"));
+		}
+	}
+
+	private void endElement() {
+		if (this.pouName != null) {
+			this.endPouElement();
+		} else if (this.isAt(0, resourcePath)) {
+			this.endResource();
+		}
+	}
+
+	private void endPouElement() {
+		int pouDepth = pouPath.length;
+		if (this.isAt(pouDepth, variablePath)) {
+			this.endVariable();
+		} else if (this.isAt(pouDepth, memberValuePath)) {
+			this.varMember = null;
+		} else if (this.isAt(0, pouPath)) {
+			if (this.pouExtendsSkill) {
+				this.resource.addSkillPou(new SkillPou(this.pouName, this.pouParameters, this.pouOutputs));
+			}
+			this.pouName = null;
+			this.pouParameters = null;
+			this.pouOutputs = null;
+		}
+	}
+
+	private void endVariable() {
+		if (this.varType != null) {
+			if ("localVars".equals(this.varSection)) {
+				// The type might be a skill POU that comes later in the file, so only the name and type are kept until the resource is complete
+				this.typedLocalVars.add(new TypedVariable(this.varName, this.varType, this.pouName));
+			} else if (skillParameterType.equals(this.varType)) {
+				SkillVariable skillVariable = new SkillVariable(this.varName, this.varMemberValues.get("default"), this.varMemberValues.get("name"),
+						this.varMemberValues.get("paramType"), this.varMemberValues.get("required"));
+				if ("inputVars".equals(this.varSection)) {
+					this.pouParameters.add(skillVariable);
+				} else if ("outputVars".equals(this.varSection)) {
+					this.pouOutputs.add(skillVariable);
+				}
+			}
+		}
+		this.varSection = null;
+		this.varName = null;
+		this.varType = null;
+		this.varMemberValues = null;
+	}
+
+	/**
+	 * All POUs of the resource are known now, so local variables that are instances of a skill POU can be determined
+	 */
+	private void endResource() {
+		for (TypedVariable typedLocalVar : this.typedLocalVars) {
+			if (this.resource.getSkillPou(typedLocalVar.typeName) != null) {
+				this.resource.addSkillInstance(new SkillInstance(typedLocalVar.name, typedLocalVar.typeName, typedLocalVar.pouName, this.resource));
+			}
+		}
+		this.model.addResource(this.resource);
+		this.resource = null;
+		this.typedLocalVars = null;
+	}
+
+	/**
+	 * Checks whether the current element path starting at a given depth consists of exactly the given names
+	 * @param depth Depth the given names start at
+	 * @param names Expected local names, null matches any name
+	 * @return
+	 */
+	private boolean isAt(int depth, String[] names) {
+		if (this.path.size() != depth + names.length) {
+			return false;
+		}
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] != null && !names[i].equals(this.path.get(depth + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class TypedVariable {
+		private final String name;
+		private final String typeName;
+		private final String pouName;
+
+		private TypedVariable(String name, String typeName, String pouName) {
+			this.name = name;
+			this.typeName = typeName;
+			this.pouName = pouName;
+		}
+	}
+
+}
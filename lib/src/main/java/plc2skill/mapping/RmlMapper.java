@@ -1,69 +1,78 @@
 package plc2skill.mapping;
 
-import java.io.File;
-import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import be.ugent.rml.Executor;
 import be.ugent.rml.records.RecordsFactory;
-import be.ugent.rml.store.Quad;
 import be.ugent.rml.store.QuadStore;
-import be.ugent.rml.store.QuadStoreFactory;
 import be.ugent.rml.store.RDF4JStore;
-import be.ugent.rml.term.Literal;
 import be.ugent.rml.term.NamedNode;
-import be.ugent.rml.term.Term;
 
+/**
+ * Runs the RML part of the mapping: Skills are extracted from a PLCopen file, written to a small skill source and the mapping rules are executed
+ * over this source through a {@link PlcOpenRecordsFactory}. State machines and nodeIds are added later by {@link Plc2SkillMapper}
+ */
 public class RmlMapper {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
-	static String mappingDefinition = "/PLC2SkillMappingRules.ttl";
+
+	private final RmlMappingPlan mappingPlan;
+
+	/**
+	 * Creates a mapper for the built-in PLC2Skill mapping rules
+	 */
+	public RmlMapper() {
+		this(null);
+	}
+
+	/**
+	 * Creates a mapper for a given mapping plan. Plans can be shared by several mappers
+	 * @param mappingPlan Loaded mapping rules, null to use the built-in rules
+	 */
+	public RmlMapper(RmlMappingPlan mappingPlan) {
+		this.mappingPlan = mappingPlan;
+	}
 
 	/**
-	 * Executes the overall mapping consisting of an RML mapping as well as creation of the ISA 88 state machine 
-	 * and replacing of placeholder (nodeIDs)
+	 * Extracts the skills of a PLCopen file and executes the RML mapping on them
 	 * 
-	 * @param xmlSourceDocument Absolute path to a source document
+	 * @param xmlSourcePath Absolute path of the PLCopen file
+	 * @param baseIri Base IRI of all created individuals
 	 * @return
 	 * @throws Exception 
 	 */
 	public QuadStore executeRmlMapping(Path xmlSourcePath, String baseIri) throws Exception {
+		return this.executeRmlMapping(new PlcOpenSkillExtractor().extract(xmlSourcePath), xmlSourcePath, baseIri);
+	}
 
+	/**
+	 * Executes the RML mapping on skills that were already extracted from a PLCopen file. The rules don't iterate over the PLCopen file itself, but
+	 * over a small skill source built from the extracted skills (see {@link SkillSourceBuilder}), so skills are only searched once and not once per
+	 * triples map
+	 * 
+	 * @param plcOpenModel Skills extracted from the PLCopen file
+	 * @param xmlSourcePath Path of the PLCopen file
+	 * @param baseIri Base IRI of all created individuals
+	 * @return
+	 * @throws Exception
+	 */
+	public QuadStore executeRmlMapping(PlcOpenModel plcOpenModel, Path xmlSourcePath, String baseIri) throws Exception {
 		try {
-			InputStream mappingStream = this.getClass().getResourceAsStream(mappingDefinition);
-
-			// Load the mapping in a QuadStore
-			QuadStore rmlStore = QuadStoreFactory.read(mappingStream);
-
-			// Get all the triples which contain the rml:source and placeholder as predicate and object, respectively
-			Term predicate = new NamedNode("http://semweb.mmlab.be/ns/rml#source");
-			Term object = new Literal("${XMLFileToMap}");
-
-			List<Quad> sourceQuads = rmlStore.getQuads(null, predicate, object);
-			List<Term> subjects = new ArrayList<Term>();
-			for (Quad quad : sourceQuads) {
-				subjects.add(quad.getSubject());
-			}
-
-			rmlStore.removeQuads(null, predicate, object);
+			// Preprocessing: Build the logical source that all triples maps iterate over
+			PlcOpenDocument skillSource = SkillSourceBuilder.build(plcOpenModel, xmlSourcePath);
 
-			Term newObject = new Literal(xmlSourcePath.toString());
-			for (Term subject : subjects) {
-				rmlStore.addQuad(subject, predicate, newObject);
-			}
+			// The rules are loaded once and shared, they must not be modified here
+			RmlMappingPlan plan = (this.mappingPlan != null) ? this.mappingPlan : RmlMappingPlan.getDefault();
+			QuadStore rmlStore = plan.getRules();
 
-			// Set up the basepath for the records factory, i.e., the basepath for the
-			// (local file) data sources
-			String parent = xmlSourcePath.getParent().toString();
-	        File userDirectory = new File(System.getProperty("user.dir"));
-			RecordsFactory factory = new RecordsFactory(parent);
+			// The records factory binds the source placeholder of the rules to the skill source of this run. Other (local file) data sources are
+			// resolved relative to the PLCopen file
+			RecordsFactory factory = new PlcOpenRecordsFactory(skillSource, RmlMappingPlan.sourcePlaceholder);
 
 			// Set up the outputstore (needed when you want to output something else than
 			// nquads)
@@ -88,8 +97,8 @@ public class RmlMapper {
 		try {
 			resultQuads.write(sW, "turtle");
 		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// Writing to a StringWriter only fails if the quads can't be serialized
+			throw new IllegalStateException("The mapping result could not be converted to turtle", e);
 		}
 		String resultString = sW.toString();
 		return resultString;
@@ -0,0 +1,111 @@
+package plc2skill.mapping;
+
+import java.io.InputStream;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.rml.store.Quad;
+import be.ugent.rml.store.QuadStore;
+import be.ugent.rml.store.QuadStoreFactory;
+import be.ugent.rml.term.NamedNode;
+import be.ugent.rml.term.Term;
+
+/**
+ * Parsed and validated RML mapping rules. A plan is never modified after it was loaded, so it can be shared by any number of mappings running at the
+ * same time. Rules don't contain the path of the file to map: All logical sources use the placeholder {@value #sourcePlaceholder} as rml:source, which
+ * is bound to the actual file by each mapping run
+ */
+public class RmlMappingPlan {
+
+	private static final Logger logger = LoggerFactory.getLogger(RmlMappingPlan.class);
+
+	static final String defaultMappingDefinition = "/PLC2SkillMappingRules.ttl";
+	static final String sourcePlaceholder = "${XMLFileToMap}";
+
+	private static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	private static final String RR = "http://www.w3.org/ns/r2rml#";
+	private static final String RML = "http://semweb.mmlab.be/ns/rml#";
+
+	private static volatile RmlMappingPlan defaultPlan;
+
+	private final QuadStore rules;
+	private final int triplesMapCount;
+
+	private RmlMappingPlan(QuadStore rules, int triplesMapCount) {
+		this.rules = rules;
+		this.triplesMapCount = triplesMapCount;
+	}
+
+	/**
+	 * Returns the plan of the built-in PLC2Skill mapping rules. The rules are loaded on first access and shared afterwards
+	 * @return
+	 * @throws Exception If the built-in rules cannot be read or are invalid
+	 */
+	public static RmlMappingPlan getDefault() throws Exception {
+		RmlMappingPlan plan = defaultPlan;
+		if (plan == null) {
+			synchronized (RmlMappingPlan.class) {
+				plan = defaultPlan;
+				if (plan == null) {
+					try (InputStream mappingStream = RmlMappingPlan.class.getResourceAsStream(defaultMappingDefinition)) {
+						plan = load(mappingStream);
+					}
+					defaultPlan = plan;
+				}
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Loads and validates RML mapping rules
+	 * @param mappingStream Mapping rules in turtle syntax. The stream is not closed
+	 * @return
+	 * @throws Exception If the rules cannot be parsed or are invalid
+	 */
+	public static RmlMappingPlan load(InputStream mappingStream) throws Exception {
+		if (mappingStream == null) {
+			throw new Exception("Mapping rules not found");
+		}
+		QuadStore rules = QuadStoreFactory.read(mappingStream);
+
+		List<Quad> triplesMaps = rules.getQuads(null, new NamedNode(RDF + "type"), new NamedNode(RR + "TriplesMap"));
+		if (triplesMaps.isEmpty()) {
+			throw new Exception("Mapping rules don't contain any triples map");
+		}
+		for (Quad triplesMap : triplesMaps) {
+			validateLogicalSource(rules, triplesMap.getSubject());
+		}
+
+		logger.info("Loaded mapping rules with {} triples maps", triplesMaps.size());
+		return new RmlMappingPlan(rules, triplesMaps.size());
+	}
+
+	private static void validateLogicalSource(QuadStore rules, Term triplesMap) throws Exception {
+		List<Quad> logicalSources = rules.getQuads(triplesMap, new NamedNode(RML + "logicalSource"), null);
+		if (logicalSources.isEmpty()) {
+			throw new Exception("Triples map " + triplesMap + " has no logical source");
+		}
+		Term logicalSource = logicalSources.get(0).getObject();
+		if (rules.getQuads(logicalSource, new NamedNode(RML + "source"), null).isEmpty()) {
+			throw new Exception("Logical source of triples map " + triplesMap + " has no rml:source");
+		}
+		if (rules.getQuads(logicalSource, new NamedNode(RML + "iterator"), null).isEmpty()) {
+			throw new Exception("Logical source of triples map " + triplesMap + " has no rml:iterator");
+		}
+	}
+
+	/**
+	 * @return The parsed rules. Must only be read, never modified
+	 */
+	QuadStore getRules() {
+		return this.rules;
+	}
+
+	public int getTriplesMapCount() {
+		return this.triplesMapCount;
+	}
+
+}
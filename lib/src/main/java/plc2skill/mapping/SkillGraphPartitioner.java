@@ -0,0 +1,143 @@
+package plc2skill.mapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.rml.store.Quad;
+import be.ugent.rml.store.QuadStore;
+import be.ugent.rml.term.Literal;
+import be.ugent.rml.term.NamedNode;
+import be.ugent.rml.term.Term;
+
+/**
+ * Moves every skill and everything it owns into a named graph of its own. A skill owns all subjects whose IRI is the skill's IRI or starts with it
+ * followed by "_", which is how the mapping rules and the state machine template name the capability, interface, parameters, outputs, state machine
+ * and OPC UA nodes of a skill. Everything else (resource, OPC UA server, endpoint) stays in the default graph.<br>
+ * Graph names are built from the skill name and a SHA-256 hash of the graph's content, so a graph keeps its name as long as the skill doesn't change
+ */
+class SkillGraphPartitioner {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final String skillIriPrefix;
+	private final String graphIriPrefix;
+	private final Set<String> skillNames;
+
+	/**
+	 * @param baseIri Base IRI of the mapping, skills are named baseIri#skillName
+	 * @param skillNames Names of all skills
+	 */
+	SkillGraphPartitioner(String baseIri, List<String> skillNames) {
+		this.skillIriPrefix = baseIri + "#";
+		this.graphIriPrefix = baseIri + "/skills/";
+		this.skillNames = new HashSet<>(skillNames);
+	}
+
+	/**
+	 * Assigns the named graphs to all quads owned by a skill
+	 * @param store Complete mapping result
+	 * @return Name of the graph of each skill
+	 */
+	Map<String, String> partition(QuadStore store) {
+		Map<String, List<Quad>> quadsPerSkill = this.group(store.getQuads(null, null, null), false);
+		quadsPerSkill.remove(null);
+
+		Map<String, String> graphNames = new LinkedHashMap<>();
+		for (Map.Entry<String, List<Quad>> skillQuads : quadsPerSkill.entrySet()) {
+			String graphName = this.graphIriPrefix + skillQuads.getKey() + "/" + hashContent(skillQuads.getValue());
+			Term graph = new NamedNode(graphName);
+			for (Quad quad : skillQuads.getValue()) {
+				store.removeQuads(quad.getSubject(), quad.getPredicate(), quad.getObject());
+				store.addQuad(quad.getSubject(), quad.getPredicate(), quad.getObject(), graph);
+			}
+			graphNames.put(skillQuads.getKey(), graphName);
+		}
+		logger.info("Created named graphs for {} skills", graphNames.size());
+		return graphNames;
+	}
+
+	/**
+	 * Groups quads by the skill that owns them
+	 * @param quads Quads to group
+	 * @param includeReferences true to also assign quads of shared subjects to the skill whose node they refer to (e.g. providesSkill of the
+	 * resource or containsNode of the OPC UA node set)
+	 * @return Quads of each skill. Quads that belong to no skill are grouped under null
+	 */
+	Map<String, List<Quad>> group(List<Quad> quads, boolean includeReferences) {
+		Map<String, List<Quad>> quadsPerSkill = new LinkedHashMap<>();
+		for (Quad quad : quads) {
+			String skillName = this.findOwner(quad.getSubject());
+			if (skillName == null && includeReferences) {
+				skillName = this.findOwner(quad.getObject());
+			}
+			quadsPerSkill.computeIfAbsent(skillName, key -> new ArrayList<>()).add(quad);
+		}
+		return quadsPerSkill;
+	}
+
+	/**
+	 * Returns the skill a node belongs to. If skill names are prefixes of each other, the longest one wins
+	 */
+	private String findOwner(Term term) {
+		String iri = term.getValue();
+		if (!(term instanceof NamedNode) || !iri.startsWith(this.skillIriPrefix)) {
+			return null;
+		}
+
+		String localName = iri.substring(this.skillIriPrefix.length());
+		if (this.skillNames.contains(localName)) {
+			return localName;
+		}
+		int separatorIndex = localName.lastIndexOf('_');
+		while (separatorIndex > 0) {
+			String candidate = localName.substring(0, separatorIndex);
+			if (this.skillNames.contains(candidate)) {
+				return candidate;
+			}
+			separatorIndex = localName.lastIndexOf('_', separatorIndex - 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Hashes the statements of a graph independent of their order. Statements are written in an N-Triples like form and sorted before hashing
+	 */
+	private static String hashContent(List<Quad> quads) {
+		List<String> lines = new ArrayList<>(quads.size());
+		for (Quad quad : quads) {
+			lines.add(toLine(quad.getSubject()) + " " + toLine(quad.getPredicate()) + " " + toLine(quad.getObject()) + " .");
+		}
+		Collections.sort(lines);
+
+		Fingerprint fingerprint = new Fingerprint();
+		lines.forEach(fingerprint::add);
+		return fingerprint.toHex();
+	}
+
+	private static String toLine(Term term) {
+		if (term instanceof Literal) {
+			Literal literal = (Literal) term;
+			String line = "\"" + literal.getValue().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+			if (literal.getLanguage() != null && !literal.getLanguage().isEmpty()) {
+				return line + "@" + literal.getLanguage();
+			}
+			if (literal.getDatatype() != null) {
+				return line + "^^<" + literal.getDatatype().getValue() + ">";
+			}
+			return line;
+		}
+		if (term instanceof NamedNode) {
+			return "<" + term.getValue() + ">";
+		}
+		return "_:" + term.getValue();
+	}
+
+}
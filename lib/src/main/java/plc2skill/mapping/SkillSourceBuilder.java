@@ -0,0 +1,121 @@
+package plc2skill.mapping;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import net.sf.saxon.s9api.BuildingStreamWriter;
+import net.sf.saxon.s9api.SaxonApiException;
+import plc2skill.mapping.PlcOpenModel.SkillInstance;
+import plc2skill.mapping.PlcOpenModel.SkillPou;
+import plc2skill.mapping.PlcOpenModel.SkillVariable;
+
+/**
+ * Builds the logical source of the mapping rules from an extracted {@link PlcOpenModel}. Instead of the complete PLCopen file, the rules iterate over
+ * a flat document with one element per skill that already contains everything the rules need:
+ *
+ * <pre>
+ * &lt;skills&gt;
+ *   &lt;configuration name="Device"/&gt;
+ *   &lt;skill name="drillingSkill_1" type="DrillingSkill"&gt;
+ *     &lt;pouInstance name="PLC_PRG"/&gt;                  Task instances of the skill's resource
+ *     &lt;resourceParameter name="numberOfHoles"/&gt;      Parameters of all skill POUs of the skill's resource
+ *     &lt;resourceOutput name="drillingResult"/&gt;        Outputs of all skill POUs of the skill's resource
+ *     &lt;parameter name="numberOfHoles" default="10" variableName="'numberOfHoles'" paramType="'int'" required="TRUE"/&gt;
+ *     &lt;output name="drillingResult" default="0" variableName="'drillingResult'" paramType="'bool'" required="TRUE"/&gt;
+ *   &lt;/skill&gt;
+ * &lt;/skills&gt;
+ * </pre>
+ *
+ * The resource-wide parameters and outputs reproduce what the former ancestor:: queries of the rules selected. Own parameters and outputs are those of
+ * all skill POUs with the skill's type name
+ */
+class SkillSourceBuilder {
+
+	private SkillSourceBuilder() {
+	}
+
+	/**
+	 * Creates the logical source document for the mapping rules
+	 * @param model Model extracted from the PLCopen file
+	 * @param plcOpenFilePath Path of the PLCopen file. Used as the path of the created document, which is also the value of all rml:source
+	 * @return
+	 * @throws SaxonApiException
+	 * @throws XMLStreamException
+	 */
+	static PlcOpenDocument build(PlcOpenModel model, Path plcOpenFilePath) throws SaxonApiException, XMLStreamException {
+		BuildingStreamWriter writer = PlcOpenDocument.newDocumentBuilder().newBuildingStreamWriter();
+		writer.writeStartDocument();
+		writer.writeStartElement("skills");
+
+		for (String configurationName : model.getConfigurationNames()) {
+			writeElement(writer, "configuration", configurationName);
+		}
+
+		for (SkillInstance skillInstance : model.getSkillInstances()) {
+			writer.writeStartElement("skill");
+			writer.writeAttribute("name", skillInstance.getName());
+			writer.writeAttribute("type", skillInstance.getSkillPouName());
+
+			for (String pouInstanceName : skillInstance.getResource().getPouInstanceNames()) {
+				writeElement(writer, "pouInstance", pouInstanceName);
+			}
+			for (SkillPou skillPou : skillInstance.getResource().getSkillPous()) {
+				for (SkillVariable parameter : skillPou.getParameters()) {
+					writeElement(writer, "resourceParameter", parameter.getName());
+				}
+			}
+			for (SkillPou skillPou : skillInstance.getResource().getSkillPous()) {
+				for (SkillVariable output : skillPou.getOutputs()) {
+					writeElement(writer, "resourceOutput", output.getName());
+				}
+			}
+
+			List<SkillPou> skillPous = model.getSkillPous(skillInstance.getSkillPouName());
+			for (SkillPou skillPou : skillPous) {
+				for (SkillVariable parameter : skillPou.getParameters()) {
+					writeSkillVariable(writer, "parameter", parameter);
+				}
+			}
+			for (SkillPou skillPou : skillPous) {
+				for (SkillVariable output : skillPou.getOutputs()) {
+					writeSkillVariable(writer, "output", output);
+				}
+			}
+
+			writer.writeEndElement();
+		}
+
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		return PlcOpenDocument.of(plcOpenFilePath, writer.getDocumentNode());
+	}
+
+	private static void writeElement(BuildingStreamWriter writer, String elementName, String name) throws XMLStreamException {
+		writer.writeStartElement(elementName);
+		writeAttributeIfSet(writer, "name", name);
+		writer.writeEndElement();
+	}
+
+	/**
+	 * Writes a parameter or output. Values that are not set in the PLCopen file are left out, just like a query on the PLCopen file wouldn't return them
+	 */
+	private static void writeSkillVariable(BuildingStreamWriter writer, String elementName, SkillVariable skillVariable) throws XMLStreamException {
+		writer.writeStartElement(elementName);
+		writeAttributeIfSet(writer, "name", skillVariable.getName());
+		writeAttributeIfSet(writer, "default", skillVariable.getDefaultValue());
+		writeAttributeIfSet(writer, "variableName", skillVariable.getVariableName());
+		writeAttributeIfSet(writer, "paramType", skillVariable.getParamType());
+		writeAttributeIfSet(writer, "required", skillVariable.getRequired());
+		writer.writeEndElement();
+	}
+
+	private static void writeAttributeIfSet(BuildingStreamWriter writer, String name, String value) throws XMLStreamException {
+		if (value != null) {
+			writer.writeAttribute(name, value);
+		}
+	}
+
+}
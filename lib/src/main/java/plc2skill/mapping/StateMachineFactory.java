@@ -0,0 +1,233 @@
+package plc2skill.mapping;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ugent.rml.store.Quad;
+import be.ugent.rml.store.QuadStore;
+import be.ugent.rml.term.BlankNode;
+import be.ugent.rml.term.Literal;
+import be.ugent.rml.term.NamedNode;
+import be.ugent.rml.term.Term;
+
+/**
+ * Creates the state machines of skills. The state machine template is parsed once into a pattern of quads that doesn't depend on a skill. The
+ * state machine of a skill is created by filling the skill name and base IRI into the terms of this pattern, no turtle is written or parsed per skill
+ */
+class StateMachineFactory {
+
+	private static final Logger logger = LoggerFactory.getLogger(StateMachineFactory.class);
+
+	static final String defaultTemplate = "/PLCStateMachine.ttl";
+
+	private static final String basePlaceholder = "${base}";
+	private static final String skillNamePlaceholder = "${skillName}";
+
+	// Placeholders aren't valid in IRIs, so they are exchanged for these markers before the template is parsed
+	private static final String baseMarker = "urn:plc2skill:base";
+	private static final String skillNameMarker = "__plc2skillSkillName__";
+
+	// Below this number of skills, creating state machines in parallel doesn't pay off
+	private static final int parallelThreshold = 64;
+
+	private static volatile StateMachineFactory defaultFactory;
+
+	private final List<PatternTerm[]> pattern;
+
+	private StateMachineFactory(List<PatternTerm[]> pattern) {
+		this.pattern = pattern;
+	}
+
+	/**
+	 * Returns the factory of the built-in state machine template. The template is parsed on first access and shared afterwards
+	 * @return
+	 * @throws Exception If the built-in template cannot be read or parsed
+	 */
+	static StateMachineFactory getDefault() throws Exception {
+		StateMachineFactory factory = defaultFactory;
+		if (factory == null) {
+			synchronized (StateMachineFactory.class) {
+				factory = defaultFactory;
+				if (factory == null) {
+					try (InputStream templateStream = StateMachineFactory.class.getResourceAsStream(defaultTemplate)) {
+						factory = load(templateStream);
+					}
+					defaultFactory = factory;
+				}
+			}
+		}
+		return factory;
+	}
+
+	/**
+	 * Parses a state machine template
+	 * @param templateStream Template in turtle syntax that uses {@value #skillNamePlaceholder} and {@value #basePlaceholder} as placeholders. The
+	 * stream is not closed
+	 * @return
+	 * @throws Exception If the template cannot be parsed
+	 */
+	static StateMachineFactory load(InputStream templateStream) throws Exception {
+		if (templateStream == null) {
+			throw new Exception("State machine template not found");
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(templateStream, StandardCharsets.UTF_8));
+		String template = reader.lines().collect(Collectors.joining("\n"))
+				.replace(basePlaceholder, baseMarker)
+				.replace(skillNamePlaceholder, skillNameMarker);
+
+		Model model = Rio.parse(new StringReader(template), baseMarker, RDFFormat.TURTLE);
+		List<PatternTerm[]> pattern = new ArrayList<>(model.size());
+		for (Statement statement : model) {
+			pattern.add(new PatternTerm[] { PatternTerm.of(statement.getSubject()), PatternTerm.of(statement.getPredicate()),
+					PatternTerm.of(statement.getObject()) });
+		}
+
+		logger.info("Loaded state machine template with {} statements per skill", pattern.size());
+		return new StateMachineFactory(pattern);
+	}
+
+	/**
+	 * Creates the state machine of one skill. Note that in our skill model, every skill has to have its own state machine
+	 * @param baseIri Base IRI of the mapping
+	 * @param skillName Name of the skill
+	 * @return Quads of the skill's state machine
+	 */
+	List<Quad> createStateMachine(String baseIri, String skillName) {
+		List<Quad> quads = new ArrayList<>(this.pattern.size());
+		for (PatternTerm[] patternQuad : this.pattern) {
+			quads.add(new Quad(patternQuad[0].create(baseIri, skillName), patternQuad[1].create(baseIri, skillName),
+					patternQuad[2].create(baseIri, skillName)));
+		}
+		return quads;
+	}
+
+	/**
+	 * Creates the state machines of all skills and adds them to a quad store. For many skills, state machines are created in parallel
+	 * @param store Store the state machines are added to
+	 * @param baseIri Base IRI of the mapping
+	 * @param skillNames Names of all skills
+	 */
+	void addStateMachines(QuadStore store, String baseIri, List<String> skillNames) {
+		Stream<String> skillNameStream = skillNames.size() >= parallelThreshold ? skillNames.parallelStream() : skillNames.stream();
+		List<List<Quad>> stateMachines = skillNameStream
+				.map(skillName -> this.createStateMachine(baseIri, skillName))
+				.collect(Collectors.toList());
+
+		// The store isn't thread-safe, so quads are added sequentially
+		for (List<Quad> stateMachine : stateMachines) {
+			for (Quad quad : stateMachine) {
+				store.addQuad(quad.getSubject(), quad.getPredicate(), quad.getObject());
+			}
+		}
+	}
+
+	/**
+	 * Term of the pattern. Its value consists of fixed parts with the base IRI or skill name in between. Terms without placeholders are created
+	 * once and shared by all state machines
+	 */
+	private static class PatternTerm {
+
+		private enum Kind {
+			IRI, LITERAL, BLANK_NODE
+		}
+
+		private final Kind kind;
+		private final List<String> fixedParts = new ArrayList<>();
+		private final List<String> placeholders = new ArrayList<>();
+		private Term datatype;
+		private String language;
+		private Term constant;
+
+		private PatternTerm(Kind kind, String value) {
+			this.kind = kind;
+			int start = 0;
+			while (true) {
+				int baseIndex = value.indexOf(baseMarker, start);
+				int skillNameIndex = value.indexOf(skillNameMarker, start);
+				if (baseIndex < 0 && skillNameIndex < 0) {
+					break;
+				}
+				String marker = (skillNameIndex < 0 || (baseIndex >= 0 && baseIndex < skillNameIndex)) ? baseMarker : skillNameMarker;
+				int index = marker.equals(baseMarker) ? baseIndex : skillNameIndex;
+				this.fixedParts.add(value.substring(start, index));
+				this.placeholders.add(marker);
+				start = index + marker.length();
+			}
+			this.fixedParts.add(value.substring(start));
+		}
+
+		static PatternTerm of(Value value) {
+			if (value instanceof BNode) {
+				// Blank nodes must not be shared between state machines
+				return new PatternTerm(Kind.BLANK_NODE, ((BNode) value).getID() + "_" + skillNameMarker);
+			}
+			if (value instanceof org.eclipse.rdf4j.model.Literal) {
+				org.eclipse.rdf4j.model.Literal literal = (org.eclipse.rdf4j.model.Literal) value;
+				PatternTerm term = new PatternTerm(Kind.LITERAL, literal.getLabel());
+				term.language = literal.getLanguage().orElse(null);
+				if (term.language == null && !XSD.STRING.equals(literal.getDatatype())) {
+					term.datatype = new NamedNode(literal.getDatatype().stringValue());
+				}
+				term.initConstant();
+				return term;
+			}
+			PatternTerm term = new PatternTerm(Kind.IRI, value.stringValue());
+			term.initConstant();
+			return term;
+		}
+
+		private void initConstant() {
+			if (this.placeholders.isEmpty()) {
+				this.constant = this.toTerm(this.fixedParts.get(0));
+			}
+		}
+
+		Term create(String baseIri, String skillName) {
+			if (this.constant != null) {
+				return this.constant;
+			}
+			StringBuilder value = new StringBuilder(this.fixedParts.get(0));
+			for (int i = 0; i < this.placeholders.size(); i++) {
+				value.append(this.placeholders.get(i).equals(baseMarker) ? baseIri : skillName);
+				value.append(this.fixedParts.get(i + 1));
+			}
+			return this.toTerm(value.toString());
+		}
+
+		private Term toTerm(String value) {
+			switch (this.kind) {
+			case LITERAL:
+				if (this.language != null) {
+					return new Literal(value, this.language);
+				}
+				if (this.datatype != null) {
+					return new Literal(value, this.datatype);
+				}
+				return new Literal(value);
+			case BLANK_NODE:
+				return new BlankNode(value);
+			default:
+				return new NamedNode(value);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,385 @@
+package plc2skill.opcua;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscriptionManager;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.FilterOperator;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilterElement;
+import org.eclipse.milo.opcua.stack.core.types.structured.EventFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.LiteralOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.SimpleAttributeOperand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process cache of crawled address spaces that can be shared by all mappings of a service. Entries are keyed by the endpoint, the identity of
+ * the server (build info, start time and namespace array) and the browse settings that define the crawled scope. The cache is bounded by the
+ * estimated memory of all trees and evicts the least recently used entries first.
+ * An entry is only kept as long as it is watched for changes: A subscription to GeneralModelChangeEvents is created on the session that crawled the
+ * address space. The entry is dropped when such an event arrives, when the subscription is lost or when the session is closed. Mappings therefore
+ * only skip the crawl while a session to the server is kept open, e.g. by an {@link OpcUaSessionPool}.
+ */
+public class AddressSpaceCache {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	// Variables that identify a server and the loaded PLC application. They are read before every lookup
+	private static final List<NodeId> serverIdentityNodes = Arrays.asList(
+			Identifiers.Server_ServerStatus_BuildInfo_ProductUri,
+			Identifiers.Server_ServerStatus_BuildInfo_SoftwareVersion,
+			Identifiers.Server_ServerStatus_BuildInfo_BuildNumber,
+			Identifiers.Server_ServerStatus_BuildInfo_BuildDate,
+			Identifiers.Server_ServerStatus_StartTime,
+			Identifiers.Server_NamespaceArray);
+
+	private final long maxMemory;
+	private long usedMemory = 0;
+	private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true);
+	// Crawls that are running, so that concurrent lookups of the same key wait for one crawl instead of crawling the server several times
+	private final Map<CacheKey, CompletableFuture<AddressSpaceTree>> crawlsInFlight = new HashMap<CacheKey, CompletableFuture<AddressSpaceTree>>();
+
+	/**
+	 * Creates a cache that holds up to 256 MB of address spaces
+	 */
+	public AddressSpaceCache() {
+		this(256L * 1024 * 1024);
+	}
+
+	/**
+	 * @param maxMemory Maximum estimated memory in bytes of all cached address spaces
+	 */
+	public AddressSpaceCache(long maxMemory) {
+		this.maxMemory = maxMemory;
+	}
+
+	/**
+	 * Returns the cached address space of the server a session is connected to or crawls it and adds it to the cache. If the same address space is
+	 * already being crawled for another caller, this waits for that crawl instead of starting another one
+	 * @param session Session to the server. New entries are watched for changes with a subscription on this session
+	 * @param browseSettings Settings that define the scope of the crawl
+	 * @param crawler Crawls the address space if there is no cached one
+	 * @return
+	 */
+	public AddressSpaceTree getOrCrawl(OpcUaSession session, BrowseSettings browseSettings, Supplier<AddressSpaceTree> crawler) {
+		CacheKey key;
+		try {
+			key = this.createKey(session, browseSettings);
+		} catch (Exception e) {
+			logger.warn("Could not read the server identity, the address space is not cached: {}", e.getMessage());
+			return crawler.get();
+		}
+
+		CompletableFuture<AddressSpaceTree> crawl;
+		boolean crawlStarted = false;
+		synchronized (this) {
+			CacheEntry entry = this.entries.get(key);
+			if (entry != null) {
+				logger.info("Using cached address space of {} ({} nodes)", key.endpointUrl, entry.tree.size());
+				return entry.tree;
+			}
+			crawl = this.crawlsInFlight.get(key);
+			if (crawl == null) {
+				crawl = new CompletableFuture<AddressSpaceTree>();
+				this.crawlsInFlight.put(key, crawl);
+				crawlStarted = true;
+			}
+		}
+
+		if (!crawlStarted) {
+			logger.info("Waiting for the running crawl of the address space of {}", key.endpointUrl);
+			try {
+				AddressSpaceTree tree = crawl.join();
+				if (tree.isComplete()) {
+					return tree;
+				}
+			} catch (CompletionException e) {
+				// Handled below
+			}
+			// The other crawl failed, e.g. because its session was lost. Crawl with this session instead
+			logger.info("The running crawl of {} failed, crawling again", key.endpointUrl);
+			AddressSpaceTree tree = crawler.get();
+			this.put(key, tree, session);
+			return tree;
+		}
+
+		try {
+			AddressSpaceTree tree = crawler.get();
+			this.put(key, tree, session);
+			crawl.complete(tree);
+			return tree;
+		} finally {
+			// Only has an effect if the crawler threw, waiting callers then crawl on their own
+			crawl.completeExceptionally(new IllegalStateException("Crawling the address space of " + key.endpointUrl + " failed"));
+			synchronized (this) {
+				this.crawlsInFlight.remove(key, crawl);
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached address spaces of an endpoint
+	 * @param endpointUrl EndpointUrl of the server
+	 */
+	public void invalidate(String endpointUrl) {
+		List<CacheEntry> removedEntries = new ArrayList<CacheEntry>();
+		synchronized (this) {
+			Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = this.entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<CacheKey, CacheEntry> cacheEntry = iterator.next();
+				if (cacheEntry.getKey().endpointUrl.equals(endpointUrl)) {
+					iterator.remove();
+					this.usedMemory -= cacheEntry.getValue().memory;
+					removedEntries.add(cacheEntry.getValue());
+				}
+			}
+		}
+		removedEntries.forEach(CacheEntry::stopWatching);
+	}
+
+	/**
+	 * Drops all cached address spaces
+	 */
+	public void clear() {
+		List<CacheEntry> removedEntries;
+		synchronized (this) {
+			removedEntries = new ArrayList<CacheEntry>(this.entries.values());
+			this.entries.clear();
+			this.usedMemory = 0;
+		}
+		removedEntries.forEach(CacheEntry::stopWatching);
+	}
+
+	/**
+	 * @return Number of cached address spaces
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	private void put(CacheKey key, AddressSpaceTree tree, OpcUaSession session) {
+		if (!tree.isComplete()) {
+			logger.info("Address space of {} is incomplete and is not cached", key.endpointUrl);
+			return;
+		}
+		long memory = tree.estimateMemory();
+		if (memory > this.maxMemory) {
+			logger.info("Address space of {} is too large to be cached ({} bytes)", key.endpointUrl, memory);
+			return;
+		}
+
+		CacheEntry entry = new CacheEntry(tree, memory);
+		if (!this.watch(key, entry, session)) {
+			return;
+		}
+
+		List<CacheEntry> removedEntries = new ArrayList<CacheEntry>();
+		synchronized (this) {
+			if (entry.invalidated) {
+				// A model change arrived before the entry was added
+				removedEntries.add(entry);
+			} else {
+				CacheEntry previous = this.entries.put(key, entry);
+				this.usedMemory += memory;
+				if (previous != null) {
+					this.usedMemory -= previous.memory;
+					removedEntries.add(previous);
+				}
+				this.evict(entry, removedEntries);
+			}
+		}
+		removedEntries.forEach(CacheEntry::stopWatching);
+	}
+
+	/**
+	 * Evicts least recently used entries until the memory limit is met
+	 * @param keptEntry Entry that was just added and is never evicted
+	 * @param removedEntries Receives the evicted entries
+	 */
+	private void evict(CacheEntry keptEntry, List<CacheEntry> removedEntries) {
+		Iterator<CacheEntry> iterator = this.entries.values().iterator();
+		while (this.usedMemory > this.maxMemory && iterator.hasNext()) {
+			CacheEntry eldest = iterator.next();
+			if (eldest == keptEntry) {
+				continue;
+			}
+			iterator.remove();
+			this.usedMemory -= eldest.memory;
+			removedEntries.add(eldest);
+		}
+	}
+
+	/**
+	 * Removes a single entry if it is still cached
+	 */
+	private void remove(CacheKey key, CacheEntry entry, String reason) {
+		synchronized (this) {
+			entry.invalidated = true;
+			if (!this.entries.remove(key, entry)) {
+				return;
+			}
+			this.usedMemory -= entry.memory;
+		}
+		logger.info("Dropped cached address space of {}: {}", key.endpointUrl, reason);
+		entry.stopWatching();
+	}
+
+	/**
+	 * Subscribes to GeneralModelChangeEvents of the server object, so that the entry is dropped as soon as the address space changes
+	 * @return true if the entry is watched, false if no subscription could be created
+	 */
+	private boolean watch(CacheKey key, CacheEntry entry, OpcUaSession session) {
+		OpcUaClient client = session.getClient();
+		try {
+			UaSubscription subscription = client.getSubscriptionManager().createSubscription(1000.0).get();
+			entry.session = session;
+			entry.subscription = subscription;
+
+			SimpleAttributeOperand eventTypeOperand = new SimpleAttributeOperand(Identifiers.BaseEventType,
+					new QualifiedName[] { new QualifiedName(0, "EventType") }, AttributeId.Value.uid(), null);
+			ContentFilterElement ofModelChangeType = new ContentFilterElement(FilterOperator.OfType, new ExtensionObject[] {
+					ExtensionObject.encode(client.getStaticSerializationContext(), new LiteralOperand(new Variant(Identifiers.GeneralModelChangeEventType))) });
+			EventFilter eventFilter = new EventFilter(new SimpleAttributeOperand[] { eventTypeOperand },
+					new ContentFilter(new ContentFilterElement[] { ofModelChangeType }));
+
+			ReadValueId readValueId = new ReadValueId(Identifiers.Server, AttributeId.EventNotifier.uid(), null, QualifiedName.NULL_VALUE);
+			MonitoringParameters parameters = new MonitoringParameters(subscription.nextClientHandle(), 0.0,
+					ExtensionObject.encode(client.getStaticSerializationContext(), eventFilter), uint(10), true);
+			MonitoredItemCreateRequest request = new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, parameters);
+
+			List<UaMonitoredItem> items = subscription.createMonitoredItems(TimestampsToReturn.Neither, Arrays.asList(request),
+					(item, id) -> item.setEventConsumer((eventItem, values) -> this.remove(key, entry, "the address space was changed"))).get();
+			if (items.isEmpty() || !items.get(0).getStatusCode().isGood()) {
+				throw new IllegalStateException("Model change events cannot be monitored");
+			}
+		} catch (Exception e) {
+			logger.info("Address space of {} is not cached, changes cannot be watched: {}", key.endpointUrl, e.getMessage());
+			entry.stopWatching();
+			return false;
+		}
+
+		// Without a session or after a failed transfer of the subscription, changes might be missed
+		entry.subscriptionListener = new UaSubscriptionManager.SubscriptionListener() {
+			@Override
+			public void onSubscriptionTransferFailed(UaSubscription subscription, StatusCode statusCode) {
+				if (subscription == entry.subscription) {
+					remove(key, entry, "the model change subscription was lost");
+				}
+			}
+		};
+		client.getSubscriptionManager().addSubscriptionListener(entry.subscriptionListener);
+		entry.closeListener = () -> this.remove(key, entry, "the watching session was closed");
+		session.addCloseListener(entry.closeListener);
+		return true;
+	}
+
+	private CacheKey createKey(OpcUaSession session, BrowseSettings browseSettings) throws Exception {
+		List<DataValue> values = session.getClient().readValues(0.0, TimestampsToReturn.Neither, serverIdentityNodes).get();
+
+		List<Object> components = new ArrayList<Object>();
+		for (DataValue value : values) {
+			if (!value.getStatusCode().isGood()) {
+				throw new IllegalStateException("Reading the server identity failed with " + value.getStatusCode());
+			}
+			Object identityValue = value.getValue().getValue();
+			components.add(identityValue instanceof Object[] ? Arrays.asList((Object[]) identityValue) : identityValue);
+		}
+
+		// Everything that changes the crawled scope
+		components.add(browseSettings.getStartNode());
+		components.add(browseSettings.getStartBrowseName());
+		components.add(browseSettings.getMaxDepth());
+		components.add(browseSettings.getMaxReferencesPerNode());
+		components.add(new TreeSet<String>(browseSettings.getNamespaceUris()));
+		components.add(browseSettings.isHierarchicalReferencesOnly());
+
+		return new CacheKey(session.getEndpointUsed().getEndpointUrl(), components);
+	}
+
+	private static class CacheEntry {
+		final AddressSpaceTree tree;
+		final long memory;
+		OpcUaSession session;
+		UaSubscription subscription;
+		UaSubscriptionManager.SubscriptionListener subscriptionListener;
+		Runnable closeListener;
+		volatile boolean invalidated = false;
+
+		CacheEntry(AddressSpaceTree tree, long memory) {
+			this.tree = tree;
+			this.memory = memory;
+		}
+
+		/**
+		 * Deletes the subscription if its session is still open
+		 */
+		synchronized void stopWatching() {
+			if (this.session == null) {
+				return;
+			}
+			if (this.closeListener != null) {
+				this.session.removeCloseListener(this.closeListener);
+			}
+			if (this.subscriptionListener != null) {
+				this.session.getClient().getSubscriptionManager().removeSubscriptionListener(this.subscriptionListener);
+			}
+			if (this.subscription != null && !this.session.isClosed()) {
+				this.session.getClient().getSubscriptionManager().deleteSubscription(this.subscription.getSubscriptionId());
+			}
+			this.session = null;
+		}
+	}
+
+	private static class CacheKey {
+		final String endpointUrl;
+		final List<Object> components;
+
+		CacheKey(String endpointUrl, List<Object> components) {
+			this.endpointUrl = endpointUrl;
+			this.components = components;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return Objects.equals(this.endpointUrl, other.endpointUrl) && this.components.equals(other.components);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.endpointUrl, this.components);
+		}
+	}
+}
@@ -0,0 +1,393 @@
+package plc2skill.opcua;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.eclipse.milo.opcua.stack.core.util.ConversionUtil.toList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawls the address space of a server breadth-first. Instead of browsing one node after another, many nodes are packed into one Browse request and
+ * several requests are kept in flight at the same time, so that crawl time is no longer dominated by network round trips.
+ * Results are requested in bounded pages. Nodes with more references are continued with BrowseNext and every page is added to the tree as soon as it
+ * arrives.
+ * Only the data needed for resolving nodeIds (browse name, nodeId, parent) is kept in a compact {@link AddressSpaceTree}.
+ * Every node is browsed only once, even if it can be reached on several paths or through reference cycles.
+ * Nodes that fail because the server ran out of continuation points (or lost one) are browsed again and fewer continuation points are used at a
+ * time. If a node still can't be browsed, the tree is marked as incomplete.
+ * The crawl can be limited in depth, to certain namespaces and to hierarchical references (see {@link BrowseSettings}).
+ */
+public class AddressSpaceCrawler {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final OpcUaClient client;
+	private final NamespaceTable nsTable;
+	private final BrowseSettings settings;
+	private final ViewDescription view = new ViewDescription(NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint(0));
+
+	// Nodes whose browse failed with a temporary error are browsed again, up to this number of attempts in total
+	private static final int maxAttempts = 3;
+
+	// State of the running crawl. Only accessed by the crawling thread
+	private int continuationPointLimit;
+	private int continuationPointsInFlight;
+	private int nodesInFlight;
+	private int failedNodes;
+	// Nodes of other namespaces are browsed but not added to the tree. They are remembered here so that they are only browsed once
+	private Set<NodeId> passedNodes;
+
+	public AddressSpaceCrawler(OpcUaClient client, NamespaceTable nsTable, BrowseSettings settings) {
+		this.client = client;
+		this.nsTable = nsTable;
+		this.settings = settings;
+	}
+
+	/**
+	 * Browses all nodes below a given root and adds them to a new tree. Nodes that can't be browsed even after retrying are logged and the tree is
+	 * marked as incomplete
+	 * @param browseRoot NodeId of the node to start browsing from
+	 * @return Tree whose root container holds all children of browseRoot
+	 */
+	public AddressSpaceTree crawl(NodeId browseRoot) {
+		AddressSpaceTree tree = new AddressSpaceTree();
+		tree.setRootNodeId(browseRoot);
+		Set<Integer> allowedNamespaces = this.getAllowedNamespaceIndices();
+		this.continuationPointLimit = this.getContinuationPointLimit();
+		this.continuationPointsInFlight = 0;
+		this.nodesInFlight = 0;
+		this.failedNodes = 0;
+		this.passedNodes = new HashSet<NodeId>();
+
+		// Nodes that still need to be browsed (FIFO -> breadth-first), continuation points of nodes with more pages and responses that arrived but
+		// were not yet processed. Responses are only processed on this thread, so the tree is never modified concurrently
+		Deque<PendingNode> pendingNodes = new ArrayDeque<PendingNode>();
+		Deque<PendingContinuation> pendingContinuations = new ArrayDeque<PendingContinuation>();
+		BlockingQueue<CompletedBrowse> completedBrowses = new LinkedBlockingQueue<CompletedBrowse>();
+		pendingNodes.add(new PendingNode(browseRoot, AddressSpaceTree.ROOT, 0, 0));
+		int requestsInFlight = 0;
+
+		try {
+			while (!pendingNodes.isEmpty() || !pendingContinuations.isEmpty() || requestsInFlight > 0) {
+				// Keep the pipeline filled. Continuation points are sent first as servers only hold a limited number of them per session
+				while (requestsInFlight < this.settings.getMaxRequestsInFlight() && !pendingContinuations.isEmpty()) {
+					List<PendingContinuation> batch = this.takeBatch(pendingContinuations, this.settings.getMaxNodesPerBrowse());
+					this.continuationPointsInFlight += batch.size();
+					this.sendBrowseNext(batch, completedBrowses);
+					requestsInFlight++;
+				}
+				while (requestsInFlight < this.settings.getMaxRequestsInFlight() && !pendingNodes.isEmpty()) {
+					// Every browsed node may get a continuation point, so only as many nodes are sent as continuation points are left
+					int freeContinuationPoints = this.continuationPointLimit - pendingContinuations.size() - this.continuationPointsInFlight
+							- this.nodesInFlight;
+					int batchSize = Math.min(this.settings.getMaxNodesPerBrowse(), freeContinuationPoints);
+					if (batchSize <= 0) {
+						break;
+					}
+					List<PendingNode> batch = this.takeBatch(pendingNodes, batchSize);
+					this.nodesInFlight += batch.size();
+					this.sendBrowse(batch, completedBrowses);
+					requestsInFlight++;
+				}
+
+				CompletedBrowse completedBrowse = completedBrowses.take();
+				requestsInFlight--;
+				if (completedBrowse.continued) {
+					this.continuationPointsInFlight -= completedBrowse.nodes.size();
+				} else {
+					this.nodesInFlight -= completedBrowse.nodes.size();
+				}
+				this.processBrowse(tree, allowedNamespaces, completedBrowse, pendingNodes, pendingContinuations);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.releaseContinuationPoints(pendingContinuations);
+			tree.markIncomplete();
+			logger.error("Browsing was interrupted. The address space tree is incomplete.");
+		}
+
+		if (this.failedNodes > 0) {
+			tree.markIncomplete();
+			logger.error("{} nodes could not be browsed. The address space tree is incomplete and is neither cached nor written to a snapshot.",
+					this.failedNodes);
+		}
+		return tree;
+	}
+
+	private <E> List<E> takeBatch(Deque<E> pendingElements, int maxBatchSize) {
+		int batchSize = Math.min(maxBatchSize, pendingElements.size());
+		List<E> batch = new ArrayList<E>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			batch.add(pendingElements.poll());
+		}
+		return batch;
+	}
+
+	private void sendBrowse(List<PendingNode> batch, BlockingQueue<CompletedBrowse> completedBrowses) {
+		List<BrowseDescription> browseDescriptions = new ArrayList<BrowseDescription>(batch.size());
+		for (PendingNode pendingNode : batch) {
+			browseDescriptions.add(this.createBrowseDescription(pendingNode.nodeId));
+		}
+
+		this.client.browse(this.view, uint(this.settings.getMaxReferencesPerNode()), browseDescriptions)
+			.whenComplete((response, ex) -> completedBrowses.add(
+					new CompletedBrowse(batch, false, response != null ? response.getResults() : null, ex)));
+	}
+
+	private void sendBrowseNext(List<PendingContinuation> batch, BlockingQueue<CompletedBrowse> completedBrowses) {
+		List<ByteString> continuationPoints = new ArrayList<ByteString>(batch.size());
+		List<PendingNode> nodes = new ArrayList<PendingNode>(batch.size());
+		for (PendingContinuation pendingContinuation : batch) {
+			continuationPoints.add(pendingContinuation.continuationPoint);
+			nodes.add(pendingContinuation.node);
+		}
+
+		this.client.browseNext(false, continuationPoints)
+			.whenComplete((response, ex) -> completedBrowses.add(
+					new CompletedBrowse(nodes, true, response != null ? response.getResults() : null, ex)));
+	}
+
+	private BrowseDescription createBrowseDescription(NodeId nodeId) {
+		return new BrowseDescription(
+				nodeId,
+				BrowseDirection.Forward,
+				this.settings.isHierarchicalReferencesOnly() ? Identifiers.HierarchicalReferences : Identifiers.References,
+				true,
+				uint(NodeClass.Object.getValue() | NodeClass.Variable.getValue()),
+				uint(BrowseResultMask.All.getValue())
+		);
+	}
+
+	private void processBrowse(AddressSpaceTree tree, Set<Integer> allowedNamespaces, CompletedBrowse completedBrowse, Deque<PendingNode> pendingNodes, Deque<PendingContinuation> pendingContinuations) {
+		if (completedBrowse.exception != null) {
+			logger.warn("Browsing {} nodes failed: {}", completedBrowse.nodes.size(), completedBrowse.exception.getMessage());
+			for (PendingNode node : completedBrowse.nodes) {
+				this.retry(tree, node, pendingNodes);
+			}
+			return;
+		}
+
+		for (int i = 0; i < completedBrowse.results.length; i++) {
+			BrowseResult browseResult = completedBrowse.results[i];
+			PendingNode node = completedBrowse.nodes.get(i);
+
+			StatusCode statusCode = browseResult.getStatusCode();
+			if (statusCode.isBad()) {
+				if (statusCode.getValue() == StatusCodes.Bad_NoContinuationPoints) {
+					this.lowerContinuationPointLimit(pendingContinuations.size());
+				}
+				if (statusCode.getValue() == StatusCodes.Bad_NoContinuationPoints || statusCode.getValue() == StatusCodes.Bad_ContinuationPointInvalid) {
+					// The node is browsed again from its first page. References that were already added are recognized by their nodeId
+					this.retry(tree, node, pendingNodes);
+				} else {
+					this.failedNodes++;
+					logger.error("Browsing below {} failed: {}", this.getBrowseName(tree, node.treeNode), statusCode);
+				}
+				continue;
+			}
+
+			this.addReferences(tree, allowedNamespaces, node.treeNode, node.depth, toList(browseResult.getReferences()), pendingNodes);
+
+			// More references than fit into one page: Continue browsing this node
+			ByteString continuationPoint = browseResult.getContinuationPoint();
+			if (continuationPoint != null && !continuationPoint.isNull()) {
+				pendingContinuations.add(new PendingContinuation(continuationPoint, node));
+			}
+		}
+	}
+
+	/**
+	 * Queues a node that failed to be browsed again, unless it already failed too often
+	 */
+	private void retry(AddressSpaceTree tree, PendingNode node, Deque<PendingNode> pendingNodes) {
+		if (node.attempts + 1 >= maxAttempts) {
+			this.failedNodes++;
+			logger.error("Browsing below {} failed {} times, giving up", this.getBrowseName(tree, node.treeNode), maxAttempts);
+			return;
+		}
+		pendingNodes.add(new PendingNode(node.nodeId, node.treeNode, node.depth, node.attempts + 1));
+	}
+
+	/**
+	 * The server ran out of continuation points for this session. From now on, at most as many as are currently held are used
+	 */
+	private void lowerContinuationPointLimit(int heldContinuationPoints) {
+		int limit = Math.max(1, heldContinuationPoints + this.continuationPointsInFlight);
+		if (limit < this.continuationPointLimit) {
+			logger.info("The server has no continuation points left, using at most {} at a time", limit);
+			this.continuationPointLimit = limit;
+		}
+	}
+
+	/**
+	 * Determines how many continuation points may be held at a time. Unless set in the browse settings, the server's MaxBrowseContinuationPoints
+	 * capability is used
+	 * @return Maximum number of continuation points, Integer.MAX_VALUE if there is no limit
+	 */
+	private int getContinuationPointLimit() {
+		if (this.settings.getMaxContinuationPoints() > 0) {
+			return this.settings.getMaxContinuationPoints();
+		}
+
+		try {
+			DataValue value = this.client.readValue(0.0, TimestampsToReturn.Neither, Identifiers.Server_ServerCapabilities_MaxBrowseContinuationPoints)
+					.get();
+			Object limit = value.getValue().getValue();
+			if (value.getStatusCode().isGood() && limit instanceof UShort && ((UShort) limit).intValue() > 0) {
+				return ((UShort) limit).intValue();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.debug("MaxBrowseContinuationPoints could not be read: {}", e.getMessage());
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	private void addReferences(AddressSpaceTree tree, Set<Integer> allowedNamespaces, int parent, int parentDepth, List<ReferenceDescription> references,
+			Deque<PendingNode> pendingNodes) {
+		int depth = parentDepth + 1;
+		for (ReferenceDescription reference : references) {
+			// Only browse name and nodeId are kept. References to other servers cannot be stored and browsed locally
+			Optional<NodeId> nodeId = reference.getNodeId().toNodeId(this.nsTable);
+			if (!nodeId.isPresent()) {
+				logger.debug("Skipping reference to {} as it cannot be resolved locally", reference.getNodeId());
+				continue;
+			}
+			// Nodes of other namespaces are not added, but still browsed as the allowed nodes may be below them (e.g. a CODESYS application below
+			// the DeviceSet). Their children are added to the closest ancestor that is in the tree
+			if (allowedNamespaces != null && !allowedNamespaces.contains(nodeId.get().getNamespaceIndex().intValue())) {
+				if (depth < this.settings.getMaxDepth() && this.passedNodes.add(nodeId.get())) {
+					pendingNodes.add(new PendingNode(nodeId.get(), parent, depth, 0));
+				}
+				continue;
+			}
+
+			// Nodes that were already reached on another path are not browsed again. The additional parent is kept for matching ancestors
+			int existingNode = tree.indexOf(nodeId.get());
+			if (existingNode != AddressSpaceTree.NONE) {
+				if (existingNode != AddressSpaceTree.ROOT) {
+					tree.addParent(existingNode, parent);
+				}
+				continue;
+			}
+
+			// All new children need to be browsed as well, unless the maximum depth is reached
+			int child = tree.addNode(parent, reference.getBrowseName().getName(), nodeId.get());
+			if (depth < this.settings.getMaxDepth()) {
+				pendingNodes.add(new PendingNode(nodeId.get(), child, depth, 0));
+			}
+		}
+	}
+
+	/**
+	 * Converts the allowed namespace URIs to indices of this server
+	 * @return Indices of all allowed namespaces or null if all namespaces are allowed
+	 */
+	private Set<Integer> getAllowedNamespaceIndices() {
+		if (this.settings.getNamespaceUris().isEmpty()) {
+			return null;
+		}
+
+		Set<Integer> allowedNamespaces = new HashSet<Integer>();
+		for (String namespaceUri : this.settings.getNamespaceUris()) {
+			UShort namespaceIndex = this.nsTable.getIndex(namespaceUri);
+			if (namespaceIndex != null) {
+				allowedNamespaces.add(namespaceIndex.intValue());
+			} else {
+				logger.warn("Namespace {} is not known to the server and is ignored", namespaceUri);
+			}
+		}
+		return allowedNamespaces;
+	}
+
+	/**
+	 * Continuation points hold resources on the server. If browsing is aborted, they have to be released explicitly
+	 */
+	private void releaseContinuationPoints(Deque<PendingContinuation> pendingContinuations) {
+		if (pendingContinuations.isEmpty()) {
+			return;
+		}
+
+		List<ByteString> continuationPoints = new ArrayList<ByteString>(pendingContinuations.size());
+		for (PendingContinuation pendingContinuation : pendingContinuations) {
+			continuationPoints.add(pendingContinuation.continuationPoint);
+		}
+		this.client.browseNext(true, continuationPoints);
+		pendingContinuations.clear();
+	}
+
+	private String getBrowseName(AddressSpaceTree tree, int treeNode) {
+		if (tree.isRoot(treeNode)) {
+			return "browse root";
+		}
+		return tree.getBrowseName(treeNode);
+	}
+
+	private static class PendingNode {
+		final NodeId nodeId;
+		final int treeNode;
+		final int depth;
+		final int attempts;	// Number of failed attempts to browse this node
+
+		PendingNode(NodeId nodeId, int treeNode, int depth, int attempts) {
+			this.nodeId = nodeId;
+			this.treeNode = treeNode;
+			this.depth = depth;
+			this.attempts = attempts;
+		}
+	}
+
+	private static class PendingContinuation {
+		final ByteString continuationPoint;
+		final PendingNode node;
+
+		PendingContinuation(ByteString continuationPoint, PendingNode node) {
+			this.continuationPoint = continuationPoint;
+			this.node = node;
+		}
+	}
+
+	private static class CompletedBrowse {
+		final List<PendingNode> nodes;
+		final boolean continued;	// true for BrowseNext, false for Browse
+		final BrowseResult[] results;
+		final Throwable exception;
+
+		CompletedBrowse(List<PendingNode> nodes, boolean continued, BrowseResult[] results, Throwable exception) {
+			this.nodes = nodes;
+			this.continued = continued;
+			this.results = results;
+			this.exception = exception;
+		}
+	}
+}
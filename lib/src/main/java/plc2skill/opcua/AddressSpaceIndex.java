@@ -0,0 +1,185 @@
+package plc2skill.opcua;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Index over a browsed address space that is built once and then used for all nodeId lookups. The first level maps browse names to all nodes with
+ * that name. Further levels form a reversed-path trie (variable -> POU -> program) that is expanded lazily, level by level, only where a browse name
+ * is ambiguous. A lookup therefore takes time proportional to the length of the path and not to the size of the server.
+ */
+public class AddressSpaceIndex {
+
+	private final AddressSpaceTree tree;
+	private final Map<String, TrieNode> nodesByBrowseName = new HashMap<String, TrieNode>();
+
+	public AddressSpaceIndex(AddressSpaceTree tree) {
+		this(tree, null, false);
+	}
+
+	/**
+	 * Creates an index that only contains nodes with the given browse names. Useful if the index is only built for one batch of lookups
+	 * @param tree Address space to index
+	 * @param browseNames Browse names of the nodes to index (i.e. the local var names). If null, all nodes are indexed
+	 * @param parallel Scan the address space in parallel
+	 */
+	public AddressSpaceIndex(AddressSpaceTree tree, Set<String> browseNames, boolean parallel) {
+		this.tree = tree;
+
+		if (!parallel) {
+			for (int node = AddressSpaceTree.ROOT + 1; node < tree.size(); node++) {
+				String browseName = tree.getBrowseName(node);
+				if (browseNames == null || browseNames.contains(browseName)) {
+					this.nodesByBrowseName.computeIfAbsent(browseName, name -> new TrieNode()).add(node, node);
+				}
+			}
+			return;
+		}
+
+		// Collect per browse name in parallel and only create the trie roots afterwards, so that no shared state is modified concurrently
+		Map<String, List<Integer>> nodesByName = IntStream.range(AddressSpaceTree.ROOT + 1, tree.size()).parallel()
+				.filter(node -> browseNames == null || browseNames.contains(tree.getBrowseName(node)))
+				.boxed()
+				.collect(Collectors.groupingBy(tree::getBrowseName));
+		nodesByName.forEach((browseName, matchingNodes) -> {
+			TrieNode trieNode = new TrieNode();
+			for (int node : matchingNodes) {
+				trieNode.add(node, node);
+			}
+			this.nodesByBrowseName.put(browseName, trieNode);
+		});
+	}
+
+	/**
+	 * Finds all nodes matching a path of browse names
+	 * @param reversedPathElements Browse names starting with the local var name, followed by its parents (POUs)
+	 * @return The nodes that remain after comparing as many ancestors as needed. Empty if the local var name is unknown
+	 */
+	public List<AddressSpaceNode> findMatches(List<String> reversedPathElements) {
+		int[] matches = this.findMatchIndices(reversedPathElements);
+		List<AddressSpaceNode> matchingNodes = new ArrayList<AddressSpaceNode>(matches.length);
+		for (int match : matches) {
+			matchingNodes.add(this.tree.getNode(match));
+		}
+		return matchingNodes;
+	}
+
+	private int[] findMatchIndices(List<String> reversedPathElements) {
+		TrieNode trieNode = this.nodesByBrowseName.get(reversedPathElements.get(0));
+		if (trieNode == null) {
+			return new int[0];
+		}
+
+		// Only compare further ancestors as long as there are multiple matches
+		int level = 0;
+		while (trieNode.size() > 1 && level < reversedPathElements.size() - 1) {
+			level++;
+			trieNode = trieNode.getChild(this.tree, reversedPathElements.get(level));
+		}
+
+		return trieNode.getLeaves();
+	}
+
+	/**
+	 * Finds the nodeId of a node that is uniquely identified by a path of browse names
+	 * @param reversedPathElements Browse names starting with the local var name, followed by its parents (POUs)
+	 * @return
+	 * @throws NodeIdResolvingException If there is no match or if there are multiple matches
+	 */
+	public NodeId findNodeId(List<String> reversedPathElements) throws NodeIdResolvingException {
+		if (!this.nodesByBrowseName.containsKey(reversedPathElements.get(0))) {
+			List<String> pathElements = new ArrayList<String>(reversedPathElements);
+			Collections.reverse(pathElements);
+			throw new NodeIdResolvingException(String.join(".", pathElements));
+		}
+
+		int[] matches = this.findMatchIndices(reversedPathElements);
+		String unresolvedNodeId = String.join(".", reversedPathElements);
+
+		if (matches.length == 0) {
+			throw new NodeIdResolvingException("No matches for the unresolved nodeId " + unresolvedNodeId + ". Please resolve this nodeId manually");
+		}
+
+		// Browsing can return multiple referenceDescriptions to one node. In the end, we need to return one nodeId -> matches need to be made unique
+		Set<NodeId> matchingNodeIds = new LinkedHashSet<NodeId>();
+		for (int match : matches) {
+			matchingNodeIds.add(this.tree.getNodeId(match));
+		}
+
+		// There should be exactly one correct match. If there are more or none, we can only throw an error
+		if (matchingNodeIds.size() > 1) {
+			throw new NodeIdResolvingException(
+					"There are '" + matchingNodeIds.size() + "' matches for the unresolved nodeId " + unresolvedNodeId + ". Please resolve this nodeId manually");
+		}
+
+		return matchingNodeIds.iterator().next();
+	}
+
+	/**
+	 * One level of the reversed-path trie. Stores all leaves (nodes with the local var name) whose ancestors match the path up to this level, together
+	 * with the ancestor reached at this level
+	 */
+	private static class TrieNode {
+		private int[] leaves = new int[4];
+		private int[] ancestors = new int[4];
+		private int size = 0;
+		private int distinctLeaves = -1;
+		private Map<String, TrieNode> children;
+
+		void add(int leaf, int ancestor) {
+			if (this.size == this.leaves.length) {
+				this.leaves = Arrays.copyOf(this.leaves, this.size * 2);
+				this.ancestors = Arrays.copyOf(this.ancestors, this.size * 2);
+			}
+			this.leaves[this.size] = leaf;
+			this.ancestors[this.size] = ancestor;
+			this.size++;
+			this.distinctLeaves = -1;
+		}
+
+		/**
+		 * @return Number of distinct leaves. A leaf can be contained several times if it is reachable on different paths
+		 */
+		int size() {
+			if (this.distinctLeaves < 0) {
+				this.distinctLeaves = (int) Arrays.stream(this.leaves, 0, this.size).distinct().count();
+			}
+			return this.distinctLeaves;
+		}
+
+		int[] getLeaves() {
+			return Arrays.stream(this.leaves, 0, this.size).distinct().toArray();
+		}
+
+		/**
+		 * Returns the next trie level for a given parent name. All children of this level are created on first access. Ancestors with several parents
+		 * are continued on every parent
+		 */
+		synchronized TrieNode getChild(AddressSpaceTree tree, String parentBrowseName) {
+			if (this.children == null) {
+				this.children = new HashMap<String, TrieNode>();
+				for (int i = 0; i < this.size; i++) {
+					for (int parent : tree.getParents(this.ancestors[i])) {
+						if (tree.isRoot(parent)) {
+							continue;
+						}
+						this.children.computeIfAbsent(tree.getBrowseName(parent), name -> new TrieNode()).add(this.leaves[i], parent);
+					}
+				}
+			}
+
+			TrieNode child = this.children.get(parentBrowseName);
+			return child != null ? child : new TrieNode();
+		}
+	}
+}
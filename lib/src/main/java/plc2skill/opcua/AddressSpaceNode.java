@@ -0,0 +1,97 @@
+package plc2skill.opcua;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Read-only view on one node of an {@link AddressSpaceTree}. Views are cheap and created on demand, all data stays inside the tree
+ */
+public class AddressSpaceNode {
+
+	private final AddressSpaceTree tree;
+	private final int index;
+
+	AddressSpaceNode(AddressSpaceTree tree, int index) {
+		this.tree = tree;
+		this.index = index;
+	}
+
+	public int getIndex() {
+		return this.index;
+	}
+
+	public String getBrowseName() {
+		return this.tree.getBrowseName(this.index);
+	}
+
+	public NodeId getNodeId() {
+		return this.tree.getNodeId(this.index);
+	}
+
+	public AddressSpaceNode getParent() {
+		int parent = this.tree.getParent(this.index);
+		return parent == AddressSpaceTree.NONE ? null : this.tree.getNode(parent);
+	}
+
+	/**
+	 * Returns all parents of this node. Nodes that were reached on several paths have more than one parent
+	 * @return The parent in the tree structure, followed by all additional parents
+	 */
+	public List<AddressSpaceNode> getParents() {
+		List<AddressSpaceNode> parents = new ArrayList<AddressSpaceNode>();
+		for (int parent : this.tree.getParents(this.index)) {
+			parents.add(this.tree.getNode(parent));
+		}
+		return parents;
+	}
+
+	/**
+	 * Returns an ancestor of a given depth
+	 * @param level Level of ancestry. 0: element, 1: parent, 2: grandparent etc.
+	 * @return The ancestor or null if the tree is not deep enough
+	 */
+	public AddressSpaceNode getAncestor(int level) {
+		int ancestor = this.index;
+		for (int i = 1; i <= level && ancestor != AddressSpaceTree.NONE; i++) {
+			ancestor = this.tree.getParent(ancestor);
+		}
+		return ancestor == AddressSpaceTree.NONE ? null : this.tree.getNode(ancestor);
+	}
+
+	public List<AddressSpaceNode> getChildren() {
+		List<AddressSpaceNode> children = new ArrayList<AddressSpaceNode>();
+		for (int child = this.tree.getFirstChild(this.index); child != AddressSpaceTree.NONE; child = this.tree.getNextSibling(child)) {
+			children.add(this.tree.getNode(child));
+		}
+		return children;
+	}
+
+	public boolean isLeaf() {
+		return this.tree.getFirstChild(this.index) == AddressSpaceTree.NONE;
+	}
+
+	public boolean isRoot() {
+		return this.tree.isRoot(this.index);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof AddressSpaceNode)) {
+			return false;
+		}
+		AddressSpaceNode other = (AddressSpaceNode) obj;
+		return this.tree == other.tree && this.index == other.index;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.index;
+	}
+
+	@Override
+	public String toString() {
+		return this.isRoot() ? "root" : this.getBrowseName() + " (" + this.getNodeId() + ")";
+	}
+}
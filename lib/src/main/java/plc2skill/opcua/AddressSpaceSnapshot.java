@@ -0,0 +1,592 @@
+package plc2skill.opcua;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.eclipse.milo.opcua.stack.core.Stack;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.UserTokenType;
+import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.UserTokenPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary snapshot of a crawled address space that is used to resolve nodeIds without a connection to the server. The file is memory-mapped and all
+ * lookups read directly from the mapping, so opening even a large snapshot is cheap and nodes are never copied onto the heap.
+ * <p>
+ * File layout (big endian): A fixed header with section offsets, followed by
+ * <ul>
+ * <li>nodes: parent, browse name string id, first extra parent edge, namespace index, identifier type and identifier (numeric value or string id)</li>
+ * <li>edges: extra parents of nodes that are reachable on several paths as linked lists (parent, next edge)</li>
+ * <li>postings: all nodes grouped by browse name, with one start offset per string id</li>
+ * <li>name table: open addressing hash table from browse name to string id</li>
+ * <li>string table: offsets and UTF-8 data of all browse names and non-numeric identifiers</li>
+ * <li>metadata: the endpoint the snapshot was captured from and the namespace array</li>
+ * </ul>
+ * The namespace indices of the stored nodeIds refer to the stored namespace array. Resolved nodeIds whose namespace index is outside of it are
+ * reported, as the snapshot then doesn't match the server it was captured from.
+ */
+public class AddressSpaceSnapshot implements NodeIdResolver {
+
+	private static final int MAGIC = 0x50325353;	// "P2SS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int NODE_SIZE = 20;
+	private static final int EDGE_SIZE = 8;
+	private static final int NONE = AddressSpaceTree.NONE;
+
+	private static final byte NUMERIC_ID = 0;
+	private static final byte STRING_ID = 1;
+	private static final byte GUID_ID = 2;
+	private static final byte OPAQUE_ID = 3;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final ByteBuffer buffer;
+	private final int nodeCount;
+	private final int stringCount;
+	private final int nameTableSlots;
+	private final int nodesOffset;
+	private final int edgesOffset;
+	private final int postingsIndexOffset;
+	private final int postingsOffset;
+	private final int nameTableOffset;
+	private final int stringOffsetsOffset;
+	private final int stringDataOffset;
+
+	private final EndpointDescription endpointDescription;
+	private final List<String> namespaceUris;
+
+	private AddressSpaceSnapshot(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an address space snapshot");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported address space snapshot version " + buffer.getInt(4));
+		}
+		this.nodeCount = buffer.getInt(8);
+		this.stringCount = buffer.getInt(16);
+		this.nameTableSlots = buffer.getInt(20);
+		this.nodesOffset = buffer.getInt(24);
+		this.edgesOffset = buffer.getInt(28);
+		this.postingsIndexOffset = buffer.getInt(32);
+		this.postingsOffset = buffer.getInt(36);
+		this.nameTableOffset = buffer.getInt(40);
+		this.stringOffsetsOffset = buffer.getInt(44);
+		this.stringDataOffset = buffer.getInt(48);
+
+		// Metadata is small and read once
+		ByteBuffer metadata = buffer.duplicate();
+		metadata.position(buffer.getInt(52));
+		DataInputStream metadataInput = new DataInputStream(new ByteBufferInputStream(metadata));
+		this.endpointDescription = readEndpoint(metadataInput);
+		int namespaceCount = metadataInput.readInt();
+		List<String> namespaces = new ArrayList<String>(namespaceCount);
+		for (int i = 0; i < namespaceCount; i++) {
+			namespaces.add(metadataInput.readUTF());
+		}
+		this.namespaceUris = Collections.unmodifiableList(namespaces);
+	}
+
+	/**
+	 * Opens a snapshot file by memory-mapping it. Nodes are read from the mapping on demand
+	 * @param file Snapshot file written by {@link #write(AddressSpaceTree, String[], EndpointDescription, Path)}
+	 * @return
+	 * @throws IOException If the file cannot be read or is no snapshot
+	 */
+	public static AddressSpaceSnapshot open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new AddressSpaceSnapshot(mapping);
+		}
+	}
+
+	/**
+	 * Writes a crawled address space to a snapshot file
+	 * @param tree Crawled address space
+	 * @param namespaceUris Namespace array of the server, needed to interpret the namespace indices of the nodeIds
+	 * @param endpointDescription Endpoint the address space was crawled from. May be null
+	 * @param file File to write
+	 * @throws IOException If the file cannot be written or the address space is incomplete
+	 */
+	public static void write(AddressSpaceTree tree, String[] namespaceUris, EndpointDescription endpointDescription, Path file) throws IOException {
+		if (!tree.isComplete()) {
+			throw new IOException("The address space is incomplete as some nodes could not be browsed, no snapshot is written");
+		}
+		int nodeCount = tree.size();
+
+		// String table: Browse names first, so that all ids below browseNameCount are browse names
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		int[] browseNameIds = new int[nodeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			String browseName = tree.getBrowseName(node);
+			browseNameIds[node] = (browseName == null) ? NONE : intern(strings, browseName);
+		}
+		int browseNameCount = strings.size();
+
+		// Nodes and extra parent edges
+		ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream(nodeCount * NODE_SIZE);
+		DataOutputStream nodes = new DataOutputStream(nodeBytes);
+		ByteArrayOutputStream edgeBytes = new ByteArrayOutputStream();
+		DataOutputStream edges = new DataOutputStream(edgeBytes);
+		int edgeCount = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			int[] parents = tree.getParents(node);
+			int firstEdge = NONE;
+			for (int i = parents.length - 1; i >= 1; i--) {
+				edges.writeInt(parents[i]);
+				edges.writeInt(firstEdge);
+				firstEdge = edgeCount++;
+			}
+
+			NodeId nodeId = tree.getNodeId(node);
+			nodes.writeInt(tree.getParent(node));
+			nodes.writeInt(browseNameIds[node]);
+			nodes.writeInt(firstEdge);
+			if (nodeId == null) {
+				nodes.writeShort(0);
+				nodes.writeByte(NUMERIC_ID);
+				nodes.writeByte(0);
+				nodes.writeInt(0);
+				continue;
+			}
+			Object identifier = nodeId.getIdentifier();
+			nodes.writeShort(nodeId.getNamespaceIndex().intValue());
+			if (identifier instanceof UInteger) {
+				nodes.writeByte(NUMERIC_ID);
+				nodes.writeByte(0);
+				nodes.writeInt(((UInteger) identifier).intValue());
+			} else if (identifier instanceof UUID) {
+				nodes.writeByte(GUID_ID);
+				nodes.writeByte(0);
+				nodes.writeInt(intern(strings, identifier.toString()));
+			} else if (identifier instanceof ByteString) {
+				nodes.writeByte(OPAQUE_ID);
+				nodes.writeByte(0);
+				nodes.writeInt(intern(strings, Base64.getEncoder().encodeToString(((ByteString) identifier).bytesOrEmpty())));
+			} else {
+				nodes.writeByte(STRING_ID);
+				nodes.writeByte(0);
+				nodes.writeInt(intern(strings, identifier.toString()));
+			}
+		}
+		int stringCount = strings.size();
+
+		// Postings: Nodes grouped by browse name (counting sort on the string id)
+		int[] postingStarts = new int[stringCount + 1];
+		for (int node = 0; node < nodeCount; node++) {
+			if (browseNameIds[node] != NONE) {
+				postingStarts[browseNameIds[node] + 1]++;
+			}
+		}
+		for (int i = 0; i < stringCount; i++) {
+			postingStarts[i + 1] += postingStarts[i];
+		}
+		int[] postings = new int[postingStarts[stringCount]];
+		int[] fill = Arrays.copyOf(postingStarts, stringCount);
+		for (int node = 0; node < nodeCount; node++) {
+			if (browseNameIds[node] != NONE) {
+				postings[fill[browseNameIds[node]]++] = node;
+			}
+		}
+
+		// Name table over all browse names. Slots contain string id + 1, 0 marks an empty slot
+		List<byte[]> encodedStrings = new ArrayList<byte[]>(stringCount);
+		for (String string : strings.keySet()) {
+			encodedStrings.add(string.getBytes(StandardCharsets.UTF_8));
+		}
+		int nameTableSlots = Integer.highestOneBit(Math.max(browseNameCount, 1) * 2) * 2;
+		int[] nameTable = new int[nameTableSlots];
+		for (int stringId = 0; stringId < browseNameCount; stringId++) {
+			int slot = hash(encodedStrings.get(stringId)) & (nameTableSlots - 1);
+			while (nameTable[slot] != 0) {
+				slot = (slot + 1) & (nameTableSlots - 1);
+			}
+			nameTable[slot] = stringId + 1;
+		}
+
+		// Section offsets
+		int nodesOffset = HEADER_SIZE;
+		int edgesOffset = nodesOffset + nodeBytes.size();
+		int postingsIndexOffset = edgesOffset + edgeBytes.size();
+		int postingsOffset = postingsIndexOffset + (stringCount + 1) * 4;
+		int nameTableOffset = postingsOffset + postings.length * 4;
+		int stringOffsetsOffset = nameTableOffset + nameTableSlots * 4;
+		int stringDataOffset = stringOffsetsOffset + (stringCount + 1) * 4;
+		int stringDataSize = 0;
+		for (byte[] encodedString : encodedStrings) {
+			stringDataSize += encodedString.length;
+		}
+		int metadataOffset = stringDataOffset + stringDataSize;
+
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(nodeCount);
+			output.writeInt(edgeCount);
+			output.writeInt(stringCount);
+			output.writeInt(nameTableSlots);
+			output.writeInt(nodesOffset);
+			output.writeInt(edgesOffset);
+			output.writeInt(postingsIndexOffset);
+			output.writeInt(postingsOffset);
+			output.writeInt(nameTableOffset);
+			output.writeInt(stringOffsetsOffset);
+			output.writeInt(stringDataOffset);
+			output.writeInt(metadataOffset);
+			output.write(new byte[HEADER_SIZE - 56]);
+
+			nodeBytes.writeTo(output);
+			edgeBytes.writeTo(output);
+			for (int postingStart : postingStarts) {
+				output.writeInt(postingStart);
+			}
+			for (int posting : postings) {
+				output.writeInt(posting);
+			}
+			for (int slot : nameTable) {
+				output.writeInt(slot);
+			}
+			int stringOffset = 0;
+			for (byte[] encodedString : encodedStrings) {
+				output.writeInt(stringOffset);
+				stringOffset += encodedString.length;
+			}
+			output.writeInt(stringOffset);
+			for (byte[] encodedString : encodedStrings) {
+				output.write(encodedString);
+			}
+
+			writeEndpoint(output, endpointDescription);
+			String[] namespaces = (namespaceUris != null) ? namespaceUris : new String[0];
+			output.writeInt(namespaces.length);
+			for (String namespaceUri : namespaces) {
+				output.writeUTF(namespaceUri != null ? namespaceUri : "");
+			}
+		}
+	}
+
+	private static int intern(Map<String, Integer> strings, String string) {
+		Integer stringId = strings.get(string);
+		if (stringId == null) {
+			stringId = strings.size();
+			strings.put(string, stringId);
+		}
+		return stringId;
+	}
+
+	private static int hash(byte[] bytes) {
+		int h = Arrays.hashCode(bytes);
+		return h ^ (h >>> 16);
+	}
+
+	private static void writeEndpoint(DataOutputStream output, EndpointDescription endpointDescription) throws IOException {
+		output.writeBoolean(endpointDescription != null);
+		if (endpointDescription == null) {
+			return;
+		}
+		output.writeUTF(endpointDescription.getEndpointUrl());
+		output.writeUTF(endpointDescription.getSecurityMode().name());
+		output.writeUTF(endpointDescription.getSecurityPolicyUri());
+		UserTokenPolicy[] userTokenPolicies = endpointDescription.getUserIdentityTokens();
+		output.writeInt(userTokenPolicies.length);
+		for (UserTokenPolicy userTokenPolicy : userTokenPolicies) {
+			output.writeUTF(userTokenPolicy.getTokenType().name());
+		}
+	}
+
+	private static EndpointDescription readEndpoint(DataInputStream input) throws IOException {
+		if (!input.readBoolean()) {
+			return null;
+		}
+		String endpointUrl = input.readUTF();
+		MessageSecurityMode securityMode = MessageSecurityMode.valueOf(input.readUTF());
+		String securityPolicyUri = input.readUTF();
+		UserTokenPolicy[] userTokenPolicies = new UserTokenPolicy[input.readInt()];
+		for (int i = 0; i < userTokenPolicies.length; i++) {
+			UserTokenType tokenType = UserTokenType.valueOf(input.readUTF());
+			userTokenPolicies[i] = new UserTokenPolicy(tokenType.name(), tokenType, null, null, null);
+		}
+		return new EndpointDescription(endpointUrl, null, ByteString.NULL_VALUE, securityMode, securityPolicyUri, userTokenPolicies,
+				Stack.TCP_UASC_UABINARY_TRANSPORT_URI, ubyte(0));
+	}
+
+	/**
+	 * @return The endpoint the snapshot was captured from or null if it is unknown
+	 */
+	public EndpointDescription getEndpointDescription() {
+		return endpointDescription;
+	}
+
+	/**
+	 * @return The namespace array of the server at the time the snapshot was captured
+	 */
+	public List<String> getNamespaceUris() {
+		return namespaceUris;
+	}
+
+	/**
+	 * @return Number of nodes including the root container
+	 */
+	public int size() {
+		return this.nodeCount;
+	}
+
+	/**
+	 * Resolves a batch of incomplete nodeIds against the snapshot
+	 */
+	@Override
+	public NodeIdResolution findNodeIds(Collection<String> incompleteNodeIds) {
+		NodeIdResolution resolution = new NodeIdResolution();
+		for (String incompleteNodeId : incompleteNodeIds) {
+			List<String> nodeIdElements = new ArrayList<String>(OpcUaBrowser.getPathElements(incompleteNodeId));
+			if (nodeIdElements.isEmpty()) {
+				resolution.addError(incompleteNodeId, new NodeIdResolvingException(incompleteNodeId).getMessage());
+				continue;
+			}
+			Collections.reverse(nodeIdElements);
+			try {
+				resolution.addResolved(incompleteNodeId, this.findNodeId(nodeIdElements));
+			} catch (NodeIdResolvingException e) {
+				resolution.addError(incompleteNodeId, e.getMessage());
+			}
+		}
+		return resolution;
+	}
+
+	/**
+	 * Finds the nodeId of a node that is uniquely identified by a path of browse names. Works like {@link AddressSpaceIndex#findNodeId(List)}:
+	 * Ancestors are only compared as long as there are several matches
+	 * @param reversedPathElements Browse names starting with the local var name, followed by its parents (POUs)
+	 * @return
+	 * @throws NodeIdResolvingException If there is no match or if there are multiple matches
+	 */
+	public NodeId findNodeId(List<String> reversedPathElements) throws NodeIdResolvingException {
+		int browseNameId = this.findBrowseNameId(reversedPathElements.get(0));
+		if (browseNameId == NONE) {
+			List<String> pathElements = new ArrayList<String>(reversedPathElements);
+			Collections.reverse(pathElements);
+			throw new NodeIdResolvingException(String.join(".", pathElements));
+		}
+
+		// Pairs of leaf (node with the local var name) and the ancestor reached at the current level
+		int start = this.buffer.getInt(this.postingsIndexOffset + browseNameId * 4);
+		int end = this.buffer.getInt(this.postingsIndexOffset + (browseNameId + 1) * 4);
+		int[] leaves = new int[end - start];
+		for (int i = 0; i < leaves.length; i++) {
+			leaves[i] = this.buffer.getInt(this.postingsOffset + (start + i) * 4);
+		}
+		int[] ancestors = leaves.clone();
+
+		int level = 0;
+		while (distinctCount(leaves) > 1 && level < reversedPathElements.size() - 1) {
+			level++;
+			int parentNameId = this.findBrowseNameId(reversedPathElements.get(level));
+			int[] nextLeaves = new int[leaves.length];
+			int[] nextAncestors = new int[leaves.length];
+			int size = 0;
+			for (int i = 0; i < leaves.length && parentNameId != NONE; i++) {
+				for (int parent : this.getParents(ancestors[i])) {
+					if (this.getParent(parent) == NONE || this.getBrowseNameId(parent) != parentNameId) {
+						continue;
+					}
+					if (size == nextLeaves.length) {
+						nextLeaves = Arrays.copyOf(nextLeaves, size * 2 + 1);
+						nextAncestors = Arrays.copyOf(nextAncestors, size * 2 + 1);
+					}
+					nextLeaves[size] = leaves[i];
+					nextAncestors[size] = parent;
+					size++;
+				}
+			}
+			leaves = Arrays.copyOf(nextLeaves, size);
+			ancestors = Arrays.copyOf(nextAncestors, size);
+		}
+
+		String unresolvedNodeId = String.join(".", reversedPathElements);
+		if (leaves.length == 0) {
+			throw new NodeIdResolvingException("No matches for the unresolved nodeId " + unresolvedNodeId + ". Please resolve this nodeId manually");
+		}
+
+		Set<NodeId> matchingNodeIds = new LinkedHashSet<NodeId>();
+		for (int leaf : leaves) {
+			matchingNodeIds.add(this.getNodeId(leaf));
+		}
+		if (matchingNodeIds.size() > 1) {
+			throw new NodeIdResolvingException(
+					"There are '" + matchingNodeIds.size() + "' matches for the unresolved nodeId " + unresolvedNodeId + ". Please resolve this nodeId manually");
+		}
+		NodeId nodeId = matchingNodeIds.iterator().next();
+		this.checkNamespaceIndex(nodeId);
+		return nodeId;
+	}
+
+	/**
+	 * Warns if the namespace index of a resolved nodeId is not contained in the namespace array of the snapshot
+	 */
+	private void checkNamespaceIndex(NodeId nodeId) {
+		int namespaceIndex = nodeId.getNamespaceIndex().intValue();
+		if (!this.namespaceUris.isEmpty() && namespaceIndex >= this.namespaceUris.size()) {
+			logger.warn("NodeId {} uses namespace index {}, but the namespace array of the snapshot only has {} entries. The snapshot might not match the server",
+					nodeId.toParseableString(), namespaceIndex, this.namespaceUris.size());
+		}
+	}
+
+	private static int distinctCount(int[] nodes) {
+		return (int) Arrays.stream(nodes).distinct().count();
+	}
+
+	/**
+	 * Looks up the string id of a browse name in the name table. Strings are compared on their UTF-8 bytes inside the mapping
+	 * @return The string id or NONE if no node has this browse name
+	 */
+	int findBrowseNameId(String browseName) {
+		byte[] encoded = browseName.getBytes(StandardCharsets.UTF_8);
+		int mask = this.nameTableSlots - 1;
+		for (int slot = hash(encoded) & mask;; slot = (slot + 1) & mask) {
+			int stringId = this.buffer.getInt(this.nameTableOffset + slot * 4) - 1;
+			if (stringId == NONE) {
+				return NONE;
+			}
+			if (this.stringEquals(stringId, encoded)) {
+				return stringId;
+			}
+		}
+	}
+
+	private boolean stringEquals(int stringId, byte[] encoded) {
+		int start = this.buffer.getInt(this.stringOffsetsOffset + stringId * 4);
+		int end = this.buffer.getInt(this.stringOffsetsOffset + (stringId + 1) * 4);
+		if (end - start != encoded.length) {
+			return false;
+		}
+		for (int i = 0; i < encoded.length; i++) {
+			if (this.buffer.get(this.stringDataOffset + start + i) != encoded[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String getString(int stringId) {
+		int start = this.buffer.getInt(this.stringOffsetsOffset + stringId * 4);
+		int end = this.buffer.getInt(this.stringOffsetsOffset + (stringId + 1) * 4);
+		byte[] encoded = new byte[end - start];
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = this.buffer.get(this.stringDataOffset + start + i);
+		}
+		return new String(encoded, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return Index of the parent or NONE for the root container
+	 */
+	public int getParent(int node) {
+		return this.buffer.getInt(this.nodesOffset + node * NODE_SIZE);
+	}
+
+	/**
+	 * @return Indices of all parents, the parent in the tree structure first. Empty for the root container
+	 */
+	public int[] getParents(int node) {
+		int parent = this.getParent(node);
+		if (parent == NONE) {
+			return new int[0];
+		}
+		int[] allParents = { parent };
+		for (int edge = this.buffer.getInt(this.nodesOffset + node * NODE_SIZE + 8); edge != NONE;
+				edge = this.buffer.getInt(this.edgesOffset + edge * EDGE_SIZE + 4)) {
+			allParents = Arrays.copyOf(allParents, allParents.length + 1);
+			allParents[allParents.length - 1] = this.buffer.getInt(this.edgesOffset + edge * EDGE_SIZE);
+		}
+		return allParents;
+	}
+
+	private int getBrowseNameId(int node) {
+		return this.buffer.getInt(this.nodesOffset + node * NODE_SIZE + 4);
+	}
+
+	/**
+	 * @return The browse name or null for the root container
+	 */
+	public String getBrowseName(int node) {
+		int browseNameId = this.getBrowseNameId(node);
+		return browseNameId == NONE ? null : this.getString(browseNameId);
+	}
+
+	/**
+	 * @return The nodeId of a node. The root container has an empty nodeId
+	 */
+	public NodeId getNodeId(int node) {
+		int position = this.nodesOffset + node * NODE_SIZE + 12;
+		int namespaceIndex = this.buffer.getShort(position) & 0xFFFF;
+		byte identifierType = this.buffer.get(position + 2);
+		int identifier = this.buffer.getInt(position + 4);
+		switch (identifierType) {
+		case NUMERIC_ID:
+			return new NodeId(namespaceIndex, uint(identifier & 0xFFFFFFFFL));
+		case STRING_ID:
+			return new NodeId(namespaceIndex, this.getString(identifier));
+		case GUID_ID:
+			return new NodeId(namespaceIndex, UUID.fromString(this.getString(identifier)));
+		default:
+			return new NodeId(namespaceIndex, ByteString.of(Base64.getDecoder().decode(this.getString(identifier))));
+		}
+	}
+
+	/**
+	 * Minimal stream over a byte buffer, used to read the metadata section with a DataInputStream
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, this.buffer.remaining());
+			this.buffer.get(bytes, offset, count);
+			return count;
+		}
+	}
+}
@@ -0,0 +1,426 @@
+package plc2skill.opcua;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+/**
+ * Compact representation of a browsed address space. Instead of one object per node, all nodes are stored in parallel arrays and are identified by
+ * their index. Links between nodes are int arrays (parent, first child, next sibling), browse names are interned in a string table and nodeIds are
+ * split into namespace index, identifier type and identifier. Index 0 is an empty root container that represents the browse root.
+ * Every nodeId is only stored once. Nodes that are reachable from several parents keep the first parent in the tree structure, all other parents are
+ * recorded as extra parent edges. A hash table (open addressing on node indices) is used to find nodes by their nodeId.
+ */
+public class AddressSpaceTree {
+
+	public static final int ROOT = 0;
+	public static final int NONE = -1;
+
+	private static final byte NUMERIC_ID = 0;
+	private static final byte STRING_ID = 1;
+	private static final byte GUID_ID = 2;
+	private static final byte OPAQUE_ID = 3;
+
+	private int size = 0;
+	private boolean complete = true;
+
+	// Tree structure
+	private int[] parents;
+	private int[] firstChildren;
+	private int[] lastChildren;
+	private int[] nextSiblings;
+
+	// Node data
+	private int[] browseNameIds;
+	private short[] namespaceIndices;
+	private byte[] identifierTypes;
+	private int[] numericIdentifiers;
+	private Object[] identifiers;	// Only used for non-numeric identifiers
+
+	// Extra parents of nodes that were reached on several paths. Stored as linked lists of edges per node
+	private int[] firstExtraParentEdges;
+	private int[] edgeParents = new int[16];
+	private int[] nextEdges = new int[16];
+	private int edgeCount = 0;
+
+	// Open addressing hash table from nodeId to node index. Slots contain node index + 1, 0 marks an empty slot
+	private int[] nodeIdSlots;
+	private boolean rootHasNodeId = false;
+
+	// String table of all browse names
+	private final List<String> browseNames = new ArrayList<String>();
+	private final Map<String, Integer> browseNameTable = new HashMap<String, Integer>();
+
+	public AddressSpaceTree() {
+		this(1024);
+	}
+
+	public AddressSpaceTree(int initialCapacity) {
+		int capacity = Math.max(initialCapacity, 16);
+		this.parents = new int[capacity];
+		this.firstChildren = new int[capacity];
+		this.lastChildren = new int[capacity];
+		this.nextSiblings = new int[capacity];
+		this.browseNameIds = new int[capacity];
+		this.namespaceIndices = new short[capacity];
+		this.identifierTypes = new byte[capacity];
+		this.numericIdentifiers = new int[capacity];
+		this.identifiers = new Object[capacity];
+		this.firstExtraParentEdges = new int[capacity];
+		this.nodeIdSlots = new int[Integer.highestOneBit(capacity) * 4];
+
+		// Root container without data
+		this.append(NONE, NONE, null);
+	}
+
+	/**
+	 * Assigns the nodeId of the browse root to the root container, so that references back to the browse root are recognized
+	 * @param nodeId NodeId of the node the tree was browsed from
+	 */
+	public void setRootNodeId(NodeId nodeId) {
+		this.setNodeId(ROOT, nodeId);
+		this.rootHasNodeId = true;
+		this.insertIntoNodeIdTable(ROOT);
+	}
+
+	/**
+	 * Adds a new node as the last child of a given parent
+	 * @param parent Index of the parent node
+	 * @param browseName Browse name of the new node
+	 * @param nodeId NodeId of the new node
+	 * @return Index of the new node
+	 */
+	public int addNode(int parent, String browseName, NodeId nodeId) {
+		return this.append(parent, this.internBrowseName(browseName), nodeId);
+	}
+
+	private int append(int parent, int browseNameId, NodeId nodeId) {
+		this.ensureCapacity(this.size + 1);
+		int node = this.size++;
+
+		this.parents[node] = parent;
+		this.firstChildren[node] = NONE;
+		this.lastChildren[node] = NONE;
+		this.nextSiblings[node] = NONE;
+		this.browseNameIds[node] = browseNameId;
+		this.firstExtraParentEdges[node] = NONE;
+		this.setNodeId(node, nodeId);
+		if (nodeId != null) {
+			this.insertIntoNodeIdTable(node);
+		}
+
+		if (parent != NONE) {
+			if (this.lastChildren[parent] == NONE) {
+				this.firstChildren[parent] = node;
+			} else {
+				this.nextSiblings[this.lastChildren[parent]] = node;
+			}
+			this.lastChildren[parent] = node;
+		}
+
+		return node;
+	}
+
+	/**
+	 * Records an additional parent of a node that was reached again on another path
+	 * @param node Index of the node that already exists in the tree
+	 * @param parent Index of the additional parent
+	 */
+	public void addParent(int node, int parent) {
+		if (this.parents[node] == parent) {
+			return;
+		}
+		for (int edge = this.firstExtraParentEdges[node]; edge != NONE; edge = this.nextEdges[edge]) {
+			if (this.edgeParents[edge] == parent) {
+				return;
+			}
+		}
+
+		if (this.edgeCount == this.edgeParents.length) {
+			this.edgeParents = Arrays.copyOf(this.edgeParents, this.edgeCount * 2);
+			this.nextEdges = Arrays.copyOf(this.nextEdges, this.edgeCount * 2);
+		}
+		int edge = this.edgeCount++;
+		this.edgeParents[edge] = parent;
+		this.nextEdges[edge] = this.firstExtraParentEdges[node];
+		this.firstExtraParentEdges[node] = edge;
+	}
+
+	/**
+	 * Finds a node by its nodeId
+	 * @param nodeId NodeId to search for
+	 * @return Index of the node or NONE if the nodeId is not contained
+	 */
+	public int indexOf(NodeId nodeId) {
+		int mask = this.nodeIdSlots.length - 1;
+		for (int slot = this.hash(nodeId) & mask; this.nodeIdSlots[slot] != 0; slot = (slot + 1) & mask) {
+			int node = this.nodeIdSlots[slot] - 1;
+			if (this.hasNodeId(node, nodeId)) {
+				return node;
+			}
+		}
+		return NONE;
+	}
+
+	private void insertIntoNodeIdTable(int node) {
+		// Keep the load factor below 0.5
+		if (this.size * 2 > this.nodeIdSlots.length) {
+			this.rehash(this.nodeIdSlots.length * 2);
+		}
+		this.insertSlot(this.nodeIdSlots, node);
+	}
+
+	private void insertSlot(int[] slots, int node) {
+		int mask = slots.length - 1;
+		int slot = this.hash(node) & mask;
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = node + 1;
+	}
+
+	private void rehash(int capacity) {
+		int[] newSlots = new int[capacity];
+		for (int slot : this.nodeIdSlots) {
+			if (slot != 0) {
+				this.insertSlot(newSlots, slot - 1);
+			}
+		}
+		this.nodeIdSlots = newSlots;
+	}
+
+	private boolean hasNodeId(int node, NodeId nodeId) {
+		if ((this.namespaceIndices[node] & 0xFFFF) != nodeId.getNamespaceIndex().intValue()) {
+			return false;
+		}
+		Object identifier = nodeId.getIdentifier();
+		if (this.identifierTypes[node] == NUMERIC_ID) {
+			return identifier instanceof UInteger && ((UInteger) identifier).intValue() == this.numericIdentifiers[node];
+		}
+		return identifier.equals(this.identifiers[node]);
+	}
+
+	private int hash(NodeId nodeId) {
+		Object identifier = nodeId.getIdentifier();
+		int identifierHash = (identifier instanceof UInteger) ? ((UInteger) identifier).intValue() : identifier.hashCode();
+		return this.mix(nodeId.getNamespaceIndex().intValue(), identifierHash);
+	}
+
+	private int hash(int node) {
+		int identifierHash = (this.identifierTypes[node] == NUMERIC_ID) ? this.numericIdentifiers[node] : this.identifiers[node].hashCode();
+		return this.mix(this.namespaceIndices[node] & 0xFFFF, identifierHash);
+	}
+
+	private int mix(int namespaceIndex, int identifierHash) {
+		int h = identifierHash * 31 + namespaceIndex;
+		return h ^ (h >>> 16);
+	}
+
+	private int internBrowseName(String browseName) {
+		Integer browseNameId = this.browseNameTable.get(browseName);
+		if (browseNameId == null) {
+			browseNameId = this.browseNames.size();
+			this.browseNames.add(browseName);
+			this.browseNameTable.put(browseName, browseNameId);
+		}
+		return browseNameId;
+	}
+
+	private void setNodeId(int node, NodeId nodeId) {
+		if (nodeId == null) {
+			this.identifierTypes[node] = NUMERIC_ID;
+			this.namespaceIndices[node] = 0;
+			this.numericIdentifiers[node] = 0;
+			return;
+		}
+
+		this.namespaceIndices[node] = (short) nodeId.getNamespaceIndex().intValue();
+		Object identifier = nodeId.getIdentifier();
+		switch (nodeId.getType()) {
+		case Numeric:
+			this.identifierTypes[node] = NUMERIC_ID;
+			this.numericIdentifiers[node] = ((UInteger) identifier).intValue();
+			break;
+		case String:
+			this.identifierTypes[node] = STRING_ID;
+			this.identifiers[node] = identifier;
+			break;
+		case Guid:
+			this.identifierTypes[node] = GUID_ID;
+			this.identifiers[node] = identifier;
+			break;
+		default:
+			this.identifierTypes[node] = OPAQUE_ID;
+			this.identifiers[node] = identifier;
+			break;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= this.parents.length) {
+			return;
+		}
+
+		int newCapacity = Math.max(capacity, this.parents.length * 2);
+		this.parents = Arrays.copyOf(this.parents, newCapacity);
+		this.firstChildren = Arrays.copyOf(this.firstChildren, newCapacity);
+		this.lastChildren = Arrays.copyOf(this.lastChildren, newCapacity);
+		this.nextSiblings = Arrays.copyOf(this.nextSiblings, newCapacity);
+		this.browseNameIds = Arrays.copyOf(this.browseNameIds, newCapacity);
+		this.namespaceIndices = Arrays.copyOf(this.namespaceIndices, newCapacity);
+		this.identifierTypes = Arrays.copyOf(this.identifierTypes, newCapacity);
+		this.numericIdentifiers = Arrays.copyOf(this.numericIdentifiers, newCapacity);
+		this.identifiers = Arrays.copyOf(this.identifiers, newCapacity);
+		this.firstExtraParentEdges = Arrays.copyOf(this.firstExtraParentEdges, newCapacity);
+	}
+
+	/**
+	 * Marks the tree as incomplete, e.g. because some nodes could not be browsed
+	 */
+	public void markIncomplete() {
+		this.complete = false;
+	}
+
+	/**
+	 * @return false if some nodes of the address space are missing. Incomplete trees must not be cached or written to snapshots
+	 */
+	public boolean isComplete() {
+		return this.complete;
+	}
+
+	/**
+	 * @return Number of nodes including the root container
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isRoot(int node) {
+		return this.parents[node] == NONE;
+	}
+
+	/**
+	 * @return Index of the parent or NONE for the root container
+	 */
+	public int getParent(int node) {
+		return this.parents[node];
+	}
+
+	/**
+	 * Returns all parents of a node: The parent in the tree structure first, followed by all extra parents
+	 * @return Indices of all parents. Empty for the root container
+	 */
+	public int[] getParents(int node) {
+		if (this.parents[node] == NONE) {
+			return new int[0];
+		}
+
+		int count = 1;
+		for (int edge = this.firstExtraParentEdges[node]; edge != NONE; edge = this.nextEdges[edge]) {
+			count++;
+		}
+		int[] allParents = new int[count];
+		allParents[0] = this.parents[node];
+		int i = 1;
+		for (int edge = this.firstExtraParentEdges[node]; edge != NONE; edge = this.nextEdges[edge]) {
+			allParents[i++] = this.edgeParents[edge];
+		}
+		return allParents;
+	}
+
+	/**
+	 * @return Index of the first child or NONE if the node is a leaf
+	 */
+	public int getFirstChild(int node) {
+		return this.firstChildren[node];
+	}
+
+	/**
+	 * @return Index of the next sibling or NONE if the node is the last child of its parent
+	 */
+	public int getNextSibling(int node) {
+		return this.nextSiblings[node];
+	}
+
+	/**
+	 * @return The browse name or null for the root container
+	 */
+	public String getBrowseName(int node) {
+		int browseNameId = this.browseNameIds[node];
+		return browseNameId == NONE ? null : this.browseNames.get(browseNameId);
+	}
+
+	/**
+	 * @return The interned id of the browse name, NONE for the root container
+	 */
+	public int getBrowseNameId(int node) {
+		return this.browseNameIds[node];
+	}
+
+	/**
+	 * @return The nodeId or null for the root container, unless the nodeId of the browse root was set
+	 */
+	public NodeId getNodeId(int node) {
+		if (this.isRoot(node) && !this.rootHasNodeId) {
+			return null;
+		}
+
+		int namespaceIndex = this.namespaceIndices[node] & 0xFFFF;
+		switch (this.identifierTypes[node]) {
+		case NUMERIC_ID:
+			return new NodeId(namespaceIndex, uint(this.numericIdentifiers[node] & 0xFFFFFFFFL));
+		case STRING_ID:
+			return new NodeId(namespaceIndex, (String) this.identifiers[node]);
+		case GUID_ID:
+			return new NodeId(namespaceIndex, (UUID) this.identifiers[node]);
+		default:
+			return new NodeId(namespaceIndex, (ByteString) this.identifiers[node]);
+		}
+	}
+
+	/**
+	 * Estimates the heap memory used by this tree. Used to bound caches of trees, so only the large parts (arrays and strings) are counted
+	 * @return Estimated size in bytes
+	 */
+	public long estimateMemory() {
+		// 7 int arrays, one short, one byte and one reference array per node capacity
+		long memory = (long) this.parents.length * (7 * 4 + 2 + 1 + 8);
+		memory += (long) this.edgeParents.length * 2 * 4;
+		memory += (long) this.nodeIdSlots.length * 4;
+		for (int node = 0; node < this.size; node++) {
+			if (this.identifiers[node] instanceof String) {
+				memory += 40 + 2L * ((String) this.identifiers[node]).length();
+			} else if (this.identifiers[node] != null) {
+				memory += 32;
+			}
+		}
+		for (String browseName : this.browseNames) {
+			// String and its entry in the string table
+			memory += 40 + 2L * browseName.length() + 48;
+		}
+		return memory;
+	}
+
+	/**
+	 * Returns a read-only view on a single node of the tree
+	 * @param node Index of the node
+	 * @return
+	 */
+	public AddressSpaceNode getNode(int node) {
+		return new AddressSpaceNode(this, node);
+	}
+
+	public AddressSpaceNode getRoot() {
+		return this.getNode(ROOT);
+	}
+
+}
@@ -0,0 +1,336 @@
+package plc2skill.opcua;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.eclipse.milo.opcua.stack.core.util.ConversionUtil.toList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePath;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePathResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePathTarget;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.RelativePath;
+import org.eclipse.milo.opcua.stack.core.types.structured.RelativePathElement;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves incomplete nodeIds without crawling the whole address space. The first element of every incomplete nodeId (the POU instance, e.g.
+ * PLC_PRG) is used as an anchor that is searched for level by level. All remaining elements are turned into a relative BrowsePath starting at that
+ * anchor and translated in batched TranslateBrowsePathsToNodeIds calls.
+ */
+public class BrowsePathTranslator {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	// Anchors (POU instances) are expected close to the start node (by default the ObjectsFolder). Deeper levels are not searched
+	private static final int MAX_ANCHOR_DEPTH = 10;
+
+	// If an anchor doesn't exist, the search would browse large parts of the address space before the crawl browses them again. The search is given
+	// up before browsing a level that would exceed this number of nodes in total
+	private static final int MAX_ANCHOR_SEARCH_NODES = 1000;
+
+	private final OpcUaClient client;
+	private final NamespaceTable nsTable;
+	private final BrowseSettings settings;
+	private final ViewDescription view = new ViewDescription(NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint(0));
+	private volatile boolean failed = false;
+
+	public BrowsePathTranslator(OpcUaClient client, NamespaceTable nsTable, BrowseSettings settings) {
+		this.client = client;
+		this.nsTable = nsTable;
+		this.settings = settings;
+	}
+
+	/**
+	 * @return true if a service call of this translator or the browse of a node failed, e.g. because the connection to the server was lost
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Translates a collection of incomplete nodeIds into complete nodeIds
+	 * @param incompleteNodeIds Partial nodeIds without the placeholder string, e.g. ".PLC_PRG.drillingSkill_1.currentState"
+	 * @return A map from incomplete nodeId to the resolved nodeId. Incomplete nodeIds that could not be translated unambiguously are not contained
+	 */
+	public Map<String, NodeId> translate(Collection<String> incompleteNodeIds) {
+		Map<String, NodeId> translatedNodeIds = new HashMap<String, NodeId>();
+
+		// Group all incomplete nodeIds by their first element, which is used as the anchor of the relative path
+		Map<String, List<String>> incompleteNodeIdsByAnchor = new LinkedHashMap<String, List<String>>();
+		for (String incompleteNodeId : incompleteNodeIds) {
+			List<String> pathElements = OpcUaBrowser.getPathElements(incompleteNodeId);
+			if (pathElements.isEmpty()) {
+				continue;
+			}
+			incompleteNodeIdsByAnchor.computeIfAbsent(pathElements.get(0), anchor -> new ArrayList<String>()).add(incompleteNodeId);
+		}
+
+		try {
+			Map<String, List<ReferenceDescription>> anchors = this.findAnchors(incompleteNodeIdsByAnchor.keySet());
+
+			List<BrowsePath> browsePaths = new ArrayList<BrowsePath>();
+			List<String> browsePathOwners = new ArrayList<String>();
+			Map<String, Set<NodeId>> targetsByNodeId = new HashMap<String, Set<NodeId>>();
+
+			for (Map.Entry<String, List<String>> anchorGroup : incompleteNodeIdsByAnchor.entrySet()) {
+				List<ReferenceDescription> anchorCandidates = anchors.get(anchorGroup.getKey());
+				if (anchorCandidates == null) {
+					continue;
+				}
+
+				for (String incompleteNodeId : anchorGroup.getValue()) {
+					List<String> pathElements = OpcUaBrowser.getPathElements(incompleteNodeId);
+					for (ReferenceDescription anchorCandidate : anchorCandidates) {
+						NodeId anchorNodeId = anchorCandidate.getNodeId().toNodeId(this.nsTable).orElse(null);
+						if (anchorNodeId == null) {
+							continue;
+						}
+
+						// The anchor itself was requested - no need to translate anything
+						if (pathElements.size() == 1) {
+							this.addTarget(targetsByNodeId, incompleteNodeId, anchorNodeId);
+							continue;
+						}
+
+						// Assumption: All elements below the anchor share the anchor's namespace (valid for Codesys)
+						int namespaceIndex = anchorCandidate.getBrowseName().getNamespaceIndex().intValue();
+						browsePaths.add(this.createBrowsePath(anchorNodeId, namespaceIndex, pathElements));
+						browsePathOwners.add(incompleteNodeId);
+					}
+				}
+			}
+
+			List<BrowsePathResult> browsePathResults = this.translateInBatches(browsePaths);
+			for (int i = 0; i < browsePathResults.size(); i++) {
+				BrowsePathResult browsePathResult = browsePathResults.get(i);
+				if (browsePathResult.getStatusCode().isBad() || browsePathResult.getTargets() == null) {
+					continue;
+				}
+
+				for (BrowsePathTarget target : browsePathResult.getTargets()) {
+					// Targets on other servers or with unprocessed path elements are not a complete match
+					if (target.getRemainingPathIndex().longValue() != UInteger.MAX_VALUE) {
+						continue;
+					}
+					NodeId targetNodeId = target.getTargetId().toNodeId(this.nsTable).orElse(null);
+					if (targetNodeId != null) {
+						this.addTarget(targetsByNodeId, browsePathOwners.get(i), targetNodeId);
+					}
+				}
+			}
+
+			// Only unambiguous translations are returned, everything else is left to the crawl-based search
+			for (Map.Entry<String, Set<NodeId>> targets : targetsByNodeId.entrySet()) {
+				if (targets.getValue().size() == 1) {
+					translatedNodeIds.put(targets.getKey(), targets.getValue().iterator().next());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Translating browse paths was interrupted.");
+		} catch (ExecutionException e) {
+			this.failed = true;
+			logger.error("Error while translating browse paths: {}", e.getMessage(), e);
+		}
+
+		logger.info("Translated {} of {} incomplete nodeIds using browse paths", translatedNodeIds.size(), incompleteNodeIds.size());
+		return translatedNodeIds;
+	}
+
+	private void addTarget(Map<String, Set<NodeId>> targetsByNodeId, String incompleteNodeId, NodeId target) {
+		targetsByNodeId.computeIfAbsent(incompleteNodeId, id -> new HashSet<NodeId>()).add(target);
+	}
+
+	private BrowsePath createBrowsePath(NodeId startingNode, int namespaceIndex, List<String> pathElements) {
+		RelativePathElement[] relativePathElements = new RelativePathElement[pathElements.size() - 1];
+		for (int i = 1; i < pathElements.size(); i++) {
+			relativePathElements[i - 1] = new RelativePathElement(
+					Identifiers.HierarchicalReferences,
+					false,
+					true,
+					new QualifiedName(namespaceIndex, pathElements.get(i)));
+		}
+		return new BrowsePath(startingNode, new RelativePath(relativePathElements));
+	}
+
+	private List<BrowsePathResult> translateInBatches(List<BrowsePath> browsePaths) throws InterruptedException, ExecutionException {
+		List<CompletableFuture<List<BrowsePathResult>>> requests = new ArrayList<CompletableFuture<List<BrowsePathResult>>>();
+		int batchSize = this.settings.getMaxNodesPerBrowse();
+		for (int i = 0; i < browsePaths.size(); i += batchSize) {
+			List<BrowsePath> batch = new ArrayList<BrowsePath>(browsePaths.subList(i, Math.min(i + batchSize, browsePaths.size())));
+			requests.add(this.client.translateBrowsePaths(batch).thenApply(response -> toList(response.getResults())));
+		}
+
+		List<BrowsePathResult> browsePathResults = new ArrayList<BrowsePathResult>(browsePaths.size());
+		for (CompletableFuture<List<BrowsePathResult>> request : requests) {
+			browsePathResults.addAll(request.get());
+		}
+		return browsePathResults;
+	}
+
+	/**
+	 * Searches the address space level by level for all nodes with a given browse name
+	 * @param browseName Browse name to search for
+	 * @return NodeIds of all nodes found on the first level that contains the browse name
+	 */
+	public List<NodeId> findNodes(String browseName) {
+		List<NodeId> nodeIds = new ArrayList<NodeId>();
+		try {
+			List<ReferenceDescription> references = this.findAnchors(Collections.singleton(browseName)).get(browseName);
+			if (references != null) {
+				for (ReferenceDescription reference : references) {
+					reference.getNodeId().toNodeId(this.nsTable).ifPresent(nodeIds::add);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Searching for {} was interrupted.", browseName);
+		} catch (ExecutionException e) {
+			this.failed = true;
+			logger.error("Error while searching for {}: {}", browseName, e.getMessage(), e);
+		}
+		return nodeIds;
+	}
+
+	/**
+	 * Searches the address space level by level for nodes with the given browse names. Searching stops at the first level that contains all anchors,
+	 * after {@value #MAX_ANCHOR_DEPTH} levels or before more than {@value #MAX_ANCHOR_SEARCH_NODES} nodes would be browsed
+	 * @param anchorNames Browse names to search for
+	 * @return Map from browse name to all nodes found with this name
+	 */
+	private Map<String, List<ReferenceDescription>> findAnchors(Set<String> anchorNames) throws InterruptedException, ExecutionException {
+		Map<String, List<ReferenceDescription>> anchors = new HashMap<String, List<ReferenceDescription>>();
+		Set<NodeId> visitedNodes = new HashSet<NodeId>();
+		List<NodeId> currentLevel = Collections.singletonList(this.settings.getStartNode());
+		int browsedNodes = 0;
+
+		for (int depth = 0; depth < MAX_ANCHOR_DEPTH && !currentLevel.isEmpty(); depth++) {
+			if (browsedNodes + currentLevel.size() > MAX_ANCHOR_SEARCH_NODES) {
+				logger.info("Stopped searching for anchors after {} nodes, missing anchors are left to the crawl", browsedNodes);
+				break;
+			}
+			browsedNodes += currentLevel.size();
+
+			List<NodeId> nextLevel = new ArrayList<NodeId>();
+			for (ReferenceDescription reference : this.browseLevel(currentLevel)) {
+				String browseName = reference.getBrowseName().getName();
+				if (anchorNames.contains(browseName)) {
+					anchors.computeIfAbsent(browseName, name -> new ArrayList<ReferenceDescription>()).add(reference);
+				}
+				reference.getNodeId().toNodeId(this.nsTable).ifPresent(nodeId -> {
+					if (visitedNodes.add(nodeId)) {
+						nextLevel.add(nodeId);
+					}
+				});
+			}
+
+			if (anchors.keySet().containsAll(anchorNames)) {
+				break;
+			}
+			currentLevel = nextLevel;
+		}
+
+		return anchors;
+	}
+
+	private List<ReferenceDescription> browseLevel(List<NodeId> nodeIds) throws InterruptedException, ExecutionException {
+		List<ReferenceDescription> references = new ArrayList<ReferenceDescription>();
+		List<CompletableFuture<BrowseResponse>> requests = new ArrayList<CompletableFuture<BrowseResponse>>();
+		int batchSize = this.settings.getMaxNodesPerBrowse();
+
+		for (int i = 0; i < nodeIds.size(); i += batchSize) {
+			List<BrowseDescription> batch = new ArrayList<BrowseDescription>();
+			for (NodeId nodeId : nodeIds.subList(i, Math.min(i + batchSize, nodeIds.size()))) {
+				batch.add(this.createBrowseDescription(nodeId));
+			}
+			requests.add(this.client.browse(this.view, uint(this.settings.getMaxReferencesPerNode()), batch));
+
+			if (requests.size() >= this.settings.getMaxRequestsInFlight()) {
+				this.collectReferences(requests, references);
+			}
+		}
+		this.collectReferences(requests, references);
+
+		return references;
+	}
+
+	/**
+	 * Waits for the pending Browse requests and collects their references. Nodes with more references are continued together in batched BrowseNext
+	 * calls, the same way the crawler does it
+	 */
+	private void collectReferences(List<CompletableFuture<BrowseResponse>> requests, List<ReferenceDescription> references)
+			throws InterruptedException, ExecutionException {
+		List<ByteString> continuationPoints = new ArrayList<ByteString>();
+		for (CompletableFuture<BrowseResponse> request : requests) {
+			for (BrowseResult browseResult : request.get().getResults()) {
+				this.addResult(browseResult, references, continuationPoints);
+			}
+		}
+		requests.clear();
+
+		int batchSize = this.settings.getMaxNodesPerBrowse();
+		while (!continuationPoints.isEmpty()) {
+			List<ByteString> batch = new ArrayList<ByteString>(continuationPoints.subList(0, Math.min(batchSize, continuationPoints.size())));
+			continuationPoints.subList(0, batch.size()).clear();
+			for (BrowseResult nextResult : this.client.browseNext(false, batch).get().getResults()) {
+				this.addResult(nextResult, references, continuationPoints);
+			}
+		}
+	}
+
+	/**
+	 * Adds the references of a Browse or BrowseNext result and its continuation point, if there is one. A bad status marks the translator as failed,
+	 * as the missing references could contain an anchor
+	 */
+	private void addResult(BrowseResult browseResult, List<ReferenceDescription> references, List<ByteString> continuationPoints) {
+		if (browseResult.getStatusCode().isBad()) {
+			this.failed = true;
+			logger.warn("Browsing while searching for anchors failed: {}", browseResult.getStatusCode());
+			return;
+		}
+		references.addAll(toList(browseResult.getReferences()));
+
+		ByteString continuationPoint = browseResult.getContinuationPoint();
+		if (continuationPoint != null && !continuationPoint.isNull()) {
+			continuationPoints.add(continuationPoint);
+		}
+	}
+
+	private BrowseDescription createBrowseDescription(NodeId nodeId) {
+		return new BrowseDescription(
+				nodeId,
+				BrowseDirection.Forward,
+				Identifiers.HierarchicalReferences,
+				true,
+				uint(NodeClass.Object.getValue() | NodeClass.Variable.getValue()),
+				uint(BrowseResultMask.All.getValue())
+		);
+	}
+}
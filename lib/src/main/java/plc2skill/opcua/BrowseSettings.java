@@ -0,0 +1,219 @@
+package plc2skill.opcua;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Settings that control how the address space of an OPC UA server is crawled
+ */
+public class BrowseSettings {
+
+	private int maxNodesPerBrowse = 100;
+	private int maxRequestsInFlight = 4;
+	private int maxReferencesPerNode = 1000;
+	private int maxContinuationPoints = 0;
+	private NodeIdResolutionMode resolutionMode = NodeIdResolutionMode.TRANSLATE_BROWSE_PATHS;
+	private boolean parallelResolution = false;
+
+	// Scope of the crawl
+	private NodeId startNode = Identifiers.ObjectsFolder;
+	private String startBrowseName;
+	private int maxDepth = Integer.MAX_VALUE;
+	private Set<String> namespaceUris = new HashSet<String>();
+	private boolean hierarchicalReferencesOnly = false;
+
+	public BrowseSettings() {
+	}
+
+	/**
+	 * Creates a copy of other settings, e.g. to change the scope of a single crawl without affecting the original settings
+	 *
+	 * @param other Settings to copy
+	 */
+	public BrowseSettings(BrowseSettings other) {
+		this.maxNodesPerBrowse = other.maxNodesPerBrowse;
+		this.maxRequestsInFlight = other.maxRequestsInFlight;
+		this.maxReferencesPerNode = other.maxReferencesPerNode;
+		this.maxContinuationPoints = other.maxContinuationPoints;
+		this.resolutionMode = other.resolutionMode;
+		this.parallelResolution = other.parallelResolution;
+		this.startNode = other.startNode;
+		this.startBrowseName = other.startBrowseName;
+		this.maxDepth = other.maxDepth;
+		this.namespaceUris = new HashSet<String>(other.namespaceUris);
+		this.hierarchicalReferencesOnly = other.hierarchicalReferencesOnly;
+	}
+
+	public int getMaxNodesPerBrowse() {
+		return maxNodesPerBrowse;
+	}
+
+	/**
+	 * Set the number of nodes that are packed into one Browse service call
+	 *
+	 * @param maxNodesPerBrowse Number of BrowseDescriptions per request. Should not exceed the server's MaxNodesPerBrowse operation limit
+	 * @return
+	 */
+	public BrowseSettings setMaxNodesPerBrowse(int maxNodesPerBrowse) {
+		this.maxNodesPerBrowse = Math.max(1, maxNodesPerBrowse);
+		return this;
+	}
+
+	public int getMaxRequestsInFlight() {
+		return maxRequestsInFlight;
+	}
+
+	/**
+	 * Set the number of Browse requests that may be pending at the same time
+	 *
+	 * @param maxRequestsInFlight Number of concurrent requests. 1 sends one request after another
+	 * @return
+	 */
+	public BrowseSettings setMaxRequestsInFlight(int maxRequestsInFlight) {
+		this.maxRequestsInFlight = Math.max(1, maxRequestsInFlight);
+		return this;
+	}
+
+	public int getMaxReferencesPerNode() {
+		return maxReferencesPerNode;
+	}
+
+	/**
+	 * Set the page size requested from the server. Nodes with more references are continued with BrowseNext
+	 *
+	 * @param maxReferencesPerNode Maximum number of references returned per node and response. 0 lets the server decide
+	 * @return
+	 */
+	public BrowseSettings setMaxReferencesPerNode(int maxReferencesPerNode) {
+		this.maxReferencesPerNode = Math.max(0, maxReferencesPerNode);
+		return this;
+	}
+
+	public int getMaxContinuationPoints() {
+		return maxContinuationPoints;
+	}
+
+	/**
+	 * Set the number of continuation points the crawl may hold on the server at the same time
+	 *
+	 * @param maxContinuationPoints Maximum number of continuation points per session. 0 (default) uses the server's MaxBrowseContinuationPoints
+	 * @return
+	 */
+	public BrowseSettings setMaxContinuationPoints(int maxContinuationPoints) {
+		this.maxContinuationPoints = Math.max(0, maxContinuationPoints);
+		return this;
+	}
+
+	public NodeIdResolutionMode getResolutionMode() {
+		return resolutionMode;
+	}
+
+	/**
+	 * Set how incomplete nodeIds are resolved
+	 *
+	 * @param resolutionMode TRANSLATE_BROWSE_PATHS (default) translates nodeIds in a few batched requests and only crawls for the rest, CRAWL always
+	 *                       crawls the whole address space
+	 * @return
+	 */
+	public BrowseSettings setResolutionMode(NodeIdResolutionMode resolutionMode) {
+		this.resolutionMode = resolutionMode;
+		return this;
+	}
+
+	public boolean isParallelResolution() {
+		return parallelResolution;
+	}
+
+	/**
+	 * Set whether nodeIds that need to be looked up in the crawled address space are resolved in parallel
+	 *
+	 * @param parallelResolution true to scan the address space and resolve the nodeIds on all cores
+	 * @return
+	 */
+	public BrowseSettings setParallelResolution(boolean parallelResolution) {
+		this.parallelResolution = parallelResolution;
+		return this;
+	}
+
+	public NodeId getStartNode() {
+		return startNode;
+	}
+
+	/**
+	 * Set the node that crawling (and searching for the start browse name) begins at
+	 *
+	 * @param startNode NodeId of the start node. Default is the ObjectsFolder
+	 * @return
+	 */
+	public BrowseSettings setStartNode(NodeId startNode) {
+		this.startNode = (startNode != null) ? startNode : Identifiers.ObjectsFolder;
+		return this;
+	}
+
+	public String getStartBrowseName() {
+		return startBrowseName;
+	}
+
+	/**
+	 * Set the browse name of the node that the crawl is restricted to, e.g. the name of the PLC application. The node is searched for level by level
+	 * below the start node
+	 *
+	 * @param startBrowseName Browse name of the subtree to crawl. If null, the whole start node is crawled
+	 * @return
+	 */
+	public BrowseSettings setStartBrowseName(String startBrowseName) {
+		this.startBrowseName = startBrowseName;
+		return this;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Set the maximum depth of the crawl
+	 *
+	 * @param maxDepth Number of levels below the start node that are crawled. 1 only adds the children of the start node
+	 * @return
+	 */
+	public BrowseSettings setMaxDepth(int maxDepth) {
+		this.maxDepth = Math.max(1, maxDepth);
+		return this;
+	}
+
+	public Set<String> getNamespaceUris() {
+		return namespaceUris;
+	}
+
+	/**
+	 * Restrict the crawl to nodes of certain namespaces. Nodes of other namespaces are still browsed, but not added to the tree. Their children
+	 * are added to the closest ancestor of an allowed namespace
+	 *
+	 * @param namespaceUris Allowed namespace URIs. If empty, nodes of all namespaces are crawled
+	 * @return
+	 */
+	public BrowseSettings setNamespaceUris(Collection<String> namespaceUris) {
+		this.namespaceUris = (namespaceUris != null) ? new HashSet<String>(namespaceUris) : new HashSet<String>();
+		return this;
+	}
+
+	public boolean isHierarchicalReferencesOnly() {
+		return hierarchicalReferencesOnly;
+	}
+
+	/**
+	 * Set whether only hierarchical references are followed instead of all references
+	 *
+	 * @param hierarchicalReferencesOnly true to follow HierarchicalReferences and their subtypes only
+	 * @return
+	 */
+	public BrowseSettings setHierarchicalReferencesOnly(boolean hierarchicalReferencesOnly) {
+		this.hierarchicalReferencesOnly = hierarchicalReferencesOnly;
+		return this;
+	}
+
+}
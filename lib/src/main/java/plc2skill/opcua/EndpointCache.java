@@ -0,0 +1,96 @@
+package plc2skill.opcua;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.stack.core.types.enumerated.UserTokenType;
+import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+
+/**
+ * Caches the endpoint that was selected for an endpointUrl and an authentication mode, so that clients can be created without a GetEndpoints
+ * round trip. Entries expire after a time to live and can be invalidated if a connection with the cached endpoint fails
+ */
+public class EndpointCache {
+
+	private static final EndpointCache defaultCache = new EndpointCache(TimeUnit.MINUTES.toMillis(10));
+
+	private final long timeToLiveMillis;
+	private final Map<CacheKey, CacheEntry> entries = new ConcurrentHashMap<CacheKey, CacheEntry>();
+
+	public EndpointCache(long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	/**
+	 * @return The cache shared by all clients of this process. Entries live for 10 minutes
+	 */
+	public static EndpointCache getDefault() {
+		return defaultCache;
+	}
+
+	/**
+	 * Returns a cached endpoint
+	 * @param endpointUrl EndpointUrl used for discovery
+	 * @param tokenType Authentication mode the endpoint was selected for
+	 * @return The endpoint or null if there is none or if it is expired
+	 */
+	public EndpointDescription get(String endpointUrl, UserTokenType tokenType) {
+		CacheKey key = new CacheKey(endpointUrl, tokenType);
+		CacheEntry entry = this.entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - entry.created > this.timeToLiveMillis) {
+			this.entries.remove(key, entry);
+			return null;
+		}
+		return entry.endpoint;
+	}
+
+	public void put(String endpointUrl, UserTokenType tokenType, EndpointDescription endpoint) {
+		this.entries.put(new CacheKey(endpointUrl, tokenType), new CacheEntry(endpoint));
+	}
+
+	public void invalidate(String endpointUrl, UserTokenType tokenType) {
+		this.entries.remove(new CacheKey(endpointUrl, tokenType));
+	}
+
+	public void clear() {
+		this.entries.clear();
+	}
+
+	private static class CacheEntry {
+		final EndpointDescription endpoint;
+		final long created = System.currentTimeMillis();
+
+		CacheEntry(EndpointDescription endpoint) {
+			this.endpoint = endpoint;
+		}
+	}
+
+	private static class CacheKey {
+		final String endpointUrl;
+		final UserTokenType tokenType;
+
+		CacheKey(String endpointUrl, UserTokenType tokenType) {
+			this.endpointUrl = endpointUrl;
+			this.tokenType = tokenType;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			return Objects.equals(this.endpointUrl, other.endpointUrl) && this.tokenType == other.tokenType;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.endpointUrl, this.tokenType);
+		}
+	}
+}
@@ -23,8 +23,8 @@ public class EndpointSelector {
 
 	public EndpointSelector(OpcUaClientCreator creator, String user, String password) {
 		this.creator = creator;	// Backreference needed to later set messageMode and securityPolicy
-		this.user = user;
-		this.password = password;
+		this.user = (user != null) ? user : "";
+		this.password = (password != null) ? password : "";
 		this.setBaseConfig();
 	}
 
@@ -39,22 +39,43 @@ public class EndpointSelector {
 		return this.configBuilder.build();
 	}
 
-	public Optional<EndpointDescription> filterEndpointsAndTrustServer(List<EndpointDescription> endpoints) {
-		Optional<EndpointDescription> endpointOption = null;
+	/**
+	 * @return The type of user token that is needed with the given credentials: UserName if user and password are set, Anonymous otherwise
+	 */
+	public UserTokenType getTokenType() {
+		return getTokenType(this.user, this.password);
+	}
 
+	/**
+	 * @param user User name, may be null
+	 * @param password Password, may be null
+	 * @return The type of user token that is needed with the given credentials: UserName if user and password are set, Anonymous otherwise
+	 */
+	public static UserTokenType getTokenType(String user, String password) {
+		boolean hasCredentials = user != null && !user.isBlank() && password != null && !password.isBlank();
+		return hasCredentials ? UserTokenType.UserName : UserTokenType.Anonymous;
+	}
+
+	/**
+	 * Selects the first endpoint that supports the needed user token type
+	 * @param endpoints All endpoints of a server
+	 * @return
+	 */
+	public Optional<EndpointDescription> selectEndpoint(List<EndpointDescription> endpoints) {
 		// If no user and pw is given, there needs to be an endpoint with anonymous token policy
-		if (user.isBlank() || password.isBlank()) {
-			endpointOption = endpoints.stream()
-					.filter(e -> 
-						Arrays.asList(e.getUserIdentityTokens()).stream()
-							.filter(userTokenPolicy -> userTokenPolicy.getTokenType().equals(UserTokenType.Anonymous)).findFirst().isPresent()).findFirst();
-			
-		} else {
-			
-			endpointOption = endpoints.stream()
-					.filter(e ->
-						Arrays.asList(e.getUserIdentityTokens()).stream()
-							.filter(userTokenPolicy -> userTokenPolicy.getTokenType().equals(UserTokenType.UserName)).findFirst().isPresent()).findFirst();
+		UserTokenType tokenType = this.getTokenType();
+		return endpoints.stream()
+				.filter(e ->
+					Arrays.asList(e.getUserIdentityTokens()).stream()
+						.filter(userTokenPolicy -> userTokenPolicy.getTokenType().equals(tokenType)).findFirst().isPresent()).findFirst();
+	}
+
+	/**
+	 * Sets up the client configuration for a selected (or cached) endpoint
+	 * @param endpoint Endpoint to connect to
+	 */
+	public void applyEndpoint(EndpointDescription endpoint) {
+		if (this.getTokenType() == UserTokenType.UserName) {
 			this.configBuilder.setIdentityProvider(new UsernameProvider(user, password));
 //
 //			try {
@@ -95,10 +116,14 @@ public class EndpointSelector {
 //			}
 		}
 		
-		this.configBuilder.setEndpoint(endpointOption.get());
+		this.configBuilder.setEndpoint(endpoint);
 		this.creator.setMessageSecurityMode(MessageSecurityMode.None);
 		this.creator.setSecurityPolicy(SecurityPolicy.None.getUri());
-		
+	}
+
+	public Optional<EndpointDescription> filterEndpointsAndTrustServer(List<EndpointDescription> endpoints) {
+		Optional<EndpointDescription> endpointOption = this.selectEndpoint(endpoints);
+		this.applyEndpoint(endpointOption.get());
 		return endpointOption;
 	}
 
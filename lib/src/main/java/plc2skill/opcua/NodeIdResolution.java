@@ -0,0 +1,43 @@
+package plc2skill.opcua;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Result of resolving a batch of incomplete nodeIds. Contains all nodeIds that could be resolved and an error message for every one that could not
+ */
+public class NodeIdResolution {
+
+	private final Map<String, NodeId> resolvedNodeIds = new ConcurrentHashMap<String, NodeId>();
+	private final Map<String, String> errors = new ConcurrentHashMap<String, String>();
+
+	void addResolved(String incompleteNodeId, NodeId nodeId) {
+		this.resolvedNodeIds.put(incompleteNodeId, nodeId);
+	}
+
+	void addError(String incompleteNodeId, String message) {
+		this.errors.put(incompleteNodeId, message);
+	}
+
+	/**
+	 * @return Map from incomplete nodeId to resolved nodeId
+	 */
+	public Map<String, NodeId> getResolvedNodeIds() {
+		return Collections.unmodifiableMap(this.resolvedNodeIds);
+	}
+
+	/**
+	 * @return Map from incomplete nodeId to the reason why it could not be resolved
+	 */
+	public Map<String, String> getErrors() {
+		return Collections.unmodifiableMap(this.errors);
+	}
+
+	public boolean isComplete() {
+		return this.errors.isEmpty();
+	}
+
+}
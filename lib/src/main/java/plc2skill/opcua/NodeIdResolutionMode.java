@@ -0,0 +1,17 @@
+package plc2skill.opcua;
+
+/**
+ * Strategies to resolve the incomplete nodeIds of a PLCopen XML file on an OPC UA server
+ */
+public enum NodeIdResolutionMode {
+	/**
+	 * Translate the incomplete nodeIds with TranslateBrowsePathsToNodeIds. Only nodeIds that cannot be translated are searched in the crawled address
+	 * space
+	 */
+	TRANSLATE_BROWSE_PATHS,
+
+	/**
+	 * Crawl the complete address space and search all incomplete nodeIds in it
+	 */
+	CRAWL
+}
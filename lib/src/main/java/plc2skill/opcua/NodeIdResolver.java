@@ -0,0 +1,18 @@
+package plc2skill.opcua;
+
+import java.util.Collection;
+
+/**
+ * Resolves the incomplete nodeIds of a PLCopen export to complete nodeIds. Implemented by {@link OpcUaBrowser} for a live server and by
+ * {@link AddressSpaceSnapshot} for a previously captured address space
+ */
+public interface NodeIdResolver {
+
+	/**
+	 * Resolves a batch of incomplete nodeIds
+	 * @param incompleteNodeIds Partial nodeIds containing the application structure (with the POUs) and the local var name
+	 * @return The resolved nodeIds together with an error message for every nodeId that could not be resolved
+	 */
+	NodeIdResolution findNodeIds(Collection<String> incompleteNodeIds);
+
+}
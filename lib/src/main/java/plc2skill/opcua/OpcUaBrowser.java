@@ -1,108 +1,203 @@
 package plc2skill.opcua;
 
-import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
-import static org.eclipse.milo.opcua.stack.core.util.ConversionUtil.toList;
-
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
-import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.NamespaceTable;
 import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
-import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
-import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
-import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
 import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
-import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class OpcUaBrowser {
+public class OpcUaBrowser implements AutoCloseable, NodeIdResolver {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	private OpcUaSession session;
+	private OpcUaSessionPool sessionPool;	// Pool the session was borrowed from, null if the session is owned by this browser
 	private OpcUaClient client;
 	private NamespaceTable nsTable;
-	private TreeNode<ReferenceDescription> referenceTree;
-	OpcUaClientCreator creator = new OpcUaClientCreator();
+	private AddressSpaceTree addressSpaceTree;
+	private AddressSpaceIndex index;
+	private BrowseSettings browseSettings;
+	private AddressSpaceCache addressSpaceCache;
+	private boolean closed = false;
+	private volatile boolean failed = false;	// Set if a service call failed, the session is then not returned to the pool
 	
 	public OpcUaBrowser(String endpointUrl, String user, String password) throws Exception {
-		// Create a client with the given credentials, connect and create a namespace table (later needed for resolving nodeIds)
-		this.client = this.creator.createClient(endpointUrl, user, password);
-		this.client.connect().get();
-		this.nsTable = this.client.getNamespaceTable();
-		
-		// Create the tree-structure of all OPC UA nodes of the server starting with the ObjectsFolder
-		this.referenceTree = this.browseAllNodes(Identifiers.ObjectsFolder, null);
+		this(endpointUrl, user, password, new BrowseSettings());
+	}
+	
+	/**
+	 * Creates a browser with its own session. The session is closed when the browser is closed
+	 */
+	public OpcUaBrowser(String endpointUrl, String user, String password, BrowseSettings browseSettings) throws Exception {
+		// Create a client with the given credentials and connect
+		this(OpcUaSession.connect(endpointUrl, user, password), null, browseSettings);
+	}
+	
+	/**
+	 * Creates a browser that borrows a session from a pool. The session is returned to the pool when the browser is closed
+	 */
+	public OpcUaBrowser(OpcUaSessionPool sessionPool, String endpointUrl, String user, String password, BrowseSettings browseSettings) throws Exception {
+		this(sessionPool.borrow(endpointUrl, user, password), sessionPool, browseSettings);
+	}
+	
+	private OpcUaBrowser(OpcUaSession session, OpcUaSessionPool sessionPool, BrowseSettings browseSettings) {
+		this.session = session;
+		this.sessionPool = sessionPool;
+		this.client = session.getClient();
+		this.nsTable = this.client.getNamespaceTable();		// Later needed for resolving nodeIds
+		this.browseSettings = browseSettings;
 	}
 	
 	public MessageSecurityMode getSecurityMode() {
-		return this.creator.getMessageSecurityMode();
+		return this.session.getSecurityMode();
 	}
 	
 	public SecurityPolicy getSecurityPolicy() {
-		return this.creator.getSecurityPolicy();
+		return this.session.getSecurityPolicy();
 	}
 	
 	public EndpointDescription getEndpointUsed() {
-		return this.creator.getSelectedEndpoint();
+		return this.session.getEndpointUsed();
 	}
 	
+	/**
+	 * Set a cache that crawled address spaces are taken from and added to. Without a cache, the address space is crawled by every browser
+	 * @param addressSpaceCache Cache shared by several browsers
+	 */
+	public void setAddressSpaceCache(AddressSpaceCache addressSpaceCache) {
+		this.addressSpaceCache = addressSpaceCache;
+	}
 	
 	/**
-	 * Browse all nodes (recursively) to create the tree structure
-	 * @param browseRoot
-	 * @param parent
+	 * Returns a borrowed session to its pool or closes an owned session. A borrowed session is closed as well if a service call failed or the
+	 * connection was lost, so that it is not handed out again. The crawled address space can still be used afterwards
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		if (this.sessionPool != null) {
+			if (this.failed || !this.session.isConnected()) {
+				logger.info("Closing the OPC UA session to {} instead of returning it to the pool as it failed", this.getEndpointUsed().getEndpointUrl());
+				this.sessionPool.invalidate(this.session);
+			} else {
+				this.sessionPool.release(this.session);
+			}
+		} else {
+			this.session.disconnect();
+		}
+	}
+	
+	/**
+	 * Returns the tree-structure of all OPC UA nodes of the server below the scope root (by default the ObjectsFolder). The address space is only
+	 * crawled on first access and only if it is not contained in the address space cache
 	 * @return
 	 */
-	public TreeNode<ReferenceDescription> browseAllNodes(NodeId browseRoot, TreeNode<ReferenceDescription> parent) {
-		BrowseDescription browse = new BrowseDescription(
-				browseRoot, 
-				BrowseDirection.Forward, 
-				Identifiers.References, 
-				true,
-				uint(NodeClass.Object.getValue() | NodeClass.Variable.getValue()), 
-				uint(BrowseResultMask.All.getValue())
-		);
-
-		// On first recursion: Setup empty parent container
-		if (parent == null) {
-			parent = new TreeNode<ReferenceDescription>(null);
+	public synchronized AddressSpaceTree getAddressSpaceTree() {
+		if (this.addressSpaceTree == null) {
+			try {
+				if (this.addressSpaceCache != null) {
+					this.addressSpaceTree = this.addressSpaceCache.getOrCrawl(this.session, this.browseSettings, () -> this.browseAllNodes(this.findScopeRoot()));
+				} else {
+					this.addressSpaceTree = this.browseAllNodes(this.findScopeRoot());
+				}
+			} catch (RuntimeException e) {
+				this.failed = true;
+				throw e;
+			}
+		}
+		return this.addressSpaceTree;
+	}
+	
+	/**
+	 * Finds the node that crawling starts at. This is either the configured start node or, if a start browse name is set, the node with this browse
+	 * name below the start node
+	 * @return
+	 */
+	NodeId findScopeRoot() {
+		NodeId startNode = this.browseSettings.getStartNode();
+		String startBrowseName = this.browseSettings.getStartBrowseName();
+		if (startBrowseName == null || startBrowseName.isEmpty()) {
+			return startNode;
 		}
-		try {
-			// Get all children of current element
-			BrowseResult browseResult = this.client.browse(browse).get();
-			parent.addChildrenData(toList(browseResult.getReferences()));
-			List<TreeNode<ReferenceDescription>> refTreeChildren = parent.getChildren();
-			
-			// For all found children: Do recursion to browse their children
-			for (TreeNode<ReferenceDescription> refNode : refTreeChildren) {
-
-				ReferenceDescription ref = refNode.getData();
-
-				ref.getNodeId().toNodeId(this.nsTable).ifPresent(nodeId -> {
-					browseAllNodes(nodeId, refNode);
-				});
 
-			}
-		} catch (InterruptedException | ExecutionException e) {
-			logger.error("Browsing nodeId={} failed: {}", e.getMessage(), e);
+		BrowsePathTranslator translator = new BrowsePathTranslator(this.client, this.nsTable, this.browseSettings);
+		List<NodeId> scopeRoots = translator.findNodes(startBrowseName);
+		this.failed |= translator.hasFailed();
+		if (scopeRoots.isEmpty()) {
+			logger.warn("No node with browse name {} found. Crawling from {} instead", startBrowseName, startNode);
+			return startNode;
+		}
+		if (scopeRoots.size() > 1) {
+			logger.warn("{} nodes with browse name {} found. Crawling from the first one ({})", scopeRoots.size(), startBrowseName, scopeRoots.get(0));
 		}
-		return parent;
+		return scopeRoots.get(0);
+	}
+	
+	/**
+	 * Writes the crawled address space to a snapshot file, so that nodeIds can later be resolved without a connection to the server
+	 * @param file Snapshot file to write
+	 * @throws IOException
+	 */
+	public void writeSnapshot(Path file) throws IOException {
+		AddressSpaceSnapshot.write(this.getAddressSpaceTree(), this.nsTable.toArray(), this.getEndpointUsed(), file);
+	}
+	
+	/**
+	 * Resolves incomplete nodeIds with batched TranslateBrowsePathsToNodeIds calls instead of crawling the address space
+	 * @param incompleteNodeIds Partial nodeIds containing the application structure (with the POUs) and the local var name
+	 * @return Map from incomplete nodeId to complete nodeId. NodeIds that could not be translated unambiguously are not contained
+	 */
+	public Map<String, NodeId> translateNodeIds(Collection<String> incompleteNodeIds) {
+		BrowsePathTranslator translator = new BrowsePathTranslator(this.client, this.nsTable, this.browseSettings);
+		Map<String, NodeId> translatedNodeIds = translator.translate(incompleteNodeIds);
+		this.failed |= translator.hasFailed();
+		return translatedNodeIds;
+	}
+	
+	
+	/**
+	 * Browse all nodes below browseRoot (breadth-first, in batched and pipelined requests) to create the tree structure
+	 * @param browseRoot
+	 * @return
+	 */
+	public AddressSpaceTree browseAllNodes(NodeId browseRoot) {
+		AddressSpaceCrawler crawler = new AddressSpaceCrawler(this.client, this.nsTable, this.browseSettings);
+		AddressSpaceTree tree = crawler.crawl(browseRoot);
+		// Nodes that could not be browsed even after retrying point to a broken connection or session
+		this.failed |= !tree.isComplete();
+		return tree;
 	}
 	
 
+	/**
+	 * Returns the index used to look up nodes of the address space. It is built once after the address space was crawled
+	 * @return
+	 */
+	public synchronized AddressSpaceIndex getIndex() {
+		if (this.index == null) {
+			this.index = new AddressSpaceIndex(this.getAddressSpaceTree());
+		}
+		return this.index;
+	}
+	
 	/**
 	 * Finds the complete nodeId for a given partial nodeId that contains the browseName
 	 * @param incompleteNodeId Partial nodeId containing a placeholder string
@@ -111,86 +206,97 @@ public class OpcUaBrowser {
 	 */
 	public NodeId findNodeId(String incompleteNodeId) throws NodeIdResolvingException {
 		// PlcOpenXml uses POU names and separates them with a "." - it starts with a dot - so remove first element (which is empty)
-		incompleteNodeId = incompleteNodeId.replaceFirst("^\\.", "");
-		List<String> nodeIdElements = Arrays.asList(incompleteNodeId.split("\\."));
+		List<String> nodeIdElements = new ArrayList<String>(getPathElements(incompleteNodeId));
+		if (nodeIdElements.isEmpty())
+			throw new NodeIdResolvingException(incompleteNodeId);
+		
 		// Reverse the array to make it more natural (local var name is first, then parent POUs follow)
 		Collections.reverse(nodeIdElements);
 
 		// BIG Assumption: localVarName (first array entry) is used as browseName - this is valid for Codesys, but might not be for other tools
-		String localVarName = nodeIdElements.get(0);
-
-		// Convert the tree to a flat list to better filter it
-		List<TreeNode<ReferenceDescription>> flatNodeList = this.referenceTree.toFlatList();
-		List<TreeNode<ReferenceDescription>> matchingRefs = flatNodeList.stream()
-				.filter(isMatchingRef(localVarName))
-				.collect(Collectors.toList());
-
-		if (matchingRefs.size() == 0)
-			throw new NodeIdResolvingException(incompleteNodeId);
-
-		ExpandedNodeId exNodeId = this.findCorrectMatchingRef(nodeIdElements, matchingRefs);
-
-		NodeId nodeId = exNodeId.toNodeId(this.nsTable).orElseThrow(() -> new NodeIdResolvingException(localVarName));
-
-		return nodeId;
+		return this.getIndex().findNodeId(nodeIdElements);
 	}
 	
 	/**
-	 * Wrapper function for a predicate to check whether a reference's browseName matches a given local variable name 
-	 * @param localVarName local variable name (inside a POU)
-	 * @return
+	 * Resolves a batch of incomplete nodeIds. If enabled, all nodeIds are first translated on the server. The remaining ones are grouped by their
+	 * local var name and looked up in the crawled address space in a single pass
+	 * @param incompleteNodeIds Partial nodeIds containing the application structure (with the POUs) and the local var name
+	 * @return The resolved nodeIds together with an error message for every nodeId that could not be resolved
 	 */
-	private Predicate<TreeNode<ReferenceDescription>> isMatchingRef(String localVarName) {
-		return ref -> ((!ref.isRoot()) && (ref.getData().getBrowseName().getName().equals(localVarName)));
-	}
-	
-	
-	/**
-	 * By comparing only the browseNames, multiple matches may be found. Thus, we need to compare their parents (representing the POU) to get the "real" match
-	 * @param nodeIdElements String array containing a partial nodeId that consists of a template string, the application structure (with the POUs) and the local var name
-	 * @param matchingRefs A list of matching reference descriptions after comparing only their local variable name
-	 * @return
-	 * @throws NodeIdResolvingException
-	 */
-	private ExpandedNodeId findCorrectMatchingRef(List<String> nodeIdElements, List<TreeNode<ReferenceDescription>> matchingRefs) throws NodeIdResolvingException {
-		// If there is only one, we can simply return this one's nodeId
-		if (matchingRefs.size() == 1) {
-			return matchingRefs.get(0).getData().getNodeId();
+	@Override
+	public NodeIdResolution findNodeIds(Collection<String> incompleteNodeIds) {
+		NodeIdResolution resolution = new NodeIdResolution();
+		Set<String> remainingNodeIds = new LinkedHashSet<String>(incompleteNodeIds);
+
+		if (this.browseSettings.getResolutionMode() == NodeIdResolutionMode.TRANSLATE_BROWSE_PATHS) {
+			Map<String, NodeId> translatedNodeIds = this.translateNodeIds(remainingNodeIds);
+			translatedNodeIds.forEach(resolution::addResolved);
+			remainingNodeIds.removeAll(translatedNodeIds.keySet());
 		}
-		// If there are more, we need to compare their parents
-		List<TreeNode<ReferenceDescription>> matchesAfterParentComparison = this.compareAncestors(matchingRefs, nodeIdElements, 0);
-		
-		if (matchesAfterParentComparison.size() == 0) {
-			String unresolvedNodeId = String.join(".", nodeIdElements);
-			throw new NodeIdResolvingException("No matches for the unresolved nodeId " + unresolvedNodeId + ". Please resolve this nodeId manually");
+		if (remainingNodeIds.isEmpty()) {
+			return resolution;
 		}
 
-		// Browsing can return multiple referenceDescriptions to one node. In the end, we need to return one nodeId -> correctMatches need to be made unique
-		Set<ExpandedNodeId> correctMatchNodeIds = matchesAfterParentComparison.stream().map(correctMatch -> correctMatch.getData().getNodeId()).collect(Collectors.toSet());
+		// Group by local var name, so that only nodes with these names have to be looked at
+		Map<String, List<List<String>>> pathsByLocalVarName = new HashMap<String, List<List<String>>>();
+		Map<List<String>, String> incompleteNodeIdsByPath = new HashMap<List<String>, String>();
+		for (String incompleteNodeId : remainingNodeIds) {
+			List<String> nodeIdElements = new ArrayList<String>(getPathElements(incompleteNodeId));
+			if (nodeIdElements.isEmpty()) {
+				resolution.addError(incompleteNodeId, new NodeIdResolvingException(incompleteNodeId).getMessage());
+				continue;
+			}
+			Collections.reverse(nodeIdElements);
+			pathsByLocalVarName.computeIfAbsent(nodeIdElements.get(0), name -> new ArrayList<List<String>>()).add(nodeIdElements);
+			incompleteNodeIdsByPath.put(nodeIdElements, incompleteNodeId);
+		}
 
-		// There should be exactly one correct match. If there are more or none, we can only throw an error
-		if (correctMatchNodeIds.size() > 1) {
-			String unresolvedNodeId = String.join(".", nodeIdElements);
-			throw new NodeIdResolvingException(
-					"There are '" + correctMatchNodeIds.size() + "' matches for the unresolved nodeId " + unresolvedNodeId + ". Please resolve this nodeId manually");
+		// Reuse a complete index if there is one, otherwise only index the nodes that are needed for this batch
+		boolean parallel = this.browseSettings.isParallelResolution();
+		AddressSpaceIndex batchIndex;
+		synchronized (this) {
+			batchIndex = this.index;
+		}
+		if (batchIndex == null) {
+			batchIndex = new AddressSpaceIndex(this.getAddressSpaceTree(), pathsByLocalVarName.keySet(), parallel);
 		}
 
-		return correctMatchNodeIds.iterator().next();
+		AddressSpaceIndex lookupIndex = batchIndex;
+		Stream<List<List<String>>> groups = parallel ? pathsByLocalVarName.values().parallelStream() : pathsByLocalVarName.values().stream();
+		groups.forEach(paths -> {
+			for (List<String> path : paths) {
+				String incompleteNodeId = incompleteNodeIdsByPath.get(path);
+				try {
+					resolution.addResolved(incompleteNodeId, lookupIndex.findNodeId(path));
+				} catch (NodeIdResolvingException e) {
+					resolution.addError(incompleteNodeId, e.getMessage());
+				}
+			}
+		});
+
+		logger.info("Resolved {} of {} nodeIds", resolution.getResolvedNodeIds().size(), incompleteNodeIds.size());
+		return resolution;
 	}
 	
-	private List<TreeNode<ReferenceDescription>> compareAncestors(List<TreeNode<ReferenceDescription>> matchesBeforeComparison, List<String> nodeIdElements, int index) {
-		String currentParentName = nodeIdElements.get(index);
-		final int currentIndex = index;
-		List<TreeNode<ReferenceDescription>> matches = matchesBeforeComparison.stream().filter(matchingRef -> {
-			String parentBrowseName = matchingRef.getAncestor(currentIndex).getData().getBrowseName().getName();
-			return (parentBrowseName.equals(currentParentName));
-		}).collect(Collectors.toList());
-		
-		if(matches.size() > 1 && index < nodeIdElements.size()-1) {
-			matches = this.compareAncestors(matches, nodeIdElements, ++index);
+	/**
+	 * Splits an incomplete nodeId into its elements (POU instance, nested POUs, local var name)
+	 * @param incompleteNodeId Partial nodeId, optionally starting with a "."
+	 * @return
+	 */
+	static List<String> getPathElements(String incompleteNodeId) {
+		List<String> pathElements = new ArrayList<String>();
+		int start = incompleteNodeId.startsWith(".") ? 1 : 0;
+		if (start >= incompleteNodeId.length()) {
+			return pathElements;
 		}
 		
-		return matches;
+		int end;
+		while ((end = incompleteNodeId.indexOf('.', start)) >= 0) {
+			pathElements.add(incompleteNodeId.substring(start, end));
+			start = end + 1;
+		}
+		pathElements.add(incompleteNodeId.substring(start));
+		return pathElements;
 	}
 
 }
@@ -1,33 +1,172 @@
 package plc2skill.opcua;
 
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.client.DiscoveryClient;
+import org.eclipse.milo.opcua.stack.core.Stack;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.UserTokenType;
 import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.UserTokenPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class OpcUaClientCreator {
 
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	// Status codes of a failed connect that indicate that a cached endpoint no longer matches the server. Rejected identity tokens are not contained,
+	// they mean wrong credentials and fetching the endpoints again would not help
+	private static final Set<Long> endpointMismatchCodes = new HashSet<Long>(Arrays.asList(
+			StatusCodes.Bad_CertificateInvalid,
+			StatusCodes.Bad_CertificateUntrusted,
+			StatusCodes.Bad_CertificateUriInvalid,
+			StatusCodes.Bad_CertificateHostNameInvalid,
+			StatusCodes.Bad_SecurityChecksFailed,
+			StatusCodes.Bad_SecurityPolicyRejected,
+			StatusCodes.Bad_TcpEndpointUrlInvalid));
+
 	MessageSecurityMode messageSecurityMode;
 	SecurityPolicy securityPolicy;
 	EndpointSelector selector;
 	Optional<EndpointDescription> selectedEndpoint;
-	
+	private final EndpointCache endpointCache;
+	private boolean usedCachedEndpoint = false;
+
+	public OpcUaClientCreator() {
+		this(EndpointCache.getDefault());
+	}
+
+	/**
+	 * @param endpointCache Cache of selected endpoints that is used to skip endpoint discovery
+	 */
+	public OpcUaClientCreator(EndpointCache endpointCache) {
+		this.endpointCache = endpointCache;
+	}
+
+	/**
+	 * Creates a client for the endpoint of a server. If there is a cached endpoint for the endpointUrl and authentication mode, the client is
+	 * configured directly from it. Otherwise, the endpoints of the server are discovered and the selected one is cached
+	 * @param endpointUrl EndpointUrl of the server
+	 * @param user User name, may be null or empty for anonymous access
+	 * @param password Password, may be null or empty for anonymous access
+	 * @return The client, not yet connected
+	 * @throws Exception If the server cannot be reached or has no suitable endpoint
+	 */
 	protected OpcUaClient createClient(String endpointUrl, String user, String password) throws Exception {
 		this.selector = new EndpointSelector(this, user, password);
-		OpcUaClient client = OpcUaClient.create(endpointUrl, endpoints -> this.selectSuitableEndpoint(endpoints), configBuilder -> selector.getConfig());
+		EndpointDescription endpoint = this.resolveEndpoint(endpointUrl);
+		this.selector.applyEndpoint(endpoint);
+		return OpcUaClient.create(this.selector.getConfig());
+	}
+
+	/**
+	 * Creates a client and connects it. If connecting with a cached endpoint fails because of a certificate or endpoint mismatch, the cached endpoint
+	 * is dropped and connecting is retried once with a freshly discovered endpoint
+	 * @param endpointUrl EndpointUrl of the server
+	 * @param user User name, may be null or empty for anonymous access
+	 * @param password Password, may be null or empty for anonymous access
+	 * @return The connected client
+	 * @throws Exception If no connection could be made
+	 */
+	public OpcUaClient createConnectedClient(String endpointUrl, String user, String password) throws Exception {
+		OpcUaClient client = this.createClient(endpointUrl, user, password);
+		try {
+			client.connect().get();
+			return client;
+		} catch (ExecutionException e) {
+			if (!this.usedCachedEndpoint || !isEndpointMismatch(e.getCause())) {
+				throw e;
+			}
+			logger.info("Connecting to the cached endpoint of {} failed ({}), discovering endpoints again", endpointUrl, e.getCause().getMessage());
+			client.disconnect();
+			this.endpointCache.invalidate(endpointUrl, this.selector.getTokenType());
+		}
 
+		client = this.createClient(endpointUrl, user, password);
+		client.connect().get();
 		return client;
 	}
 
-	private Optional<EndpointDescription> selectSuitableEndpoint(List<EndpointDescription> endpoints) {
-		this.selectedEndpoint = this.selector.filterEndpointsAndTrustServer(endpoints);
-		return this.selectedEndpoint;
+	/**
+	 * Selects a suitable endpoint of a server with a single GetEndpoints call. No session is created. A cached endpoint is returned without
+	 * contacting the server
+	 * @param endpointUrl Discovery URL of the server
+	 * @param user User name, may be null or empty for anonymous access
+	 * @param password Password, may be null or empty for anonymous access
+	 * @return The endpoint that would be used for connecting
+	 * @throws Exception If the server cannot be reached or has no suitable endpoint
+	 */
+	public EndpointDescription discoverEndpoint(String endpointUrl, String user, String password) throws Exception {
+		this.selector = new EndpointSelector(this, user, password);
+		EndpointDescription endpoint = this.resolveEndpoint(endpointUrl);
+		this.selector.applyEndpoint(endpoint);
+		return endpoint;
 	}
-	
+
+	/**
+	 * Returns the cached endpoint for the endpointUrl and the authentication mode of the current selector or discovers and caches it
+	 * @param endpointUrl EndpointUrl of the server
+	 * @return
+	 * @throws Exception If the server cannot be reached or has no suitable endpoint
+	 */
+	private EndpointDescription resolveEndpoint(String endpointUrl) throws Exception {
+		UserTokenType tokenType = this.selector.getTokenType();
+		EndpointDescription endpoint = this.endpointCache.get(endpointUrl, tokenType);
+		this.usedCachedEndpoint = (endpoint != null);
+
+		if (endpoint == null) {
+			List<EndpointDescription> endpoints = DiscoveryClient.getEndpoints(endpointUrl).get();
+			endpoint = this.selector.selectEndpoint(endpoints)
+					.orElseThrow(() -> new UaException(StatusCodes.Bad_ConfigurationError, "No endpoint of " + endpointUrl + " supports " + tokenType + " authentication"));
+			this.endpointCache.put(endpointUrl, tokenType, endpoint);
+		}
+
+		this.selectedEndpoint = Optional.of(endpoint);
+		return endpoint;
+	}
+
+	/**
+	 * Checks whether a connect failed because the endpoint configuration does not match the server (anymore)
+	 * @param cause Cause of the failed connect
+	 * @return
+	 */
+	private static boolean isEndpointMismatch(Throwable cause) {
+		for (Throwable t = cause; t != null; t = t.getCause()) {
+			if (t instanceof UaException) {
+				return endpointMismatchCodes.contains(((UaException) t).getStatusCode().getValue());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates an endpoint description from known parameters without contacting the server
+	 * @param endpointUrl Endpoint URL of the server
+	 * @param securityMode Message security mode of the endpoint
+	 * @param securityPolicy Security policy of the endpoint
+	 * @param tokenType Type of the user identity token
+	 * @return
+	 */
+	public static EndpointDescription createEndpointDescription(String endpointUrl, MessageSecurityMode securityMode, SecurityPolicy securityPolicy,
+			UserTokenType tokenType) {
+		UserTokenPolicy userTokenPolicy = new UserTokenPolicy(tokenType.name(), tokenType, null, null, null);
+		return new EndpointDescription(endpointUrl, null, ByteString.NULL_VALUE, securityMode, securityPolicy.getUri(),
+				new UserTokenPolicy[] { userTokenPolicy }, Stack.TCP_UASC_UABINARY_TRANSPORT_URI, ubyte(0));
+	}
+
 	public EndpointDescription getSelectedEndpoint() {
 		return this.selectedEndpoint.get();
 	}
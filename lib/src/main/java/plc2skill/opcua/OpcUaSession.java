@@ -0,0 +1,137 @@
+package plc2skill.opcua;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.SessionActivityListener;
+import org.eclipse.milo.opcua.sdk.client.api.UaSession;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connected client together with the endpoint information that was used to connect. Sessions are either owned by one {@link OpcUaBrowser} or
+ * borrowed from an {@link OpcUaSessionPool}
+ */
+public class OpcUaSession {
+
+	private static final Logger logger = LoggerFactory.getLogger(OpcUaSession.class);
+
+	private final OpcUaClient client;
+	private final EndpointDescription endpointUsed;
+	private final MessageSecurityMode securityMode;
+	private final SecurityPolicy securityPolicy;
+	private volatile long lastUsed = System.currentTimeMillis();
+	private volatile boolean closed = false;
+	private volatile boolean sessionActive = true;
+	private final List<Runnable> closeListeners = new CopyOnWriteArrayList<Runnable>();
+
+	private OpcUaSession(OpcUaClient client, OpcUaClientCreator creator) {
+		this(client, creator.getSelectedEndpoint(), creator.getMessageSecurityMode(), creator.getSecurityPolicy());
+
+		// The client reconnects in the background after the connection was lost, the session can only be used while it is active
+		client.addSessionActivityListener(new SessionActivityListener() {
+			@Override
+			public void onSessionActive(UaSession session) {
+				sessionActive = true;
+			}
+
+			@Override
+			public void onSessionInactive(UaSession session) {
+				sessionActive = false;
+			}
+		});
+	}
+
+	/**
+	 * Creates a session for a client that is already connected
+	 * @param client Connected client
+	 * @param endpointUsed Endpoint the client is connected to
+	 * @param securityMode Message security mode of the connection
+	 * @param securityPolicy Security policy of the connection
+	 */
+	protected OpcUaSession(OpcUaClient client, EndpointDescription endpointUsed, MessageSecurityMode securityMode, SecurityPolicy securityPolicy) {
+		this.client = client;
+		this.endpointUsed = endpointUsed;
+		this.securityMode = securityMode;
+		this.securityPolicy = securityPolicy;
+	}
+
+	/**
+	 * Creates a client with the given credentials and connects it
+	 * @param endpointUrl EndpointUrl of the server
+	 * @param user User name, may be null or empty for anonymous access
+	 * @param password Password, may be null or empty for anonymous access
+	 * @return The connected session
+	 * @throws Exception If no connection could be made
+	 */
+	public static OpcUaSession connect(String endpointUrl, String user, String password) throws Exception {
+		OpcUaClientCreator creator = new OpcUaClientCreator();
+		OpcUaClient client = creator.createConnectedClient(endpointUrl, user, password);
+		return new OpcUaSession(client, creator);
+	}
+
+	/**
+	 * Closes the session and the secure channel. Errors are only logged as there is nothing left to do
+	 */
+	public void disconnect() {
+		this.closed = true;
+		try {
+			this.client.disconnect().get(5, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			logger.warn("Error while disconnecting from {}: {}", this.endpointUsed.getEndpointUrl(), e.getMessage());
+		}
+		this.closeListeners.forEach(Runnable::run);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return true if the session is open and its connection to the server is active, i.e. service calls can be made
+	 */
+	public boolean isConnected() {
+		return !this.closed && this.sessionActive;
+	}
+
+	public OpcUaClient getClient() {
+		return client;
+	}
+
+	public EndpointDescription getEndpointUsed() {
+		return endpointUsed;
+	}
+
+	public MessageSecurityMode getSecurityMode() {
+		return securityMode;
+	}
+
+	public SecurityPolicy getSecurityPolicy() {
+		return securityPolicy;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void touch() {
+		this.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Registers a callback that is run after the session was disconnected, e.g. to drop data that is only valid while the session is open
+	 */
+	void addCloseListener(Runnable listener) {
+		this.closeListeners.add(listener);
+	}
+
+	void removeCloseListener(Runnable listener) {
+		this.closeListeners.remove(listener);
+	}
+
+}
@@ -0,0 +1,263 @@
+package plc2skill.opcua;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of connected OPC UA sessions that can be reused across mappings. Sessions are pooled per endpoint URL and credentials. The number of sessions
+ * per endpoint is limited so that the session limit of a PLC is never exhausted, and sessions that were not used for some time are closed.
+ */
+public class OpcUaSessionPool implements AutoCloseable {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final int maxSessionsPerEndpoint;
+	private final long idleTimeoutMillis;
+	private final long borrowTimeoutMillis;
+
+	private final Map<SessionKey, Deque<OpcUaSession>> idleSessions = new HashMap<SessionKey, Deque<OpcUaSession>>();
+	private final Map<SessionKey, Integer> openSessions = new HashMap<SessionKey, Integer>();
+	private final Map<OpcUaSession, SessionKey> borrowedSessions = new HashMap<OpcUaSession, SessionKey>();
+	private final ScheduledExecutorService evictionExecutor;
+	private boolean closed = false;
+
+	/**
+	 * Creates a pool with at most 2 sessions per endpoint that are closed after 5 minutes without use
+	 */
+	public OpcUaSessionPool() {
+		this(2, TimeUnit.MINUTES.toMillis(5), TimeUnit.SECONDS.toMillis(30));
+	}
+
+	/**
+	 * Creates a pool with custom limits
+	 * @param maxSessionsPerEndpoint Maximum number of sessions per endpoint URL and credentials
+	 * @param idleTimeoutMillis Time after which an unused session is closed
+	 * @param borrowTimeoutMillis Time to wait for a free session if the maximum number of sessions is in use
+	 */
+	public OpcUaSessionPool(int maxSessionsPerEndpoint, long idleTimeoutMillis, long borrowTimeoutMillis) {
+		this.maxSessionsPerEndpoint = Math.max(1, maxSessionsPerEndpoint);
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+
+		this.evictionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "opcua-session-pool-eviction");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long evictionInterval = Math.max(1000, idleTimeoutMillis / 2);
+		this.evictionExecutor.scheduleWithFixedDelay(this::evictIdleSessions, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connected session. An idle session is reused if there is one that is still connected, otherwise a new session is created. If the
+	 * maximum number of sessions for this endpoint is in use, this waits until one is returned
+	 * @param endpointUrl EndpointUrl of the server
+	 * @param user User name, may be null or empty for anonymous access
+	 * @param password Password, may be null or empty for anonymous access
+	 * @return A connected session that has to be returned with {@link #release(OpcUaSession)}
+	 * @throws Exception If no session could be created or no session became available in time
+	 */
+	public OpcUaSession borrow(String endpointUrl, String user, String password) throws Exception {
+		SessionKey key = new SessionKey(endpointUrl, user, password);
+		long deadline = System.currentTimeMillis() + this.borrowTimeoutMillis;
+		List<OpcUaSession> lostSessions = new ArrayList<OpcUaSession>();
+
+		try {
+			synchronized (this) {
+				while (true) {
+					if (this.closed) {
+						throw new IllegalStateException("The session pool is closed");
+					}
+
+					Deque<OpcUaSession> idle = this.idleSessions.get(key);
+					while (idle != null && !idle.isEmpty()) {
+						OpcUaSession session = idle.pollFirst();
+						if (session.isConnected()) {
+							this.borrowedSessions.put(session, key);
+							return session;
+						}
+						// The connection was lost while the session was idle, its slot is used for a new session
+						lostSessions.add(session);
+						this.openSessions.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+						this.notifyAll();
+					}
+
+					if (this.openSessions.getOrDefault(key, 0) < this.maxSessionsPerEndpoint) {
+						// Reserve a slot, the session is connected outside of the lock
+						this.openSessions.merge(key, 1, Integer::sum);
+						break;
+					}
+
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new TimeoutException("No free OPC UA session for " + endpointUrl + " within " + this.borrowTimeoutMillis + " ms");
+					}
+					this.wait(remaining);
+				}
+			}
+		} finally {
+			lostSessions.forEach(OpcUaSession::disconnect);
+		}
+
+		try {
+			OpcUaSession session = this.connect(endpointUrl, user, password);
+			synchronized (this) {
+				this.borrowedSessions.put(session, key);
+			}
+			logger.info("Opened new OPC UA session to {}", endpointUrl);
+			return session;
+		} catch (Exception e) {
+			this.freeSlot(key);
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates and connects a new session
+	 * @param endpointUrl EndpointUrl of the server
+	 * @param user User name, may be null or empty for anonymous access
+	 * @param password Password, may be null or empty for anonymous access
+	 * @return The connected session
+	 * @throws Exception If no connection could be made
+	 */
+	protected OpcUaSession connect(String endpointUrl, String user, String password) throws Exception {
+		return OpcUaSession.connect(endpointUrl, user, password);
+	}
+
+	/**
+	 * Returns a borrowed session to the pool so that it can be reused. A session that is no longer connected is closed instead
+	 * @param session Session that was borrowed from this pool
+	 */
+	public void release(OpcUaSession session) {
+		if (!session.isConnected()) {
+			this.invalidate(session);
+			return;
+		}
+		synchronized (this) {
+			SessionKey key = this.borrowedSessions.remove(session);
+			if (key == null) {
+				return;
+			}
+			if (!this.closed) {
+				session.touch();
+				this.idleSessions.computeIfAbsent(key, k -> new ArrayDeque<OpcUaSession>()).addFirst(session);
+				this.notifyAll();
+				return;
+			}
+			this.openSessions.remove(key);
+		}
+		session.disconnect();
+	}
+
+	/**
+	 * Closes a borrowed session instead of returning it, e.g. because it is broken
+	 * @param session Session that was borrowed from this pool
+	 */
+	public void invalidate(OpcUaSession session) {
+		SessionKey key;
+		synchronized (this) {
+			key = this.borrowedSessions.remove(session);
+		}
+		session.disconnect();
+		if (key != null) {
+			this.freeSlot(key);
+		}
+	}
+
+	private synchronized void freeSlot(SessionKey key) {
+		this.openSessions.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+		this.notifyAll();
+	}
+
+	/**
+	 * Closes all sessions that were not used within the idle timeout or that lost their connection
+	 */
+	void evictIdleSessions() {
+		List<OpcUaSession> expiredSessions = new ArrayList<OpcUaSession>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			for (Map.Entry<SessionKey, Deque<OpcUaSession>> idleEntry : this.idleSessions.entrySet()) {
+				Iterator<OpcUaSession> sessions = idleEntry.getValue().iterator();
+				while (sessions.hasNext()) {
+					OpcUaSession session = sessions.next();
+					if (now - session.getLastUsed() >= this.idleTimeoutMillis || !session.isConnected()) {
+						sessions.remove();
+						expiredSessions.add(session);
+						this.openSessions.computeIfPresent(idleEntry.getKey(), (k, count) -> count > 1 ? count - 1 : null);
+					}
+				}
+			}
+			this.idleSessions.values().removeIf(Deque::isEmpty);
+			if (!expiredSessions.isEmpty()) {
+				this.notifyAll();
+			}
+		}
+
+		for (OpcUaSession session : expiredSessions) {
+			logger.info("Closing idle OPC UA session to {}", session.getEndpointUsed().getEndpointUrl());
+			session.disconnect();
+		}
+	}
+
+	/**
+	 * Closes all idle sessions. Sessions that are still borrowed are closed when they are released
+	 */
+	@Override
+	public void close() {
+		List<OpcUaSession> sessionsToClose = new ArrayList<OpcUaSession>();
+		synchronized (this) {
+			this.closed = true;
+			for (Deque<OpcUaSession> idle : this.idleSessions.values()) {
+				sessionsToClose.addAll(idle);
+			}
+			this.idleSessions.clear();
+			this.openSessions.clear();
+			this.notifyAll();
+		}
+
+		this.evictionExecutor.shutdownNow();
+		for (OpcUaSession session : sessionsToClose) {
+			session.disconnect();
+		}
+	}
+
+	private static class SessionKey {
+		final String endpointUrl;
+		final String user;
+		final String password;
+
+		SessionKey(String endpointUrl, String user, String password) {
+			this.endpointUrl = endpointUrl;
+			this.user = (user != null) ? user : "";
+			this.password = (password != null) ? password : "";
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SessionKey)) {
+				return false;
+			}
+			SessionKey other = (SessionKey) obj;
+			return Objects.equals(this.endpointUrl, other.endpointUrl) && this.user.equals(other.user) && this.password.equals(other.password);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.endpointUrl, this.user, this.password);
+		}
+	}
+}
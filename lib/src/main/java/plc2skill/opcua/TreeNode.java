@@ -9,11 +9,9 @@ public class TreeNode<T> implements Iterable<TreeNode<T>> {
 	private T data;
 	private TreeNode<T> parent;
 	private List<TreeNode<T>> children = new ArrayList<TreeNode<T>>();
-	private List<TreeNode<T>> elementsIndex = new ArrayList<TreeNode<T>>();	// Flat list to better search for elements
 	
 	public TreeNode(T data) {
 		this.data = data;
-		this.elementsIndex.add(this);
 	}
 	
 	private void setParent(TreeNode<T> parent) {
@@ -23,7 +21,6 @@ public class TreeNode<T> implements Iterable<TreeNode<T>> {
 	public void addChild(TreeNode<T> newChildNode) {
 		newChildNode.setParent(this);
 		this.children.add(newChildNode);
-		this.addToIndex(newChildNode);
 	}
 	
 	public void addChildrenData(List<T> newChildNodesData) {
@@ -39,13 +36,6 @@ public class TreeNode<T> implements Iterable<TreeNode<T>> {
 		}
 	}
 	
-	private void addToIndex(TreeNode<T> node) {
-		this.elementsIndex.add(node);
-		if (!this.isRoot()) {
-			parent.addToIndex(node);
-		}
-	}
-	
 	public T getData() {
 		return this.data;
 	}
@@ -79,8 +69,16 @@ public class TreeNode<T> implements Iterable<TreeNode<T>> {
 		return this.children;
 	}
 	
+	/**
+	 * Returns this node and all of its descendants in depth-first order. The list is created on each call
+	 * @return
+	 */
 	public List<TreeNode<T>> toFlatList() {
-		return this.elementsIndex;
+		List<TreeNode<T>> flatList = new ArrayList<TreeNode<T>>();
+		for (TreeNode<T> node : this) {
+			flatList.add(node);
+		}
+		return flatList;
 	}
 	
 	@Override
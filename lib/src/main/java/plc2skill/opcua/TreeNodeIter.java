@@ -1,72 +1,72 @@
 package plc2skill.opcua;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * Depth-first (pre-order) iterator over a tree. Uses an explicit stack of nodes and child positions instead of nested child iterators, so no objects
+ * are created per element and every step takes constant amortized time
+ */
 public class TreeNodeIter<T> implements Iterator<TreeNode<T>> {
 
-	enum ProcessStages {
-		ProcessParent, ProcessChildCurNode, ProcessChildSubNode
-	}
+	// Stack of nodes whose children are currently iterated, together with the position of the next child to visit
+	private TreeNode<?>[] nodes = new TreeNode<?>[16];
+	private int[] childPositions = new int[16];
+	private int depth = 0;
 
-	private TreeNode<T> treeNode;
+	private TreeNode<T> next;
 
 	public TreeNodeIter(TreeNode<T> treeNode) {
-		this.treeNode = treeNode;
-		this.doNext = ProcessStages.ProcessParent;
-		this.childrenCurNodeIter = treeNode.getChildren().iterator();
+		this.next = treeNode;
 	}
 
-	private ProcessStages doNext;
-	private TreeNode<T> next;
-	private Iterator<TreeNode<T>> childrenCurNodeIter;
-	private Iterator<TreeNode<T>> childrenSubNodeIter;
-
 	@Override
 	public boolean hasNext() {
+		return this.next != null;
+	}
 
-		if (this.doNext == ProcessStages.ProcessParent) {
-			this.next = this.treeNode;
-			this.doNext = ProcessStages.ProcessChildCurNode;
-			return true;
+	@Override
+	public TreeNode<T> next() {
+		if (this.next == null) {
+			throw new NoSuchElementException();
 		}
 
-		if (this.doNext == ProcessStages.ProcessChildCurNode) {
-			if (childrenCurNodeIter.hasNext()) {
-				TreeNode<T> childDirect = childrenCurNodeIter.next();
-				childrenSubNodeIter = childDirect.iterator();
-				this.doNext = ProcessStages.ProcessChildSubNode;
-				return hasNext();
-			}
-
-			else {
-				this.doNext = null;
-				return false;
-			}
+		TreeNode<T> current = this.next;
+		if (!current.isLeaf()) {
+			this.push(current);
+			this.next = current.getChildren().get(0);
+		} else {
+			this.next = this.findNextSibling();
 		}
-		
-		if (this.doNext == ProcessStages.ProcessChildSubNode) {
-			if (childrenSubNodeIter.hasNext()) {
-				this.next = childrenSubNodeIter.next();
-				return true;
-			}
-			else {
-				this.next = null;
-				this.doNext = ProcessStages.ProcessChildCurNode;
-				return hasNext();
-			}
-		}
-
-		return false;
+		return current;
 	}
 
-	@Override
-	public TreeNode<T> next() {
-		return this.next;
+	/**
+	 * Walks up the stack until a node with unvisited children is found
+	 */
+	@SuppressWarnings("unchecked")
+	private TreeNode<T> findNextSibling() {
+		while (this.depth > 0) {
+			TreeNode<T> parent = (TreeNode<T>) this.nodes[this.depth - 1];
+			int position = this.childPositions[this.depth - 1];
+			if (position < parent.getChildren().size()) {
+				this.childPositions[this.depth - 1]++;
+				return parent.getChildren().get(position);
+			}
+			this.nodes[--this.depth] = null;
+		}
+		return null;
 	}
 
-	@Override
-	public void remove() {
-		throw new UnsupportedOperationException();
+	private void push(TreeNode<T> node) {
+		if (this.depth == this.nodes.length) {
+			this.nodes = Arrays.copyOf(this.nodes, this.depth * 2);
+			this.childPositions = Arrays.copyOf(this.childPositions, this.depth * 2);
+		}
+		this.nodes[this.depth] = node;
+		this.childPositions[this.depth] = 1;	// The first child is returned right away
+		this.depth++;
 	}
 
-}
\ No newline at end of file
+}
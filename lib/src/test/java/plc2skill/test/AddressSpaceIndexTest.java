@@ -0,0 +1,154 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.junit.jupiter.api.Test;
+
+import plc2skill.opcua.AddressSpaceIndex;
+import plc2skill.opcua.AddressSpaceNode;
+import plc2skill.opcua.AddressSpaceTree;
+import plc2skill.opcua.NodeIdResolvingException;
+
+class AddressSpaceIndexTest {
+
+	private static final int NS = 4;
+
+	/**
+	 * Builds a small CODESYS-like address space:
+	 * <pre>
+	 * Application
+	 *   PLC_PRG
+	 *     drillingSkill_1
+	 *       currentState
+	 *       numberOfHoles
+	 *     punchingSkill_1
+	 *       currentState
+	 *   GVL
+	 *     currentState
+	 *   Folder
+	 *     sharedSkill (also reachable from PLC_PRG)
+	 *       result
+	 *   OtherProgram
+	 *     sharedSkill
+	 *       result
+	 * </pre>
+	 */
+	private AddressSpaceTree createTree() {
+		AddressSpaceTree tree = new AddressSpaceTree();
+		int application = tree.addNode(AddressSpaceTree.ROOT, "Application", nodeId("Application"));
+		int plcPrg = tree.addNode(application, "PLC_PRG", nodeId("Application.PLC_PRG"));
+		int drillingSkill = tree.addNode(plcPrg, "drillingSkill_1", nodeId("Application.PLC_PRG.drillingSkill_1"));
+		tree.addNode(drillingSkill, "currentState", nodeId("Application.PLC_PRG.drillingSkill_1.currentState"));
+		tree.addNode(drillingSkill, "numberOfHoles", nodeId("Application.PLC_PRG.drillingSkill_1.numberOfHoles"));
+		int punchingSkill = tree.addNode(plcPrg, "punchingSkill_1", nodeId("Application.PLC_PRG.punchingSkill_1"));
+		tree.addNode(punchingSkill, "currentState", nodeId("Application.PLC_PRG.punchingSkill_1.currentState"));
+		int gvl = tree.addNode(application, "GVL", nodeId("Application.GVL"));
+		tree.addNode(gvl, "currentState", nodeId("Application.GVL.currentState"));
+
+		int folder = tree.addNode(application, "Folder", nodeId("Application.Folder"));
+		int sharedSkill = tree.addNode(folder, "sharedSkill", nodeId("Application.Folder.sharedSkill"));
+		tree.addNode(sharedSkill, "result", nodeId("Application.Folder.sharedSkill.result"));
+		tree.addParent(sharedSkill, plcPrg);
+		int otherProgram = tree.addNode(application, "OtherProgram", nodeId("Application.OtherProgram"));
+		int otherSharedSkill = tree.addNode(otherProgram, "sharedSkill", nodeId("Application.OtherProgram.sharedSkill"));
+		tree.addNode(otherSharedSkill, "result", nodeId("Application.OtherProgram.sharedSkill.result"));
+		return tree;
+	}
+
+	private static NodeId nodeId(String path) {
+		return new NodeId(NS, "|var|CODESYS Control Win V3 x64." + path);
+	}
+
+	private static List<String> reversedPath(String... pathElements) {
+		return Arrays.asList(pathElements);
+	}
+
+	@Test
+	void testUniqueMatch() throws Exception {
+		AddressSpaceIndex index = new AddressSpaceIndex(this.createTree());
+
+		// Unique by the local var name alone
+		assertThat(index.findNodeId(reversedPath("numberOfHoles", "drillingSkill_1", "PLC_PRG")))
+				.isEqualTo(nodeId("Application.PLC_PRG.drillingSkill_1.numberOfHoles"));
+		// Unique after comparing the parent
+		assertThat(index.findNodeId(reversedPath("currentState", "punchingSkill_1", "PLC_PRG")))
+				.isEqualTo(nodeId("Application.PLC_PRG.punchingSkill_1.currentState"));
+		assertThat(index.findNodeId(reversedPath("currentState", "GVL")))
+				.isEqualTo(nodeId("Application.GVL.currentState"));
+	}
+
+	@Test
+	void testAmbiguousMatch() {
+		AddressSpaceIndex index = new AddressSpaceIndex(this.createTree());
+
+		assertThatThrownBy(() -> index.findNodeId(reversedPath("currentState")))
+				.isInstanceOf(NodeIdResolvingException.class)
+				.hasMessageContaining("There are '3' matches for the unresolved nodeId currentState");
+		assertThatThrownBy(() -> index.findNodeId(reversedPath("result", "sharedSkill")))
+				.isInstanceOf(NodeIdResolvingException.class)
+				.hasMessageContaining("There are '2' matches for the unresolved nodeId result.sharedSkill");
+	}
+
+	@Test
+	void testNoMatch() {
+		AddressSpaceIndex index = new AddressSpaceIndex(this.createTree());
+
+		// Unknown local var name
+		assertThatThrownBy(() -> index.findNodeId(reversedPath("unknownVariable", "drillingSkill_1", "PLC_PRG")))
+				.isInstanceOf(NodeIdResolvingException.class)
+				.hasMessageContaining("PLC_PRG.drillingSkill_1.unknownVariable");
+		// Known local var name, but no ancestor matches
+		assertThatThrownBy(() -> index.findNodeId(reversedPath("currentState", "unknownSkill", "PLC_PRG")))
+				.isInstanceOf(NodeIdResolvingException.class)
+				.hasMessageContaining("No matches for the unresolved nodeId currentState.unknownSkill.PLC_PRG");
+		assertThat(index.findMatches(reversedPath("currentState", "unknownSkill"))).isEmpty();
+	}
+
+	@Test
+	void testMatchThroughExtraParent() throws Exception {
+		AddressSpaceIndex index = new AddressSpaceIndex(this.createTree());
+
+		// PLC_PRG is only an extra parent of sharedSkill, its tree parent is Folder
+		assertThat(index.findNodeId(reversedPath("result", "sharedSkill", "PLC_PRG")))
+				.isEqualTo(nodeId("Application.Folder.sharedSkill.result"));
+		assertThat(index.findNodeId(reversedPath("result", "sharedSkill", "Folder")))
+				.isEqualTo(nodeId("Application.Folder.sharedSkill.result"));
+		assertThat(index.findNodeId(reversedPath("result", "sharedSkill", "OtherProgram")))
+				.isEqualTo(nodeId("Application.OtherProgram.sharedSkill.result"));
+	}
+
+	@Test
+	void testSequentialAndParallelIndexesAreEqual() {
+		AddressSpaceTree tree = this.createTree();
+		List<List<String>> paths = Arrays.asList(
+				reversedPath("currentState"),
+				reversedPath("currentState", "drillingSkill_1", "PLC_PRG"),
+				reversedPath("currentState", "GVL"),
+				reversedPath("numberOfHoles"),
+				reversedPath("result", "sharedSkill"),
+				reversedPath("result", "sharedSkill", "PLC_PRG"),
+				reversedPath("unknownVariable"));
+
+		AddressSpaceIndex sequentialIndex = new AddressSpaceIndex(tree, null, false);
+		AddressSpaceIndex parallelIndex = new AddressSpaceIndex(tree, null, true);
+		AddressSpaceIndex partialIndex = new AddressSpaceIndex(tree, new HashSet<String>(Arrays.asList("currentState", "result")), true);
+		for (List<String> path : paths) {
+			List<NodeId> expected = this.findNodeIds(sequentialIndex, path);
+			assertThat(this.findNodeIds(parallelIndex, path)).as("parallel %s", path).containsExactlyInAnyOrderElementsOf(expected);
+			if (path.get(0).equals("currentState") || path.get(0).equals("result")) {
+				assertThat(this.findNodeIds(partialIndex, path)).as("partial %s", path).containsExactlyInAnyOrderElementsOf(expected);
+			}
+		}
+	}
+
+	private List<NodeId> findNodeIds(AddressSpaceIndex index, List<String> path) {
+		return index.findMatches(path).stream().map(AddressSpaceNode::getNodeId).collect(Collectors.toList());
+	}
+
+}
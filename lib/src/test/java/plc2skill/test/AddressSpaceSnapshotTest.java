@@ -0,0 +1,136 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import plc2skill.opcua.AddressSpaceIndex;
+import plc2skill.opcua.AddressSpaceSnapshot;
+import plc2skill.opcua.AddressSpaceTree;
+import plc2skill.opcua.NodeIdResolvingException;
+
+class AddressSpaceSnapshotTest {
+
+	private static final String[] NAMESPACE_URIS = { "http://opcfoundation.org/UA/", "urn:server", "urn:numeric", "urn:guid", "urn:codesys",
+			"urn:opaque" };
+
+	@TempDir
+	Path tempDir;
+
+	/**
+	 * Builds an address space with all identifier types:
+	 * <pre>
+	 * Application (numeric)
+	 *   PLC_PRG (string)
+	 *     drillingSkill_1 (GUID)
+	 *       currentState (opaque)
+	 *       numberOfHoles (numeric)
+	 *     punchingSkill_1 (string)
+	 *       currentState (GUID)
+	 *   Folder (numeric)
+	 *     sharedSkill (opaque, also reachable from PLC_PRG and GVL)
+	 *       currentState (string)
+	 *   GVL (string)
+	 * </pre>
+	 */
+	private AddressSpaceTree createTree() {
+		AddressSpaceTree tree = new AddressSpaceTree();
+		int application = tree.addNode(AddressSpaceTree.ROOT, "Application", new NodeId(2, uint(1000)));
+		int plcPrg = tree.addNode(application, "PLC_PRG", new NodeId(4, "|var|CODESYS Control Win V3 x64.Application.PLC_PRG"));
+		int drillingSkill = tree.addNode(plcPrg, "drillingSkill_1", new NodeId(3, UUID.fromString("0c1e5b4a-9f0d-4c1f-8a52-3d6f1b2e7a90")));
+		tree.addNode(drillingSkill, "currentState", new NodeId(5, ByteString.of("drilling.currentState".getBytes(StandardCharsets.UTF_8))));
+		tree.addNode(drillingSkill, "numberOfHoles", new NodeId(2, uint(0xFFFFFFF0L)));
+		int punchingSkill = tree.addNode(plcPrg, "punchingSkill_1", new NodeId(4, "|var|CODESYS Control Win V3 x64.Application.PLC_PRG.punchingSkill_1"));
+		tree.addNode(punchingSkill, "currentState", new NodeId(3, UUID.fromString("7d2c8e11-0b3a-4e6d-9c47-5a8f2e1d3b60")));
+		int folder = tree.addNode(application, "Folder", new NodeId(2, uint(1001)));
+		int sharedSkill = tree.addNode(folder, "sharedSkill", new NodeId(5, ByteString.of(new byte[] { 0, 1, 2, (byte) 0xFF })));
+		tree.addNode(sharedSkill, "currentState", new NodeId(4, "Äußerer Zustand"));
+		int gvl = tree.addNode(application, "GVL", new NodeId(4, "|var|CODESYS Control Win V3 x64.Application.GVL"));
+		tree.addParent(sharedSkill, plcPrg);
+		tree.addParent(sharedSkill, gvl);
+		return tree;
+	}
+
+	private AddressSpaceSnapshot writeAndOpen(AddressSpaceTree tree) throws IOException {
+		Path file = this.tempDir.resolve("addressSpace.snapshot");
+		AddressSpaceSnapshot.write(tree, NAMESPACE_URIS, null, file);
+		return AddressSpaceSnapshot.open(file);
+	}
+
+	@Test
+	void testNodesSurviveRoundTrip() throws Exception {
+		AddressSpaceTree tree = this.createTree();
+		AddressSpaceSnapshot snapshot = this.writeAndOpen(tree);
+
+		assertThat(snapshot.size()).isEqualTo(tree.size());
+		assertThat(snapshot.getNamespaceUris()).containsExactly(NAMESPACE_URIS);
+		assertThat(snapshot.getEndpointDescription()).isNull();
+		for (int node = 1; node < tree.size(); node++) {
+			assertThat(snapshot.getNodeId(node)).as("nodeId of %s", tree.getBrowseName(node)).isEqualTo(tree.getNodeId(node));
+			assertThat(snapshot.getBrowseName(node)).isEqualTo(tree.getBrowseName(node));
+			assertThat(snapshot.getParent(node)).isEqualTo(tree.getParent(node));
+			assertThat(snapshot.getParents(node)).as("parents of %s", tree.getBrowseName(node)).containsExactly(tree.getParents(node));
+		}
+		assertThat(snapshot.getBrowseName(AddressSpaceTree.ROOT)).isNull();
+		assertThat(snapshot.getParents(AddressSpaceTree.ROOT)).isEmpty();
+	}
+
+	@Test
+	void testResolutionMatchesIndex() throws Exception {
+		AddressSpaceTree tree = this.createTree();
+		AddressSpaceIndex index = new AddressSpaceIndex(tree);
+		AddressSpaceSnapshot snapshot = this.writeAndOpen(tree);
+
+		List<List<String>> paths = Arrays.asList(
+				Arrays.asList("numberOfHoles"),
+				Arrays.asList("currentState"),
+				Arrays.asList("currentState", "drillingSkill_1", "PLC_PRG"),
+				Arrays.asList("currentState", "punchingSkill_1"),
+				Arrays.asList("currentState", "sharedSkill", "PLC_PRG"),
+				Arrays.asList("currentState", "sharedSkill", "GVL"),
+				Arrays.asList("currentState", "sharedSkill", "Folder"),
+				Arrays.asList("currentState", "unknownSkill"),
+				Arrays.asList("unknownVariable", "PLC_PRG"));
+		for (List<String> path : paths) {
+			assertThat(resolve(() -> snapshot.findNodeId(path))).as("resolution of %s", path).isEqualTo(resolve(() -> index.findNodeId(path)));
+		}
+
+		// Sanity check that the comparison covers both outcomes
+		assertThat(resolve(() -> snapshot.findNodeId(Arrays.asList("currentState", "sharedSkill", "GVL")))).isEqualTo(new NodeId(4, "Äußerer Zustand"));
+		assertThat(resolve(() -> snapshot.findNodeId(Arrays.asList("currentState")))).asString().contains("There are '3' matches");
+	}
+
+	@Test
+	void testIncompleteTreeIsNotWritten() {
+		AddressSpaceTree tree = this.createTree();
+		tree.markIncomplete();
+
+		assertThatThrownBy(() -> AddressSpaceSnapshot.write(tree, NAMESPACE_URIS, null, this.tempDir.resolve("incomplete.snapshot")))
+				.isInstanceOf(IOException.class);
+		assertThat(this.tempDir.resolve("incomplete.snapshot")).doesNotExist();
+	}
+
+	/**
+	 * @return The resolved nodeId or the error message if the nodeId could not be resolved
+	 */
+	private static Object resolve(Callable<NodeId> resolution) throws Exception {
+		try {
+			return resolution.call();
+		} catch (NodeIdResolvingException e) {
+			return e.getMessage();
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.junit.jupiter.api.Test;
+
+import plc2skill.opcua.AddressSpaceTree;
+
+class AddressSpaceTreeTest {
+
+	// Far more nodes than the initial capacity, so that the node arrays, the nodeId table and the edge lists grow several times
+	private static final int NODE_COUNT = 5000;
+
+	/**
+	 * Creates a nodeId of every identifier type, depending on the node number
+	 */
+	private static NodeId createNodeId(int number) {
+		switch (number % 4) {
+		case 0:
+			return new NodeId(2, uint(number));
+		case 1:
+			return new NodeId(4, "|var|CODESYS Control Win V3 x64.Application.Node" + number);
+		case 2:
+			return new NodeId(3, new UUID(number, number * 31L));
+		default:
+			return new NodeId(5, ByteString.of(("opaque" + number).getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+	/**
+	 * Every node is added below the node with half its number, every node with a number divisible by 7 also gets the node before it as extra parent
+	 */
+	private AddressSpaceTree createTree(int[] nodes) {
+		AddressSpaceTree tree = new AddressSpaceTree(16);
+		for (int number = 0; number < NODE_COUNT; number++) {
+			int parent = (number == 0) ? AddressSpaceTree.ROOT : nodes[number / 2];
+			nodes[number] = tree.addNode(parent, "Node" + (number % 100), createNodeId(number));
+		}
+		for (int number = 7; number < NODE_COUNT; number += 7) {
+			tree.addParent(nodes[number], nodes[number - 1]);
+		}
+		return tree;
+	}
+
+	@Test
+	void testNodeIdTableAfterGrowing() {
+		int[] nodes = new int[NODE_COUNT];
+		AddressSpaceTree tree = this.createTree(nodes);
+
+		assertThat(tree.size()).isEqualTo(NODE_COUNT + 1);
+		for (int number = 0; number < NODE_COUNT; number++) {
+			NodeId nodeId = createNodeId(number);
+			assertThat(tree.indexOf(nodeId)).as("indexOf %s", nodeId).isEqualTo(nodes[number]);
+			assertThat(tree.getNodeId(nodes[number])).isEqualTo(nodeId);
+			assertThat(tree.getBrowseName(nodes[number])).isEqualTo("Node" + (number % 100));
+		}
+
+		// Same identifier in another namespace or of another type is not contained
+		assertThat(tree.indexOf(new NodeId(7, uint(0)))).isEqualTo(AddressSpaceTree.NONE);
+		assertThat(tree.indexOf(new NodeId(2, "0"))).isEqualTo(AddressSpaceTree.NONE);
+		assertThat(tree.indexOf(new NodeId(2, uint(NODE_COUNT * 4)))).isEqualTo(AddressSpaceTree.NONE);
+	}
+
+	@Test
+	void testParentsAndExtraParents() {
+		int[] nodes = new int[NODE_COUNT];
+		AddressSpaceTree tree = this.createTree(nodes);
+
+		assertThat(tree.isRoot(AddressSpaceTree.ROOT)).isTrue();
+		assertThat(tree.getParents(AddressSpaceTree.ROOT)).isEmpty();
+		assertThat(tree.getParents(nodes[0])).containsExactly(AddressSpaceTree.ROOT);
+		for (int number = 1; number < NODE_COUNT; number++) {
+			int parent = nodes[number / 2];
+			assertThat(tree.getParent(nodes[number])).isEqualTo(parent);
+			if (number % 7 == 0) {
+				assertThat(tree.getParents(nodes[number])).containsExactly(parent, nodes[number - 1]);
+			} else {
+				assertThat(tree.getParents(nodes[number])).containsExactly(parent);
+			}
+		}
+
+		// Adding the tree parent or an existing extra parent again doesn't add an edge
+		tree.addParent(nodes[14], nodes[7]);
+		tree.addParent(nodes[14], nodes[13]);
+		assertThat(tree.getParents(nodes[14])).containsExactly(nodes[7], nodes[13]);
+	}
+
+	@Test
+	void testChildrenKeepInsertionOrder() {
+		int[] nodes = new int[NODE_COUNT];
+		AddressSpaceTree tree = this.createTree(nodes);
+
+		// Node n has the children 2n and 2n + 1
+		int child = tree.getFirstChild(nodes[10]);
+		assertThat(child).isEqualTo(nodes[20]);
+		assertThat(tree.getNextSibling(child)).isEqualTo(nodes[21]);
+		assertThat(tree.getNextSibling(nodes[21])).isEqualTo(AddressSpaceTree.NONE);
+		assertThat(tree.getFirstChild(nodes[NODE_COUNT - 1])).isEqualTo(AddressSpaceTree.NONE);
+	}
+
+	@Test
+	void testEstimateMemoryGrowsWithTheTree() {
+		AddressSpaceTree emptyTree = new AddressSpaceTree(16);
+		AddressSpaceTree tree = this.createTree(new int[NODE_COUNT]);
+
+		assertThat(emptyTree.estimateMemory()).isPositive();
+		// At least the node arrays (39 bytes per node)
+		assertThat(tree.estimateMemory()).isGreaterThan(emptyTree.estimateMemory() + NODE_COUNT * 39L);
+	}
+
+}
@@ -0,0 +1,80 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import plc2skill.mapping.MappingDelta;
+import plc2skill.mapping.MappingEngine;
+import plc2skill.mapping.Plc2SkillMapper;
+
+class IncrementalMappingTest {
+
+	private final Path plcOpenXmlPath = Paths.get("src", "test", "resources", "Test-PlcOpenXml.xml").toAbsolutePath();
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testOnlyChangedSkillsAreMappedAgain() throws Exception {
+		Path plcOpenCopy = this.tempDir.resolve("PlcOpenXml.xml");
+		Files.copy(this.plcOpenXmlPath, plcOpenCopy);
+		Path stateFile = this.tempDir.resolve("plc2skill.state");
+
+		// Without a state file, everything is added
+		Model firstModel = this.map(plcOpenCopy);
+		MappingDelta firstDelta = this.createMapper(plcOpenCopy).executeIncrementalMapping(stateFile);
+		assertThat(firstDelta.getRemappedSkills()).containsExactly("drillingSkill_1", "punchingSkill_1");
+		assertThat(firstDelta.getRemovedStatements()).isEmpty();
+		assertThat(Models.isomorphic(firstDelta.getAddedStatements(), firstModel)).isTrue();
+
+		// Nothing changed
+		MappingDelta secondDelta = this.createMapper(plcOpenCopy).executeIncrementalMapping(stateFile);
+		assertThat(secondDelta.getRemappedSkills()).isEmpty();
+		assertThat(secondDelta.isEmpty()).isTrue();
+
+		// Change the default value of a parameter of the drilling skill only
+		String plcOpenXml = new String(Files.readAllBytes(plcOpenCopy), StandardCharsets.UTF_8);
+		Files.write(plcOpenCopy, plcOpenXml.replaceFirst("<simpleValue value=\"10\" />", "<simpleValue value=\"12\" />")
+				.getBytes(StandardCharsets.UTF_8));
+		MappingDelta thirdDelta = this.createMapper(plcOpenCopy).executeIncrementalMapping(stateFile);
+		assertThat(thirdDelta.getRemappedSkills()).containsExactly("drillingSkill_1");
+		assertThat(thirdDelta.isEmpty()).isFalse();
+
+		// Applying the delta to the first result gives the result of a full mapping
+		Model patchedModel = new LinkedHashModel(firstModel);
+		patchedModel.removeAll(thirdDelta.getRemovedStatements());
+		patchedModel.addAll(thirdDelta.getAddedStatements());
+		assertThat(Models.isomorphic(patchedModel, this.map(plcOpenCopy))).isTrue();
+	}
+
+	private Model map(Path plcOpenPath) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		this.createMapper(plcOpenPath).executeMapping(output);
+		return Rio.parse(new ByteArrayInputStream(output.toByteArray()), "", RDFFormat.TURTLE);
+	}
+
+	private Plc2SkillMapper createMapper(Path plcOpenPath) {
+		return new Plc2SkillMapper.Builder(plcOpenPath, "opc.tcp://localhost:4840")
+				.setNodeIdRoot("|var|CODESYS Control Win V3 x64")
+				.setEndpointSecurity(MessageSecurityMode.None, SecurityPolicy.None)
+				.setMappingEngine(MappingEngine.NATIVE)
+				.build();
+	}
+
+}
@@ -0,0 +1,57 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.rdf4j.model.util.Models;
+import org.junit.jupiter.api.Test;
+
+import be.ugent.rml.store.QuadStore;
+import plc2skill.mapping.MappingEngine;
+import plc2skill.mapping.NativeSkillMapper;
+import plc2skill.mapping.Plc2SkillMapper;
+import plc2skill.mapping.PlcOpenModel;
+import plc2skill.mapping.PlcOpenSkillExtractor;
+import plc2skill.mapping.RmlMapper;
+
+/**
+ * Makes sure that the native mapping engine creates the same result as the RML engine
+ */
+class MappingEngineTest {
+
+	private final Path plcOpenXmlPath = Paths.get("src", "test", "resources", "Test-PlcOpenXml.xml").toAbsolutePath();
+	private final String baseIri = "http://www.hsu-hh.de/aut/ontologies/PLC2Skill";
+
+	@Test
+	void testBothEnginesCreateSameQuads() throws Exception {
+		PlcOpenModel model = new PlcOpenSkillExtractor().extract(plcOpenXmlPath);
+
+		QuadStore rmlResult = new RmlMapper().executeRmlMapping(model, plcOpenXmlPath, baseIri);
+		QuadStore nativeResult = new NativeSkillMapper().executeMapping(model, baseIri);
+
+		assertThat(nativeResult.getQuads(null, null, null)).hasSameSizeAs(rmlResult.getQuads(null, null, null));
+		assertThat(RmlMapper.convertResultToString(nativeResult)).isEqualTo(RmlMapper.convertResultToString(rmlResult));
+	}
+
+	@Test
+	void testNativeEngineCreatesExpectedOutput() throws Exception {
+		Plc2SkillMapper mapper = new Plc2SkillMapper.Builder(plcOpenXmlPath, "opc.tcp://localhost:4840")
+				.setNodeIdRoot("|var|CODESYS Control Win V3 x64")
+				.setEndpointSecurity(MessageSecurityMode.None, SecurityPolicy.None)
+				.setMappingEngine(MappingEngine.NATIVE)
+				.build();
+
+		String actualResult = mapper.executeMapping();
+		byte[] fileFromBytes = Files.readAllBytes(Paths.get("src", "test", "resources", "ExpectedMappingOutput.ttl"));
+		String expectedResult = new String(fileFromBytes, StandardCharsets.UTF_8);
+
+		assertThat(Models.isomorphic(MappingTest.parseTurtle(actualResult), MappingTest.parseTurtle(expectedResult))).isTrue();
+	}
+
+}
@@ -2,13 +2,22 @@ package plc2skill.test;
 
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.StatementCollector;
 import org.junit.jupiter.api.Test;
 import static org.assertj.core.api.Assertions.*;
 
@@ -24,13 +33,38 @@ class MappingTest {
 		String nodeIdRoot = "|var|CODESYS Control Win V3 x64";
 		Plc2SkillMapper mapper = new Plc2SkillMapper.Builder(mappingPath, endpointUrl)
 				.setNodeIdRoot(nodeIdRoot)
+				.setEndpointSecurity(MessageSecurityMode.None, SecurityPolicy.None)
 				.build();
 		
 		String actualResult = mapper.executeMapping();
 		byte[] fileFromBytes = Files.readAllBytes(Paths.get("src", "test", "resources", "ExpectedMappingOutput.ttl"));
 		String expectedResult = new String(fileFromBytes, StandardCharsets.UTF_8);
 		
-		assertThat(actualResult).isEqualToIgnoringWhitespace(expectedResult);
+		assertThat(Models.isomorphic(parseTurtle(actualResult), parseTurtle(expectedResult))).isTrue();
+	}
+	
+	@Test
+	void testStreamingMappingWithoutPlc() throws Exception {
+		Path mappingPath = Paths.get("src", "test", "resources", "Test-PlcOpenXml.xml").toAbsolutePath();
+		Plc2SkillMapper mapper = new Plc2SkillMapper.Builder(mappingPath, "opc.tcp://localhost:4840")
+				.setNodeIdRoot("|var|CODESYS Control Win V3 x64")
+				.setEndpointSecurity(MessageSecurityMode.None, SecurityPolicy.None)
+				.build();
+		
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		mapper.executeMapping(output);
+		byte[] fileFromBytes = Files.readAllBytes(Paths.get("src", "test", "resources", "ExpectedMappingOutput.ttl"));
+		String expectedResult = new String(fileFromBytes, StandardCharsets.UTF_8);
+		Model actualModel = parseTurtle(new String(output.toByteArray(), StandardCharsets.UTF_8));
+		assertThat(Models.isomorphic(actualModel, parseTurtle(expectedResult))).isTrue();
+		
+		// Statements are passed to a handler with all placeholders replaced
+		StatementCollector collector = new StatementCollector();
+		mapper.executeMapping(collector);
+		assertThat(collector.getStatements()).isNotEmpty();
+		assertThat(collector.getStatements()).noneMatch(statement -> statement.getObject().stringValue().contains("__NodeIdRootComponent__"));
+		assertThat(collector.getStatements()).anyMatch(statement -> statement.getObject().stringValue().startsWith("|var|CODESYS Control Win V3 x64.PLC_PRG"));
+		assertThat(Models.isomorphic(collector.getStatements(), actualModel)).isTrue();
 	}
 	
 	
@@ -56,7 +90,17 @@ class MappingTest {
 	    writer.close();
 		String expectedResult = new String(fileFromBytes, StandardCharsets.UTF_8);
 		
-		assertThat(actualResult).isEqualToIgnoringWhitespace(expectedResult);
+		assertThat(Models.isomorphic(parseTurtle(actualResult), parseTurtle(expectedResult))).isTrue();
+	}
+	
+	/**
+	 * Parses a mapping result. Results are compared as RDF graphs, the order of the statements and their layout don't matter
+	 * @param turtle Mapping result in turtle syntax
+	 * @return
+	 * @throws IOException
+	 */
+	static Model parseTurtle(String turtle) throws IOException {
+		return Rio.parse(new StringReader(turtle), "", RDFFormat.TURTLE);
 	}
 
 }
@@ -0,0 +1,141 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.junit.jupiter.api.Test;
+
+import plc2skill.opcua.OpcUaSession;
+import plc2skill.opcua.OpcUaSessionPool;
+
+class OpcUaSessionPoolTest {
+
+	private static final String ENDPOINT_URL = "opc.tcp://localhost:4840";
+
+	/**
+	 * Session without a server, the connection state is controlled by the test
+	 */
+	private static class TestSession extends OpcUaSession {
+		volatile boolean connected = true;
+		volatile boolean disconnected = false;
+
+		TestSession() {
+			super(null, null, MessageSecurityMode.None, SecurityPolicy.None);
+		}
+
+		@Override
+		public boolean isConnected() {
+			return this.connected && !this.disconnected;
+		}
+
+		@Override
+		public void disconnect() {
+			this.disconnected = true;
+		}
+	}
+
+	/**
+	 * Pool that creates test sessions instead of connecting to a server
+	 */
+	private static class TestSessionPool extends OpcUaSessionPool {
+		final List<TestSession> createdSessions = new ArrayList<TestSession>();
+
+		TestSessionPool(int maxSessionsPerEndpoint, long borrowTimeoutMillis) {
+			super(maxSessionsPerEndpoint, TimeUnit.MINUTES.toMillis(5), borrowTimeoutMillis);
+		}
+
+		@Override
+		protected synchronized OpcUaSession connect(String endpointUrl, String user, String password) {
+			TestSession session = new TestSession();
+			this.createdSessions.add(session);
+			return session;
+		}
+	}
+
+	@Test
+	void testReleasedSessionsAreReused() throws Exception {
+		try (TestSessionPool pool = new TestSessionPool(2, 100)) {
+			OpcUaSession first = pool.borrow(ENDPOINT_URL, "user", "password");
+			OpcUaSession second = pool.borrow(ENDPOINT_URL, "user", "password");
+			assertThat(second).isNotSameAs(first);
+
+			pool.release(first);
+			assertThat(pool.borrow(ENDPOINT_URL, "user", "password")).isSameAs(first);
+			assertThat(pool.createdSessions).hasSize(2);
+
+			// Other credentials and endpoints have their own slots
+			pool.borrow(ENDPOINT_URL, null, null);
+			pool.borrow("opc.tcp://otherhost:4840", "user", "password");
+			assertThat(pool.createdSessions).hasSize(4);
+		}
+	}
+
+	@Test
+	void testBorrowTimesOutIfAllSessionsAreInUse() throws Exception {
+		try (TestSessionPool pool = new TestSessionPool(1, 500)) {
+			OpcUaSession session = pool.borrow(ENDPOINT_URL, "", "");
+
+			assertThatThrownBy(() -> pool.borrow(ENDPOINT_URL, "", "")).isInstanceOf(TimeoutException.class);
+
+			// A waiting borrower gets the session as soon as it is released
+			CompletableFuture<OpcUaSession> waitingBorrow = CompletableFuture.supplyAsync(() -> {
+				try {
+					return pool.borrow(ENDPOINT_URL, "", "");
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			Thread.sleep(20);
+			pool.release(session);
+			assertThat(waitingBorrow.get(5, TimeUnit.SECONDS)).isSameAs(session);
+			assertThat(pool.createdSessions).hasSize(1);
+		}
+	}
+
+	@Test
+	void testInvalidatedSessionFreesItsSlot() throws Exception {
+		try (TestSessionPool pool = new TestSessionPool(1, 100)) {
+			TestSession session = (TestSession) pool.borrow(ENDPOINT_URL, "", "");
+
+			pool.invalidate(session);
+			assertThat(session.disconnected).isTrue();
+
+			OpcUaSession newSession = pool.borrow(ENDPOINT_URL, "", "");
+			assertThat(newSession).isNotSameAs(session);
+			assertThat(pool.createdSessions).hasSize(2);
+
+			// Releasing an invalidated session again has no effect on the slots
+			pool.release(session);
+			assertThatThrownBy(() -> pool.borrow(ENDPOINT_URL, "", "")).isInstanceOf(TimeoutException.class);
+		}
+	}
+
+	@Test
+	void testDisconnectedSessionsAreNotHandedOut() throws Exception {
+		try (TestSessionPool pool = new TestSessionPool(1, 100)) {
+			// Connection lost while the session is idle
+			TestSession idleSession = (TestSession) pool.borrow(ENDPOINT_URL, "", "");
+			pool.release(idleSession);
+			idleSession.connected = false;
+
+			TestSession borrowedSession = (TestSession) pool.borrow(ENDPOINT_URL, "", "");
+			assertThat(borrowedSession).isNotSameAs(idleSession);
+			assertThat(idleSession.disconnected).isTrue();
+
+			// Connection lost while the session is borrowed, releasing it closes it and frees its slot
+			borrowedSession.connected = false;
+			pool.release(borrowedSession);
+			assertThat(borrowedSession.disconnected).isTrue();
+			assertThat(pool.borrow(ENDPOINT_URL, "", "")).isNotIn(idleSession, borrowedSession);
+			assertThat(pool.createdSessions).hasSize(3);
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.eclipse.rdf4j.model.util.Values.iri;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Collectors;
+
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.util.Models;
+import org.eclipse.rdf4j.model.util.Statements;
+import org.eclipse.rdf4j.rio.Rio;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import plc2skill.mapping.OutputFormat;
+import plc2skill.mapping.Plc2SkillMapper;
+
+class OutputFormatTest {
+
+	private final Path plcOpenXmlPath = Paths.get("src", "test", "resources", "Test-PlcOpenXml.xml").toAbsolutePath();
+
+	@ParameterizedTest
+	@EnumSource(OutputFormat.class)
+	void testAllFormatsContainSameStatements(OutputFormat outputFormat) throws Exception {
+		Model turtleModel = Rio.parse(new ByteArrayInputStream(this.map(OutputFormat.TURTLE)), "", OutputFormat.TURTLE.getRdfFormat());
+		Model model = Rio.parse(new ByteArrayInputStream(this.map(outputFormat)), "", outputFormat.getRdfFormat());
+
+		assertThat(model).isNotEmpty();
+		assertThat(Models.isomorphic(model, turtleModel)).isTrue();
+	}
+
+	@Test
+	void testAcceptHeaderNegotiation() {
+		assertThat(OutputFormat.fromAcceptHeader(null)).isEqualTo(OutputFormat.TURTLE);
+		assertThat(OutputFormat.fromAcceptHeader("*/*")).isEqualTo(OutputFormat.TURTLE);
+		assertThat(OutputFormat.fromAcceptHeader("application/n-triples")).isEqualTo(OutputFormat.NTRIPLES);
+		assertThat(OutputFormat.fromAcceptHeader("text/turtle;q=0.5, application/x-binary-rdf")).isEqualTo(OutputFormat.BINARY);
+		assertThat(OutputFormat.fromAcceptHeader("application/n-quads;q=0.9, application/json")).isEqualTo(OutputFormat.NQUADS);
+		assertThat(OutputFormat.fromAcceptHeader("application/json")).isNull();
+	}
+
+	@Test
+	void testGraphPerSkill() throws Exception {
+		Model turtleModel = Rio.parse(new ByteArrayInputStream(this.map(OutputFormat.TURTLE)), "", OutputFormat.TURTLE.getRdfFormat());
+		Model model = Rio.parse(new ByteArrayInputStream(this.map(OutputFormat.NQUADS, true)), "", OutputFormat.NQUADS.getRdfFormat());
+
+		// One graph per skill, everything else in the default graph
+		String base = "http://www.hsu-hh.de/aut/ontologies/PLC2Skill";
+		assertThat(model.contexts()).hasSize(3).contains((Resource) null);
+		Resource drillingGraph = model.filter(iri(base + "#drillingSkill_1"), null, null).iterator().next().getContext();
+		assertThat(drillingGraph.stringValue()).startsWith(base + "/skills/drillingSkill_1/");
+		assertThat(model.filter(iri(base + "#drillingSkill_1_Capability"), null, null).contexts()).containsExactly(drillingGraph);
+		assertThat(model.filter(iri(base + "#drillingSkill_1_StateMachine"), null, null).contexts()).containsExactly(drillingGraph);
+		assertThat(model.filter(iri(base + "#Device"), null, null).contexts()).containsExactly((Resource) null);
+
+		// Same statements as without graphs and stable graph names
+		assertThat(Models.isomorphic(model.filter(null, null, null).stream().map(statement -> Statements.statement(statement.getSubject(),
+				statement.getPredicate(), statement.getObject(), null)).collect(Collectors.toList()), turtleModel)).isTrue();
+		Model secondModel = Rio.parse(new ByteArrayInputStream(this.map(OutputFormat.NQUADS, true)), "", OutputFormat.NQUADS.getRdfFormat());
+		assertThat(secondModel.contexts()).isEqualTo(model.contexts());
+	}
+
+	private byte[] map(OutputFormat outputFormat) throws Exception {
+		return this.map(outputFormat, false);
+	}
+
+	private byte[] map(OutputFormat outputFormat, boolean graphPerSkill) throws Exception {
+		Plc2SkillMapper mapper = new Plc2SkillMapper.Builder(plcOpenXmlPath, "opc.tcp://localhost:4840")
+				.setNodeIdRoot("|var|CODESYS Control Win V3 x64")
+				.setEndpointSecurity(MessageSecurityMode.None, SecurityPolicy.None)
+				.setOutputFormat(outputFormat)
+				.setGraphPerSkill(graphPerSkill)
+				.build();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		mapper.executeMapping(output);
+		return output.toByteArray();
+	}
+
+}
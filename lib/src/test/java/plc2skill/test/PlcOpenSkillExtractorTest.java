@@ -0,0 +1,60 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import plc2skill.mapping.PlcOpenModel;
+import plc2skill.mapping.PlcOpenModel.SkillPou;
+import plc2skill.mapping.PlcOpenModel.SkillVariable;
+import plc2skill.mapping.PlcOpenSkillExtractor;
+
+class PlcOpenSkillExtractorTest {
+
+	@Test
+	void testExtractSkillsOfTestFile() throws Exception {
+		Path plcOpenXmlPath = Paths.get("src", "test", "resources", "Test-PlcOpenXml.xml").toAbsolutePath();
+		PlcOpenModel model = new PlcOpenSkillExtractor().extract(plcOpenXmlPath);
+
+		assertThat(model.getConfigurationNames()).containsExactly("Device");
+		assertThat(model.getResourceNames()).containsExactly("Application");
+		assertThat(model.getResources().get(0).getPouInstanceNames()).containsExactly("PLC_PRG");
+		assertThat(model.getSkillNames()).containsExactly("drillingSkill_1", "punchingSkill_1");
+
+		SkillPou drillingSkill = model.getSkillInstances().get(0).getSkillPou();
+		assertThat(drillingSkill.getName()).isEqualTo("DrillingSkill");
+		assertThat(drillingSkill.getParameters()).hasSize(1);
+		SkillVariable parameter = drillingSkill.getParameters().get(0);
+		assertThat(parameter.getName()).isEqualTo("numberOfHoles");
+		assertThat(parameter.getDefaultValue()).isEqualTo("10");
+		assertThat(parameter.getVariableName()).isEqualTo("'numberOfHoles'");
+		assertThat(parameter.getParamType()).isEqualTo("'int'");
+		assertThat(parameter.getRequired()).isEqualTo("TRUE");
+		assertThat(drillingSkill.getOutputs()).extracting(SkillVariable::getName).containsExactly("drillingResult");
+	}
+
+	@Test
+	void testSkillPouDeclaredAfterItsInstance() throws Exception {
+		String plcOpenXml = "<project xmlns=\"http://www.plcopen.org/xml/tc6_0200\"><instances><configurations><configuration name=\"Device\">"
+				+ "<resource name=\"App\"><addData><data>"
+				+ "<pou name=\"PLC_PRG\"><interface><localVars>"
+				+ "<variable name=\"skill\"><type><derived name=\"MySkill\"/></type></variable>"
+				+ "<variable name=\"timer\"><type><derived name=\"TON\"/></type></variable>"
+				+ "</localVars></interface></pou>"
+				+ "</data><data>"
+				+ "<pou name=\"MySkill\"><interface><addData><data><Inheritance><Extends>PLC2Skill.Skill</Extends></Inheritance></data></addData></interface></pou>"
+				+ "</data></addData></resource></configuration></configurations></instances></project>";
+
+		PlcOpenModel model = new PlcOpenSkillExtractor().extract(new ByteArrayInputStream(plcOpenXml.getBytes(StandardCharsets.UTF_8)));
+
+		assertThat(model.getSkillNames()).containsExactly("skill");
+		assertThat(model.getSkillInstances().get(0).getDeclaringPouName()).isEqualTo("PLC_PRG");
+		assertThat(model.getSkillInstances().get(0).getSkillPou().getParameters()).isEmpty();
+	}
+
+}
@@ -0,0 +1,75 @@
+package plc2skill.test;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+
+import plc2skill.opcua.TreeNode;
+
+class TreeNodeTest {
+
+	/**
+	 * Creates a tree with a given depth and number of children per node. Node data is the path of child positions (e.g. "r.0.2")
+	 */
+	private TreeNode<String> createTree(int depth, int childrenPerNode) {
+		TreeNode<String> root = new TreeNode<String>("r");
+		addChildren(root, depth, childrenPerNode);
+		return root;
+	}
+
+	private void addChildren(TreeNode<String> parent, int depth, int childrenPerNode) {
+		if (depth == 0) {
+			return;
+		}
+		for (int i = 0; i < childrenPerNode; i++) {
+			TreeNode<String> child = new TreeNode<String>(parent.getData() + "." + i);
+			parent.addChild(child);
+			addChildren(child, depth - 1, childrenPerNode);
+		}
+	}
+
+	private List<String> collectRecursively(TreeNode<String> node, List<String> result) {
+		result.add(node.getData());
+		for (TreeNode<String> child : node.getChildren()) {
+			collectRecursively(child, result);
+		}
+		return result;
+	}
+
+	@Test
+	void testIteratorReturnsPreOrder() {
+		TreeNode<String> tree = createTree(4, 3);
+
+		List<String> iterated = new ArrayList<String>();
+		for (TreeNode<String> node : tree) {
+			iterated.add(node.getData());
+		}
+
+		assertThat(iterated).containsExactlyElementsOf(collectRecursively(tree, new ArrayList<String>()));
+	}
+
+	@Test
+	void testIteratorWithoutHasNext() {
+		TreeNode<String> tree = createTree(1, 2);
+		Iterator<TreeNode<String>> iterator = tree.iterator();
+
+		assertThat(iterator.next().getData()).isEqualTo("r");
+		assertThat(iterator.next().getData()).isEqualTo("r.0");
+		assertThat(iterator.next().getData()).isEqualTo("r.1");
+		assertThat(iterator.hasNext()).isFalse();
+		assertThatThrownBy(iterator::next).isInstanceOf(NoSuchElementException.class);
+	}
+
+	@Test
+	void testIteratorStaysInSubtree() {
+		TreeNode<String> tree = createTree(3, 2);
+		TreeNode<String> subtree = tree.getChildren().get(0);
+
+		assertThat(subtree.toFlatList()).hasSize(7).allMatch(node -> node.getData().startsWith("r.0"));
+	}
+}
@@ -4,6 +4,7 @@ import static spark.Spark.*;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 
@@ -13,14 +14,33 @@ import javax.servlet.http.Part;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import plc2skill.mapping.OutputFormat;
 import plc2skill.mapping.Plc2SkillMapper;
+import plc2skill.mapping.RmlMappingPlan;
+import plc2skill.opcua.AddressSpaceCache;
+import plc2skill.opcua.OpcUaSessionPool;
 
 public class RestApi {
 
 	private final static Logger logger = LoggerFactory.getLogger(RestApi.class);
+	
+	// OPC UA sessions are shared by all requests, so that repeated mappings don't need to connect again
+	private final static OpcUaSessionPool sessionPool = new OpcUaSessionPool();
+	
+	// Crawled address spaces are kept while a pooled session watches them for changes
+	private final static AddressSpaceCache addressSpaceCache = new AddressSpaceCache();
 
 	public static void main(String[] args) {
 
+		Runtime.getRuntime().addShutdownHook(new Thread(sessionPool::close));
+		
+		// Load the mapping rules before the first request, they are shared by all requests afterwards
+		try {
+			RmlMappingPlan.getDefault();
+		} catch (Exception e) {
+			logger.error("Error while loading the mapping rules: " + e.toString());
+		}
+		
 		port(9191);								// Set port of this webservice
 		logger.info("Running MTP-Mapping-Service at localhost:9191");
 		
@@ -35,6 +55,18 @@ public class RestApi {
 			return "";
 		});
 		
+		// Drops cached address spaces, either of one endpoint (parameter endpointUrl) or all of them
+		delete("/cache", (request, response) -> {
+			String endpointUrl = request.queryParams("endpointUrl");
+			if (endpointUrl == null || endpointUrl.isBlank()) {
+				addressSpaceCache.clear();
+			} else {
+				addressSpaceCache.invalidate(endpointUrl);
+			}
+			response.status(204);
+			return "";
+		});
+		
 		// Setup a post route at base path
 		post("/", (request, response) -> {
 			request.attribute("org.eclipse.jetty.multipartConfig", new MultipartConfigElement("/temp"));
@@ -44,8 +76,20 @@ public class RestApi {
 			String resourceIri = request.raw().getParameter("resourceIri");
 			String baseIri = request.raw().getParameter("baseIri");
 			String nodeIdRoot = request.raw().getParameter("nodeIdRoot");
+			boolean graphPerSkill = Boolean.parseBoolean(request.raw().getParameter("graphPerSkill"));
 			Part uploadedFileObject = request.raw().getPart("plc-file");
 			
+			// The format of the result is negotiated with the Accept header
+			OutputFormat outputFormat = OutputFormat.fromAcceptHeader(request.headers("Accept"));
+			if (outputFormat == null) {
+				response.status(406);
+				return "None of the accepted media types is supported";
+			}
+			if (graphPerSkill && !outputFormat.supportsGraphs()) {
+				response.status(406);
+				return "A graph per skill requires a media type with named graphs, e.g. application/n-quads";
+			}
+			
 			File plcOpenFile = new File(uploadDir.getAbsolutePath() + File.separator + getFileName(uploadedFileObject));
 			plcOpenFile.deleteOnExit();
 			
@@ -63,10 +107,18 @@ public class RestApi {
 					.setNodeIdRoot(nodeIdRoot)
 					.setBaseIri(baseIri)
 					.setResourceIri(resourceIri)
+					.setSessionPool(sessionPool)
+					.setAddressSpaceCache(addressSpaceCache)
+					.setOutputFormat(outputFormat)
+					.setGraphPerSkill(graphPerSkill)
 					.build();
-			String mappingResult = mapper.executeMapping();
-
-			return mappingResult;
+			
+			// The result is streamed to the client instead of being collected in memory
+			response.type(outputFormat.getMimeType());
+			OutputStream output = response.raw().getOutputStream();
+			mapper.executeMapping(output);
+			output.flush();
+			return "";
 		});
 	}
 